@@ -0,0 +1,108 @@
+package com.example.lkpos;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 基准测试用的应用上下文：H2 MySQL 兼容模式 + 按规模生成的商品目录和销售历史。
+ * 规模由系统属性控制：bench.products（商品数）、bench.orders（历史订单数）、bench.days（历史跨度）。
+ * 数据用固定种子生成，同样的规模每次跑出来的数据完全一样。
+ */
+final class BenchmarkDatabase {
+
+    static final long FIRST_BARCODE = 6900000000000L;
+
+    final ConfigurableApplicationContext context;
+    final int products;
+    final int orders;
+
+    private BenchmarkDatabase(ConfigurableApplicationContext context, int products, int orders) {
+        this.context = context;
+        this.products = products;
+        this.orders = orders;
+    }
+
+    static BenchmarkDatabase start(String name) {
+        int products = Integer.getInteger("bench.products", 10_000);
+        int orders = Integer.getInteger("bench.orders", 20_000);
+        int days = Integer.getInteger("bench.days", 90);
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(LkPosApplication.class)
+                .web(WebApplicationType.NONE)
+                // 用命令行参数的形式传入，才能覆盖 application.properties 里的 MySQL 配置
+                .run("--spring.datasource.url=jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+        seed(context.getBean(JdbcTemplate.class), products, orders, days);
+
+        // 数据是在上下文启动之后才灌进去的，启动时预热过的常驻索引、汇总和库存都要按灌好的数据重来一次，
+        // 否则基准测的是空数据上的路径。条码索引最先，其他组件补单时要用它对商品
+        context.getBean(BarcodeIndex.class).reload();
+        context.getBean(SalesAggregates.class).rebuild();
+        context.getBean(SalesRollups.class).backfill();
+        context.getBean(ProductSearch.class).reload();
+        context.getBean(ProductAffinity.class).reload();
+        context.getBean(StockLevels.class).load();
+
+        return new BenchmarkDatabase(context, products, orders);
+    }
+
+    void close() {
+        context.close();
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    static String barcode(int productIndex) {
+        return String.valueOf(FIRST_BARCODE + productIndex);
+    }
+
+    private static void seed(JdbcTemplate jdbc, int products, int orders, int days) {
+        SplittableRandom random = new SplittableRandom(42);
+
+        List<Object[]> productRows = new ArrayList<>(products);
+        List<Object[]> barcodeRows = new ArrayList<>(products);
+        for (int i = 1; i <= products; i++) {
+            double price = 1 + random.nextInt(9900) / 100.0;
+            productRows.add(new Object[]{i, "商品" + i, price, price * 0.7, "品牌" + (i % 200), "分类" + (i % 30)});
+            barcodeRows.add(new Object[]{barcode(i), i});
+        }
+        jdbc.batchUpdate("INSERT INTO products (id, name, price, cost_price, brand, category) VALUES (?, ?, ?, ?, ?, ?)", productRows);
+        jdbc.batchUpdate("INSERT INTO product_barcodes (barcode, product_id) VALUES (?, ?)", barcodeRows);
+
+        // 销售历史：均匀分布在最近 days 天里，每单 1~20 件，少数畅销品占大头
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> orderRows = new ArrayList<>(orders);
+        List<Object[]> itemRows = new ArrayList<>(orders * 10);
+        for (int o = 1; o <= orders; o++) {
+            LocalDateTime time = now.minusMinutes(random.nextLong((long) days * 24 * 60));
+            int lines = 1 + random.nextInt(20);
+            double total = 0;
+            for (int l = 0; l < lines; l++) {
+                int p = random.nextInt(10) < 3 ? 1 + random.nextInt(Math.min(50, products)) : 1 + random.nextInt(products);
+                int qty = 1 + random.nextInt(3);
+                itemRows.add(new Object[]{o, barcode(p), "商品" + p, 5.0, qty});
+                total += 5.0 * qty;
+            }
+            orderRows.add(new Object[]{o, total, lines, Timestamp.valueOf(time)});
+        }
+        jdbc.batchUpdate("INSERT INTO orders (id, total_amount, total_items, create_time) VALUES (?, ?, ?, ?)", orderRows);
+        jdbc.batchUpdate("INSERT INTO order_items (order_id, barcode, name, price, quantity) VALUES (?, ?, ?, ?, ?)", itemRows);
+        // 显式写了自增主键，之后的结账要从历史之后继续编号
+        jdbc.execute("ALTER TABLE orders ALTER COLUMN id RESTART WITH " + (orders + 1));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 结账：OrderController.createOrder 在不同购物车规模下的吞吐和延迟（含事务提交和提交后的统计增量）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckoutBenchmark {
+
+    @Param({"1", "10", "40", "200"})
+    public int cartSize;
+
+    private BenchmarkDatabase db;
+    private OrderController controller;
+    private int products;
+    private int offset;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = BenchmarkDatabase.start("checkout_bench_" + cartSize);
+        controller = db.bean(OrderController.class);
+        products = db.products;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<String> createOrder() {
+        // 每次都是新的请求对象：createOrder 会回填明细里的 orderId
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(cartSize);
+        List<OrderItem> items = request.items;
+        for (int i = 0; i < cartSize; i++) {
+            int p = 1 + (offset++ % products);
+            OrderItem item = new OrderItem();
+            item.barcode = BenchmarkDatabase.barcode(p);
+            item.name = "商品" + p;
+            item.price = 5.0;
+            item.quantity = 1;
+            items.add(item);
+        }
+        request.totalItems = cartSize;
+        request.totalAmount = cartSize * 5.0;
+        return controller.createOrder(request);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.lkpos;
+
+import com.example.lkpos.StatsController.StatsMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 看板：常驻销售汇总 vs 原来的四表连查 SQL，销售历史规模由 bench.orders / bench.days 决定。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DashboardBenchmark {
+
+    private BenchmarkDatabase db;
+    private StatsController controller;
+    private StatsMapper mapper;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = BenchmarkDatabase.start("dashboard_bench");
+        controller = db.bean(StatsController.class);
+        mapper = db.bean(StatsMapper.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    @Benchmark
+    public Map<String, Object> dashboard() {
+        return controller.getDashboardData();
+    }
+
+    @Benchmark
+    public void dashboardSql(Blackhole bh) {
+        LocalDateTime today = LocalDate.now().atStartOfDay();
+        bh.consume(mapper.getTodayStats(today, today.plusDays(1)));
+        bh.consume(mapper.getTopProducts());
+    }
+}
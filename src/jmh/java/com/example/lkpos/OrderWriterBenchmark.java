@@ -0,0 +1,130 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.Order;
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderMapper;
+import com.example.lkpos.OrderController.OrderRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单落库：直接调用 OrderWriter，按购物车规模和明细写法。
+ * save 是收银台结账和结账日志回放的写法（一单一个事务），saveBatch 是离线补录的写法（一批订单一个事务），
+ * 分数都按“每单”计。含扣库存和提交后的统计增量，不含控制器的开销（看 CheckoutBenchmark）。
+ * itemInsert=multi-row 是 OrderWriter 现在的多行 INSERT；per-row 把明细换回一行一条 INSERT，作为对照。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderWriterBenchmark {
+
+    // 离线补录一个事务写多少单
+    private static final int BATCH_ORDERS = 50;
+
+    @Param({"1", "10", "40", "200"})
+    public int cartSize;
+
+    @Param({"per-row", "multi-row"})
+    public String itemInsert;
+
+    private BenchmarkDatabase db;
+    private OrderWriter writer;
+    private int products;
+    private int offset;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = BenchmarkDatabase.start("order_writer_bench_" + cartSize + "_" + itemInsert);
+        writer = db.bean(OrderWriter.class);
+        products = db.products;
+        if ("per-row".equals(itemInsert)) {
+            OrderWriter target = AopTestUtils.getTargetObject(writer);
+            OrderMapper mapper = (OrderMapper) ReflectionTestUtils.getField(target, "orderMapper");
+            ReflectionTestUtils.setField(target, "orderMapper", perRowItems(mapper, db.bean(JdbcTemplate.class)));
+        }
+    }
+
+    // 逐行插入明细的对照：insertOrderItems 拆成每行一条 INSERT，其他方法照旧交给 MyBatis。
+    // JdbcTemplate 和 MyBatis 用的是同一个事务里的同一个连接
+    private static OrderMapper perRowItems(OrderMapper mapper, JdbcTemplate jdbc) {
+        return (OrderMapper) Proxy.newProxyInstance(OrderMapper.class.getClassLoader(), new Class<?>[]{OrderMapper.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("insertOrderItems")) {
+                        @SuppressWarnings("unchecked")
+                        List<OrderItem> items = (List<OrderItem>) args[0];
+                        for (OrderItem item : items) {
+                            jdbc.update("INSERT INTO order_items (order_id, barcode, name, price, quantity) VALUES (?, ?, ?, ?, ?)",
+                                    item.orderId, item.barcode, item.name, item.price, item.quantity);
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(mapper, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    // 每次都是新的请求对象：写入时会回填明细里的 orderId
+    private OrderRequest cart() {
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(cartSize);
+        for (int i = 0; i < cartSize; i++) {
+            int p = 1 + (offset++ % products);
+            OrderItem item = new OrderItem();
+            item.barcode = BenchmarkDatabase.barcode(p);
+            item.name = "商品" + p;
+            item.price = 5.0;
+            item.quantity = 1;
+            request.items.add(item);
+        }
+        request.totalItems = cartSize;
+        request.totalAmount = cartSize * 5.0;
+        return request;
+    }
+
+    @Benchmark
+    public Order save() {
+        return writer.save(cart());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ORDERS)
+    public List<Order> saveBatch() {
+        List<OrderRequest> requests = new ArrayList<>(BATCH_ORDERS);
+        for (int i = 0; i < BATCH_ORDERS; i++) {
+            requests.add(cart());
+        }
+        return writer.saveBatch(requests);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import com.example.lkpos.ProductController.ProductMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 扫码热路径：内存条码索引 vs 直接查库（findByBarcode 连表）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    private BenchmarkDatabase db;
+    private ProductController controller;
+    private ProductMapper mapper;
+    private String[] barcodes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = BenchmarkDatabase.start("scan_bench");
+        controller = db.bean(ProductController.class);
+        mapper = db.bean(ProductMapper.class);
+
+        // 预先生成一批要扫的条码（含 5% 查无此码），测量期间不做字符串拼接
+        SplittableRandom random = new SplittableRandom(7);
+        barcodes = new String[4096];
+        for (int i = 0; i < barcodes.length; i++) {
+            barcodes[i] = random.nextInt(100) < 5 ? "0000" + i : BenchmarkDatabase.barcode(1 + random.nextInt(db.products));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    private int cursor;
+
+    private String next() {
+        return barcodes[cursor++ & (barcodes.length - 1)];
+    }
+
+    @Benchmark
+    public Product scanFromIndex() {
+        return controller.getProductByBarcode(next());
+    }
+
+    @Benchmark
+    public Product scanFromDatabase() {
+        return mapper.findByBarcode(next());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品联想搜索：模拟收银员逐字输入（中文前缀、拼音首字母、带规格的多词组合）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    // 商品名是“商品N”，品牌“品牌N”，分类“分类N”
+    private static final String[] TYPED = {"商", "商品", "商品1", "商品12", "商品123", "sp", "sp1", "品牌",
+            "品牌7", "分类3", "商品 品牌5", "pp", "x", "商品99999"};
+
+    private BenchmarkDatabase db;
+    private ProductSearch search;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = BenchmarkDatabase.start("search_bench");
+        search = db.bean(ProductSearch.class);
+        // 商品是在上下文启动之后才灌进去的，搜索索引要重建
+        search.reload();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    private int cursor;
+
+    @Benchmark
+    public List<Product> typeahead() {
+        return search.search(TYPED[cursor++ % TYPED.length], 10);
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import com.example.lkpos.ProductController.ProductMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 前台扫码专用的内存条码索引：条码 -> 主商品。
+ * 启动时一次性从 MySQL 预热，之后商品增删改时以“写时复制”的方式整体替换快照，
+ * 扫码线程只读一个 volatile 引用，全程无锁、不查库。
+ * 全量加载期间提交了改动的商品会被记下来，加载完在新快照上重读一遍再发布，
+ * 不会因为加载读得早而丢掉这期间新建、导入或修改的商品。
+ */
+@Component
+public class BarcodeIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(BarcodeIndex.class);
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    // 🌟 不可变快照：发布之后绝不再修改，读线程拿到哪个版本就用哪个版本
+    private volatile Map<String, Product> snapshot = Map.of();
+
+    // 预热成功之前，扫码仍然回退到数据库查询
+    private volatile boolean ready = false;
+
+    // 全量加载期间提交了改动的商品 ID，只在锁里读写；不在加载时为 null
+    private Set<Integer> changedDuringLoad;
+
+    // 同一时间只跑一次全量加载，只用来互斥，不和快照的锁嵌套
+    private final Object loadLock = new Object();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("⚠️ 条码索引预热失败，扫码暂时回退到数据库", e);
+        }
+    }
+
+    /** 全量重建索引（启动预热、手动纠偏时使用）；读表时不拿锁，商品照常增删改 */
+    public void reload() {
+        synchronized (loadLock) {
+            synchronized (this) {
+                changedDuringLoad = new HashSet<>();
+            }
+            try {
+                List<Product> rows = productMapper.findAllBarcodeEntries();
+                Map<String, Product> next = new HashMap<>(Math.max(16, rows.size() * 4 / 3 + 1));
+                for (Product row : rows) {
+                    next.put(row.barcode, row);
+                }
+                while (true) {
+                    List<Integer> changed;
+                    synchronized (this) {
+                        if (changedDuringLoad.isEmpty()) {
+                            snapshot = next;
+                            ready = true;
+                            changedDuringLoad = null;
+                            break;
+                        }
+                        changed = new ArrayList<>(changedDuringLoad);
+                        changedDuringLoad.clear();
+                    }
+                    // 这些商品的改动已经提交了，重读一遍就是最新的
+                    for (Integer productId : changed) {
+                        replace(next, productId, productMapper.findBarcodeEntriesByProductId(productId));
+                    }
+                }
+                log.info("✅ 条码索引预热完成，共 {} 个条码", next.size());
+            } finally {
+                synchronized (this) {
+                    changedDuringLoad = null;
+                }
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** 扫码热路径：无锁读取当前快照，未命中返回 null */
+    public Product lookup(String barcode) {
+        return snapshot.get(barcode);
+    }
+
+    /**
+     * 某个商品的条码或基本信息变了：在当前事务里读出它最新的条码行，
+     * 等事务提交之后再发布新快照，避免回滚的数据被前台扫到。
+     * 删除商品时查不到任何行，相当于把它的条码全部摘掉。
+     */
+    public void refreshProduct(Integer productId) {
+        if (productId == null) {
+            return;
+        }
+        List<Product> rows = productMapper.findBarcodeEntriesByProductId(productId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    replaceProduct(productId, rows);
+                }
+            });
+        } else {
+            replaceProduct(productId, rows);
+        }
+    }
+
+    /**
+     * 批量导入的新商品（每个条码一行）：等事务提交之后一次性并入快照，
+     * 一批只复制一次快照，而不是每个商品 refreshProduct 一次。
+     */
+    public void addEntries(List<Product> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    putAll(rows);
+                }
+            });
+        } else {
+            putAll(rows);
+        }
+    }
+
+    private synchronized void putAll(List<Product> rows) {
+        Map<String, Product> next = new HashMap<>(snapshot);
+        for (Product row : rows) {
+            next.put(row.barcode, row);
+            if (changedDuringLoad != null) {
+                changedDuringLoad.add(row.id);
+            }
+        }
+        snapshot = next;
+    }
+
+    // 写时复制：写操作互斥，复制一份旧快照改完再整体替换引用
+    private synchronized void replaceProduct(Integer productId, List<Product> rows) {
+        if (changedDuringLoad != null) {
+            changedDuringLoad.add(productId);
+        }
+        Map<String, Product> next = new HashMap<>(snapshot);
+        replace(next, productId, rows);
+        snapshot = next;
+    }
+
+    private static void replace(Map<String, Product> entries, Integer productId, List<Product> rows) {
+        entries.values().removeIf(p -> productId.equals(p.id));
+        for (Product row : rows) {
+            entries.put(row.barcode, row);
+        }
+    }
+}
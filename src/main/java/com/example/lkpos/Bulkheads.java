@@ -0,0 +1,180 @@
+package com.example.lkpos;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按接口分组的舱壁：每组接口同时处理的请求数有上限，
+ * 云端查询、报表再多再慢，也占不走留给扫码和结账的线程与数据库连接。
+ * 开启虚拟线程（spring.threads.virtual.enabled）后请求线程不再稀缺，舱壁就是唯一的并发闸门。
+ *
+ * 上限通过 lkpos.bulkhead.&lt;组名&gt;.max-concurrent 配置，拿不到许可的请求等待
+ * lkpos.bulkhead.wait 之后直接返回 503，由前台自行重试。
+ * 流水导出一次要跑几分钟，单独一组，不占报表组的许可，导出再多也不会把看板和报表卡住。
+ */
+@Component
+public class Bulkheads extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(Bulkheads.class);
+
+    public enum Group {
+        SCAN(64), CHECKOUT(32), LOOKUP(8), REPORTS(4), EXPORTS(2);
+
+        final int defaultLimit;
+
+        Group(int defaultLimit) {
+            this.defaultLimit = defaultLimit;
+        }
+    }
+
+    @Autowired
+    private Environment env;
+
+    @Value("${lkpos.bulkhead.wait:200ms}")
+    private Duration wait;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private final Map<Group, Integer> limits = new EnumMap<>(Group.class);
+    private final Map<Group, Semaphore> permits = new EnumMap<>(Group.class);
+    // 每组有多少请求没能立刻拿到许可（排过队）、多少最后被拒
+    private final Map<Group, LongAdder> queued = new EnumMap<>(Group.class);
+    private final Map<Group, LongAdder> rejected = new EnumMap<>(Group.class);
+
+    @PostConstruct
+    public void init() {
+        StringBuilder summary = new StringBuilder();
+        for (Group g : Group.values()) {
+            int limit = env.getProperty("lkpos.bulkhead." + g.name().toLowerCase() + ".max-concurrent", Integer.class, g.defaultLimit);
+            limits.put(g, limit);
+            permits.put(g, new Semaphore(limit));
+            queued.put(g, new LongAdder());
+            rejected.put(g, new LongAdder());
+            summary.append(' ').append(g.name().toLowerCase()).append('=').append(limit);
+        }
+        if (virtualThreads && Runtime.version().feature() < 21) {
+            log.warn("⚠️ 已开启 spring.threads.virtual.enabled，但当前 JDK {} 不支持虚拟线程，仍使用平台线程池",
+                    Runtime.version().feature());
+        }
+        log.info("✅ 接口舱壁：{}{}", summary.toString().trim(),
+                virtualThreads && Runtime.version().feature() >= 21 ? "（虚拟线程模式）" : "（平台线程模式）");
+    }
+
+    long queued(Group group) {
+        return queued.get(group).sum();
+    }
+
+    long rejected(Group group) {
+        return rejected.get(group).sum();
+    }
+
+    /** 当前正在处理的请求数 */
+    int inFlight(Group group) {
+        return limits.get(group) - permits.get(group).availablePermits();
+    }
+
+    /** 按请求方法和路径归组，不属于任何组的请求不限流 */
+    static Group classify(String method, String path) {
+        if (path.equals("/api/stats/dashboard/stream")) {
+            return null; // 看板长连接一直挂着，不能占报表组的许可；它本身也不查库
+        }
+        if (path.startsWith("/api/stats/")) {
+            return Group.REPORTS;
+        }
+        if (path.equals("/api/orders/export")) {
+            return Group.EXPORTS;
+        }
+        if (path.startsWith("/api/orders")) {
+            return "POST".equals(method) ? Group.CHECKOUT : Group.REPORTS;
+        }
+        if (path.startsWith("/api/products/")) {
+            String rest = path.substring("/api/products/".length());
+            if (rest.startsWith("fetch-external")) {
+                return Group.LOOKUP;
+            }
+            if (rest.equals("import")) {
+                return null; // 目录导入同一时间只有一个，由 CatalogImport 自己把关
+            }
+            if ("POST".equals(method) && rest.equals("resolve")) {
+                return Group.SCAN; // 批量扫码，和单个扫码共用一组
+            }
+            if ("GET".equals(method) && rest.endsWith("/stats")) {
+                return Group.REPORTS;
+            }
+            if ("GET".equals(method) && !rest.isEmpty() && rest.indexOf('/') < 0) {
+                return Group.SCAN;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Group group = classify(request.getMethod(), request.getRequestURI().substring(request.getContextPath().length()));
+        if (group == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Semaphore semaphore = permits.get(group);
+        boolean acquired = semaphore.tryAcquire();
+        if (!acquired) {
+            queued.get(group).increment();
+            try {
+                acquired = semaphore.tryAcquire(wait.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!acquired) {
+            rejected.get(group).increment();
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "busy: " + group.name().toLowerCase());
+            return;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        };
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // 异步请求（比如云端查询）要等真正写完响应才归还许可
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override public void onComplete(AsyncEvent event) { release.run(); }
+                    @Override public void onTimeout(AsyncEvent event) { release.run(); }
+                    @Override public void onError(AsyncEvent event) { release.run(); }
+                    @Override public void onStartAsync(AsyncEvent event) { }
+                });
+            } else {
+                release.run();
+            }
+        }
+    }
+}
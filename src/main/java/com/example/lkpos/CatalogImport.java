@@ -0,0 +1,577 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import jakarta.annotation.PostConstruct;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * 新店开业批量导入商品目录：供应商给的 CSV（首行表头）或 NDJSON（每行一个商品）。
+ *
+ * 边读边解析，攒够 lkpos.import.batch-rows 行写一次：先一把查出这批条码里哪些库里已经有了（冲突行跳过），
+ * 剩下的商品一条多行 INSERT、条码一条多行 INSERT，一批一个事务。
+ * 某一批写入失败（比如同时有人在后台录入撞了条码）时退回逐行写入，一行出错不连累整批。
+ * 进度随时可以通过 {@link #progress()} 查看；同一时间只允许一个导入在跑。
+ */
+@Component
+public class CatalogImport {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogImport.class);
+
+    public enum Format { CSV, NDJSON }
+
+    // 进度里最多带多少条出错明细，计数不受影响
+    static final int MAX_ERRORS = 1000;
+
+    static final int MAX_TEXT_LENGTH = 255;
+    static final int MAX_IMAGE_URL_LENGTH = 512;
+    static final int MAX_BARCODE_LENGTH = 64;
+
+    private static final int LOOKUP_CHUNK = 1000;
+
+    // 一个格子里写多个条码时的分隔符；和商品列表里 "6901, 6902" 的写法兼容
+    private static final Pattern BARCODE_SEPARATOR = Pattern.compile("[\\s,，;；|]+");
+
+    // CSV 表头 -> 商品字段，中英文都认，不认识的列忽略
+    private static final Map<String, String> CSV_COLUMNS = new HashMap<>();
+
+    static {
+        for (String[] alias : new String[][]{
+                {"name", "name", "名称", "商品名称"},
+                {"price", "price", "售价", "零售价"},
+                {"costPrice", "costprice", "cost_price", "进价", "成本价"},
+                {"barcodes", "barcodes", "barcode", "条码"},
+                {"brand", "brand", "品牌"},
+                {"specification", "specification", "规格"},
+                {"manufacturer", "manufacturer", "厂家", "生产厂家"},
+                {"category", "category", "分类"},
+                {"note", "note", "备注"},
+                {"imageUrl", "imageurl", "image_url", "图片"}}) {
+            for (int i = 1; i < alias.length; i++) {
+                CSV_COLUMNS.put(alias[i], alias[0]);
+            }
+        }
+    }
+
+    @Autowired
+    private ImportMapper importMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // Spring 配置好的那一个：NDJSON 行和 POST /api/products 的请求体按同样的规则解析
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private BarcodeIndex barcodeIndex;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    @Autowired
+    private ProductSearch productSearch;
+
+    @Value("${lkpos.import.batch-rows:1000}")
+    private int batchRows;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // 正在进行或最近一次的导入
+    private volatile ImportProgress last;
+
+    // 每批至少一行：0 会每读一行就提交一次，负数连批次缓冲都建不出来
+    @PostConstruct
+    public void checkConfig() {
+        if (batchRows <= 0) {
+            throw new IllegalStateException("lkpos.import.batch-rows 必须大于 0，当前为 " + batchRows);
+        }
+    }
+
+    public ImportProgress progress() {
+        return last;
+    }
+
+    /** 导入整个文件，返回最终结果；已有导入在进行时抛 {@link ImportBusyException} */
+    public ImportProgress importCatalog(InputStream in, Format format, Charset charset) {
+        if (!running.compareAndSet(false, true)) {
+            throw new ImportBusyException();
+        }
+        ImportProgress progress = new ImportProgress();
+        progress.format = format.name().toLowerCase(Locale.ROOT);
+        progress.startedAt = LocalDateTime.now();
+        last = progress;
+        long start = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset), 64 * 1024)) {
+            RowSource rows = format == Format.CSV ? new CsvRows(reader) : new NdjsonRows(reader, mapper);
+            Set<String> seen = new HashSet<>();
+            List<ImportRow> batch = new ArrayList<>(batchRows);
+            ImportRow row;
+            while ((row = rows.next()) != null) {
+                progress.rowsRead++;
+                String error = row.error != null ? row.error : validate(row.product);
+                if (error != null) {
+                    progress.rejected++;
+                    progress.addError(row.line, error);
+                    continue;
+                }
+                String repeated = firstRepeated(row.product.barcodes, seen);
+                if (repeated != null) {
+                    progress.conflicts++;
+                    progress.addError(row.line, "条码 " + repeated + " 在文件里重复出现");
+                    continue;
+                }
+                batch.add(row);
+                if (batch.size() >= batchRows) {
+                    writeBatch(batch, progress);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch, progress);
+            }
+            progress.state = ImportProgress.DONE;
+        } catch (Exception e) {
+            progress.state = ImportProgress.FAILED;
+            progress.error = e.getMessage();
+            log.error("❌ 商品目录导入中断", e);
+        } finally {
+            progress.elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            running.set(false);
+        }
+        log.info("商品目录导入完成：读取 {} 行，新增 {}，条码冲突 {}，格式错误 {}，失败 {}，耗时 {} ms",
+                progress.rowsRead, progress.imported, progress.conflicts, progress.rejected, progress.failed, progress.elapsedMs);
+        return progress;
+    }
+
+    private static String validate(Product p) {
+        if (p.name == null || p.name.isBlank()) {
+            return "缺少商品名称";
+        }
+        if (p.name.length() > MAX_TEXT_LENGTH || tooLong(p.brand) || tooLong(p.specification)
+                || tooLong(p.manufacturer) || tooLong(p.category)) {
+            return "名称、品牌、规格、厂家或分类超过 " + MAX_TEXT_LENGTH + " 个字";
+        }
+        if (p.imageUrl != null && p.imageUrl.length() > MAX_IMAGE_URL_LENGTH) {
+            return "图片地址过长";
+        }
+        if (!(p.price >= 0) || !(p.costPrice >= 0) || Double.isInfinite(p.price) || Double.isInfinite(p.costPrice)) {
+            return "售价或进价不是有效的非负数";
+        }
+        if (p.barcodes == null || p.barcodes.isEmpty()) {
+            return "缺少条码";
+        }
+        for (String barcode : p.barcodes) {
+            if (barcode.length() > MAX_BARCODE_LENGTH) {
+                return "条码 " + barcode + " 超过 " + MAX_BARCODE_LENGTH + " 位";
+            }
+        }
+        return null;
+    }
+
+    private static boolean tooLong(String value) {
+        return value != null && value.length() > MAX_TEXT_LENGTH;
+    }
+
+    private static String firstRepeated(List<String> barcodes, Set<String> seen) {
+        for (String barcode : barcodes) {
+            if (seen.contains(barcode)) {
+                return barcode;
+            }
+        }
+        seen.addAll(barcodes);
+        return null;
+    }
+
+    private void writeBatch(List<ImportRow> batch, ImportProgress progress) {
+        try {
+            apply(transactionTemplate.execute(status -> insertBatch(batch)), batch.size(), progress);
+        } catch (Exception e) {
+            log.warn("⚠️ 导入批次失败，改为逐行写入：{}", e.getMessage());
+            for (ImportRow row : batch) {
+                try {
+                    apply(transactionTemplate.execute(status -> insertBatch(List.of(row))), 1, progress);
+                } catch (Exception rowError) {
+                    progress.failed++;
+                    progress.addError(row.line, "写入失败：" + rowError.getMessage());
+                }
+            }
+        }
+    }
+
+    // 只在事务提交之后计数，回滚的批次不算
+    private static void apply(List<ImportRow> conflicts, int batchSize, ImportProgress progress) {
+        for (ImportRow row : conflicts) {
+            progress.addError(row.line, "条码已存在：" + row.error);
+        }
+        progress.conflicts += conflicts.size();
+        progress.imported += batchSize - conflicts.size();
+    }
+
+    /** 在事务里写一批，返回因条码已存在而跳过的行（error 里是冲突的条码） */
+    private List<ImportRow> insertBatch(List<ImportRow> batch) {
+        List<String> barcodes = new ArrayList<>();
+        for (ImportRow row : batch) {
+            barcodes.addAll(row.product.barcodes);
+        }
+        Set<String> existing = new HashSet<>();
+        for (int from = 0; from < barcodes.size(); from += LOOKUP_CHUNK) {
+            existing.addAll(importMapper.findExistingBarcodes(barcodes.subList(from, Math.min(from + LOOKUP_CHUNK, barcodes.size()))));
+        }
+
+        List<ImportRow> conflicts = new ArrayList<>();
+        List<Product> products = new ArrayList<>(batch.size());
+        for (ImportRow row : batch) {
+            String taken = null;
+            for (String barcode : row.product.barcodes) {
+                if (existing.contains(barcode)) {
+                    taken = barcode;
+                    break;
+                }
+            }
+            if (taken != null) {
+                conflicts.add(new ImportRow(row.line, null, taken));
+            } else {
+                row.product.id = null;
+                products.add(row.product);
+            }
+        }
+        if (products.isEmpty()) {
+            return conflicts;
+        }
+
+        importMapper.insertProducts(products);
+        List<BarcodeRow> barcodeRows = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>(products.size());
+        List<Product> indexEntries = new ArrayList<>();
+        for (Product p : products) {
+            ids.add(p.id);
+            for (String barcode : p.barcodes) {
+                barcodeRows.add(new BarcodeRow(barcode, p.id));
+                indexEntries.add(indexEntry(p, barcode));
+            }
+        }
+        importMapper.insertBarcodes(barcodeRows);
+        catalogVersions.record(ids);
+        barcodeIndex.addEntries(indexEntries);
+        productSearch.addProducts(products);
+        return conflicts;
+    }
+
+    // 和 findAllBarcodeEntries 查出来的一行一样：只带扫码和看板用得到的字段
+    private static Product indexEntry(Product p, String barcode) {
+        Product e = new Product();
+        e.id = p.id;
+        e.barcode = barcode;
+        e.name = p.name;
+        e.price = p.price;
+        e.costPrice = p.costPrice;
+        e.imageUrl = p.imageUrl;
+        return e;
+    }
+
+    static List<String> splitBarcodes(String value) {
+        Set<String> barcodes = new LinkedHashSet<>();
+        if (value != null) {
+            for (String b : BARCODE_SEPARATOR.split(value.trim())) {
+                if (!b.isEmpty()) {
+                    barcodes.add(b);
+                }
+            }
+        }
+        return new ArrayList<>(barcodes);
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    // 解析出来的一行：line 是文件里的行号（从 1 开始），解析失败时 product 为空、error 为原因
+    static class ImportRow {
+        final long line;
+        final Product product;
+        final String error;
+
+        ImportRow(long line, Product product, String error) {
+            this.line = line;
+            this.product = product;
+            this.error = error;
+        }
+    }
+
+    private interface RowSource {
+        ImportRow next() throws IOException;
+    }
+
+    // 每行一个 JSON 商品，字段和 Product 一致；条码可以写成 barcodes 数组，也可以是 barcode 字符串
+    private static class NdjsonRows implements RowSource {
+        private final BufferedReader reader;
+        private final ObjectMapper mapper;
+        private long line;
+
+        NdjsonRows(BufferedReader reader, ObjectMapper mapper) {
+            this.reader = reader;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public ImportRow next() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (line == 1 && text.startsWith("\uFEFF")) {
+                    text = text.substring(1);
+                }
+                if (text.isBlank()) {
+                    continue;
+                }
+                try {
+                    Product p = mapper.readValue(text, Product.class);
+                    List<String> barcodes = new ArrayList<>();
+                    if (p.barcodes != null) {
+                        for (String b : p.barcodes) {
+                            barcodes.addAll(splitBarcodes(b));
+                        }
+                    }
+                    barcodes.addAll(splitBarcodes(p.barcode));
+                    p.barcodes = new ArrayList<>(new LinkedHashSet<>(barcodes));
+                    p.barcode = null;
+                    p.name = blankToNull(p.name);
+                    return new ImportRow(line, p, null);
+                } catch (JacksonException e) {
+                    return new ImportRow(line, null, "JSON 格式错误：" + e.getOriginalMessage());
+                }
+            }
+            return null;
+        }
+    }
+
+    // RFC 4180：逗号分隔，字段可以用双引号包起来（里面可以有逗号、换行，"" 表示一个引号）
+    private static class CsvRows implements RowSource {
+        private final BufferedReader reader;
+        private long line = 1;
+        private long recordLine;
+        private boolean unterminated;
+        private String[] columns;
+
+        CsvRows(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public ImportRow next() throws IOException {
+            if (columns == null) {
+                List<String> header = readRecord();
+                if (header == null) {
+                    return null;
+                }
+                columns = new String[header.size()];
+                Set<String> found = new HashSet<>();
+                for (int i = 0; i < header.size(); i++) {
+                    String name = header.get(i).replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT);
+                    columns[i] = CSV_COLUMNS.get(name);
+                    if (columns[i] != null) {
+                        found.add(columns[i]);
+                    }
+                }
+                if (!found.contains("name") || !found.contains("price") || !found.contains("barcodes")) {
+                    throw new IllegalArgumentException("CSV 表头至少要有 name、price、barcodes（名称、售价、条码）三列");
+                }
+            }
+            List<String> fields;
+            while ((fields = readRecord()) != null) {
+                if (unterminated) {
+                    return new ImportRow(recordLine, null, "引号没有闭合");
+                }
+                if (fields.stream().allMatch(String::isBlank)) {
+                    continue; // 空行
+                }
+                try {
+                    return new ImportRow(recordLine, toProduct(fields), null);
+                } catch (NumberFormatException e) {
+                    return new ImportRow(recordLine, null, "售价或进价不是数字");
+                }
+            }
+            return null;
+        }
+
+        private Product toProduct(List<String> fields) {
+            Product p = new Product();
+            for (int i = 0; i < columns.length && i < fields.size(); i++) {
+                if (columns[i] == null) {
+                    continue;
+                }
+                String value = fields.get(i);
+                switch (columns[i]) {
+                    case "name" -> p.name = blankToNull(value);
+                    case "price" -> p.price = Double.parseDouble(value.trim());
+                    case "costPrice" -> p.costPrice = value.isBlank() ? 0 : Double.parseDouble(value.trim());
+                    case "barcodes" -> p.barcodes = splitBarcodes(value);
+                    case "brand" -> p.brand = blankToNull(value);
+                    case "specification" -> p.specification = blankToNull(value);
+                    case "manufacturer" -> p.manufacturer = blankToNull(value);
+                    case "category" -> p.category = blankToNull(value);
+                    case "note" -> p.note = blankToNull(value);
+                    case "imageUrl" -> p.imageUrl = blankToNull(value);
+                    default -> { }
+                }
+            }
+            return p;
+        }
+
+        // 读一条记录（可能跨多行），文件结束返回 null
+        private List<String> readRecord() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean any = false;
+            unterminated = false;
+            recordLine = line;
+            int c;
+            while ((c = reader.read()) != -1) {
+                any = true;
+                if (quoted) {
+                    if (c == '"') {
+                        reader.mark(1);
+                        int d = reader.read();
+                        if (d == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            if (d != -1) {
+                                reader.reset();
+                            }
+                        }
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.isEmpty()) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    line++;
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+            if (!any) {
+                return null;
+            }
+            unterminated = quoted;
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+
+    public static class ImportBusyException extends RuntimeException {
+        public ImportBusyException() {
+            super("已有商品目录导入正在进行");
+        }
+    }
+
+    // 导入进度：导入线程一边跑一边更新，查询接口随时读取
+    public static class ImportProgress {
+        static final String RUNNING = "running";
+        static final String DONE = "done";
+        static final String FAILED = "failed";
+
+        public volatile String state = RUNNING;
+        public String format;
+        public LocalDateTime startedAt;
+        public volatile long elapsedMs;
+        public volatile long rowsRead;
+        public volatile long imported;
+        public volatile long conflicts; // 条码已存在或文件内重复，跳过
+        public volatile long rejected;  // 格式或校验不通过
+        public volatile long failed;    // 写库出错
+        public volatile String error;   // 整个导入中断的原因
+        private final List<RowError> errors = new ArrayList<>(); // 出错的行，最多 MAX_ERRORS 条
+
+        synchronized void addError(long line, String message) {
+            if (errors.size() < MAX_ERRORS) {
+                RowError e = new RowError();
+                e.line = line;
+                e.message = message;
+                errors.add(e);
+            }
+        }
+
+        public synchronized List<RowError> getErrors() {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    public static class RowError {
+        public long line;
+        public String message;
+    }
+
+    public static class BarcodeRow {
+        public String barcode;
+        public Integer productId;
+
+        public BarcodeRow(String barcode, Integer productId) {
+            this.barcode = barcode;
+            this.productId = productId;
+        }
+    }
+
+    @Mapper
+    public interface ImportMapper {
+
+        @Select("<script>SELECT barcode FROM product_barcodes WHERE barcode IN " +
+                "<foreach collection='barcodes' item='b' open='(' separator=',' close=')'>#{b}</foreach></script>")
+        List<String> findExistingBarcodes(@Param("barcodes") List<String> barcodes);
+
+        // 一批商品一条多行 INSERT，自增 ID 按顺序回填
+        @Insert("<script>" +
+                "INSERT INTO products (name, price, cost_price, image_url, brand, specification, manufacturer, category, note) VALUES " +
+                "<foreach collection='products' item='p' separator=','>" +
+                "(#{p.name}, #{p.price}, #{p.costPrice}, #{p.imageUrl}, #{p.brand}, #{p.specification}, #{p.manufacturer}, #{p.category}, #{p.note})" +
+                "</foreach>" +
+                "</script>")
+        @Options(useGeneratedKeys = true, keyProperty = "products.id", keyColumn = "id")
+        void insertProducts(@Param("products") List<Product> products);
+
+        @Insert("<script>" +
+                "INSERT INTO product_barcodes (barcode, product_id) VALUES " +
+                "<foreach collection='rows' item='r' separator=','>(#{r.barcode}, #{r.productId})</foreach>" +
+                "</script>")
+        void insertBarcodes(@Param("rows") List<BarcodeRow> rows);
+    }
+}
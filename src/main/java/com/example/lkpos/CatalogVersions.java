@@ -0,0 +1,122 @@
+package com.example.lkpos;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 商品目录版本号：商品或条码每改一次，版本号 +1，并在 catalog_changes 里记下这次改了哪些商品。
+ * 收银台拿全量列表时记住版本号（响应头 X-Catalog-Version / ETag），之后只拉这个版本之后的变化，
+ * 本地就能一直持有完整目录，扫码不用再问服务器。
+ *
+ * 版本号存在单行表 catalog_version 里，写商品的事务先给它加一（行锁一直持有到提交），
+ * 所以改目录的事务是串行的，提交顺序和版本号顺序一致，拉增量时不会漏掉“号小但提交晚”的变更。
+ * 改目录一天也就几次，串行没有代价。
+ */
+@Component
+public class CatalogVersions {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogVersions.class);
+
+    @Autowired
+    private CatalogMapper catalogMapper;
+
+    @Autowired
+    private SchemaMigrations schemaMigrations;
+
+    // 已提交的最新版本号，-1 表示还没从数据库读过
+    private volatile long current = -1;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            schemaMigrations.migrate();
+            current = catalogMapper.selectVersion();
+        } catch (Exception e) {
+            log.warn("⚠️ 商品目录版本表暂不可用，首次用到时再建", e);
+        }
+    }
+
+    /** 当前已提交的目录版本号 */
+    public long current() {
+        long v = current;
+        if (v < 0) {
+            schemaMigrations.migrate();
+            v = catalogMapper.selectVersion();
+            bump(v);
+        }
+        return v;
+    }
+
+    /**
+     * 在改商品的事务里调用：版本号 +1 并记下改动的商品，返回新版本号。
+     * 事务提交之后 {@link #current()} 才会看到新版本。
+     */
+    public long record(Collection<Integer> productIds) {
+        schemaMigrations.migrate();
+        catalogMapper.incrementVersion();
+        long version = catalogMapper.selectVersion();
+        if (!productIds.isEmpty()) {
+            catalogMapper.insertChanges(version, productIds);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump(version);
+                }
+            });
+        } else {
+            bump(version);
+        }
+        return version;
+    }
+
+    public long record(Integer productId) {
+        return record(List.of(productId));
+    }
+
+    /** (since, upTo] 之间改过的商品 ID，最多 limit 个 */
+    public List<Integer> changedProductIds(long since, long upTo, int limit) {
+        schemaMigrations.migrate();
+        return catalogMapper.findChangedProductIds(since, upTo, limit);
+    }
+
+    private synchronized void bump(long version) {
+        if (version > current) {
+            current = version;
+        }
+    }
+
+    @Mapper
+    public interface CatalogMapper {
+
+        // 加一的同时锁住这一行，直到事务提交
+        @Update("UPDATE catalog_version SET version = version + 1 WHERE id = 1")
+        void incrementVersion();
+
+        @Select("SELECT version FROM catalog_version WHERE id = 1")
+        long selectVersion();
+
+        @Insert("<script>INSERT INTO catalog_changes (version, product_id) VALUES " +
+                "<foreach collection='productIds' item='id' separator=','>(#{version}, #{id})</foreach></script>")
+        void insertChanges(@Param("version") long version, @Param("productIds") Collection<Integer> productIds);
+
+        @Select("SELECT DISTINCT product_id FROM catalog_changes " +
+                "WHERE version > #{since} AND version <= #{upTo} ORDER BY product_id LIMIT #{limit}")
+        List<Integer> findChangedProductIds(@Param("since") long since, @Param("upTo") long upTo, @Param("limit") int limit);
+    }
+}
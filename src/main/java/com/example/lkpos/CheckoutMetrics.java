@@ -0,0 +1,43 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderWriter.OrderCommitted;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * 结账的业务指标：每单几行明细（lkpos.checkout.lines）、每单几件商品（lkpos.checkout.units）。
+ * 明细行数直接决定结账要写多少数据，调批量大小、评估大单影响时看这个分布。
+ * 和统计组件一样只统计真正提交了的订单。
+ */
+@Component
+public class CheckoutMetrics {
+
+    private final DistributionSummary lines;
+    private final DistributionSummary units;
+
+    public CheckoutMetrics(MeterRegistry registry) {
+        this.lines = DistributionSummary.builder("lkpos.checkout.lines")
+                .description("每笔订单的明细行数")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.units = DistributionSummary.builder("lkpos.checkout.units")
+                .description("每笔订单的商品件数")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommitted event) {
+        long quantity = 0;
+        for (OrderItem item : event.items) {
+            quantity += item.quantity;
+        }
+        lines.record(event.items.size());
+        units.record(quantity);
+    }
+}
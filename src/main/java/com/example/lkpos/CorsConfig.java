@@ -17,6 +17,8 @@ public class CorsConfig implements WebMvcConfigurer {
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 // 允许的请求头
                 .allowedHeaders("*")
+                // 允许前端读取的响应头：商品目录版本号和 ETag（本地缓存目录要用）
+                .exposedHeaders(ProductController.CATALOG_VERSION_HEADER, "ETag")
                 // 是否允许携带 cookie
                 .allowCredentials(true)
                 // 预检请求的有效期（秒），避免频繁发送 OPTIONS 请求
@@ -0,0 +1,153 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderWriter.OrderCommitted;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 看板实时推送（SSE）：管理端打开看板后保持一条长连接，订单提交后由服务端推送变化，
+ * 不再定时轮询 /api/stats/dashboard。
+ *
+ * 订单提交只打一个标记，lkpos.dashboard.push-window 之后统一推送一次：
+ * 一分钟一千单也最多推 60 / 窗口秒数 次。推送内容从 {@link SalesAggregates} 的内存汇总里取，
+ * 只序列化一次再发给所有订阅者，不管开了多少个看板都不会多查一次数据库。
+ *
+ * 事件：
+ * - today：今日营业额、成本、毛利、单量，每次推送都带；
+ * - topProducts：热销榜，只在榜单变化时推送；
+ * - reload：内存汇总不可用，请客户端自己重新 GET 一次看板。
+ */
+@Component
+public class DashboardStream {
+
+    // 连着的看板隔多久发一次心跳，防止代理把空闲连接掐断
+    private static final long HEARTBEAT_SECONDS = 20;
+
+    @Autowired
+    private SalesAggregates salesAggregates;
+
+    // Spring 配置好的那一个：推送的 JSON 和 GET /api/stats/dashboard 返回的格式一致
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Value("${lkpos.dashboard.push-window:1s}")
+    private Duration pushWindow;
+
+    // 长连接到时由服务端结束，浏览器的 EventSource 会自动重连并拿到新快照
+    @Value("${lkpos.dashboard.stream-timeout:30m}")
+    private Duration streamTimeout;
+
+    private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+
+    // 窗口内已经排了一次推送，后面的订单不用再排
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    // 上次推出去的热销榜，只有变了才重推
+    private String lastTopProducts;
+
+    private ScheduledExecutorService pusher;
+
+    @PostConstruct
+    public void start() {
+        pusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dashboard-pusher");
+            t.setDaemon(true);
+            return t;
+        });
+        pusher.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // 要赶在 Web 服务器优雅停机之前关掉长连接，否则停机会一直等这些“没结束的请求”
+    @EventListener(ContextClosedEvent.class)
+    public void closeSubscribers() {
+        for (SseEmitter emitter : subscribers) {
+            emitter.complete();
+        }
+        subscribers.clear();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pusher.shutdownNow();
+    }
+
+    /** 新的看板连接：先发一份完整快照，之后只推变化 */
+    public SseEmitter subscribe(Map<String, Object> snapshot) throws IOException {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        emitter.onCompletion(() -> subscribers.remove(emitter));
+        emitter.onTimeout(() -> subscribers.remove(emitter));
+        emitter.onError(e -> subscribers.remove(emitter));
+        emitter.send(SseEmitter.event().name("snapshot").data(mapper.writeValueAsString(snapshot)));
+        subscribers.add(emitter);
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommitted event) {
+        if (!subscribers.isEmpty() && pending.compareAndSet(false, true)) {
+            pusher.schedule(this::push, Math.max(1, pushWindow.toMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 只在推送线程里执行，lastTopProducts 不需要加锁
+    void push() {
+        pending.set(false);
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        if (!salesAggregates.isReady()) {
+            broadcast(SseEmitter.event().name("reload").data("{}"));
+            return;
+        }
+        broadcast(SseEmitter.event().name("today").data(mapper.writeValueAsString(salesAggregates.dayStats(LocalDate.now()))));
+
+        String top = mapper.writeValueAsString(salesAggregates.topProducts());
+        if (!top.equals(lastTopProducts)) {
+            lastTopProducts = top;
+            broadcast(SseEmitter.event().name("topProducts").data(top));
+        }
+    }
+
+    private void heartbeat() {
+        broadcast(SseEmitter.event().comment("ping"));
+    }
+
+    // 事件只拼一次，所有连接发同一份内容
+    private void broadcast(SseEmitter.SseEventBuilder event) {
+        Set<ResponseBodyEmitter.DataWithMediaType> data = event.build();
+        for (SseEmitter emitter : subscribers) {
+            try {
+                emitter.send(data);
+            } catch (Exception e) {
+                // 对方已经关掉页面，摘掉这个连接
+                subscribers.remove(emitter);
+                emitter.completeWithError(e);
+            }
+        }
+    }
+}
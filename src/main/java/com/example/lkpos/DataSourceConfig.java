@@ -0,0 +1,137 @@
+package com.example.lkpos;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.autoconfigure.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 数据源：主库连接池（收银、写入、读自己刚写的数据）+ 报表连接池（统计、列表这些只读查询），
+ * 对外只暴露一个按当前线程路由的 dataSource，MyBatis、JdbcTemplate、事务管理器都用它。
+ *
+ * 报表连接池配了 lkpos.reporting.datasource.url 就连从库；没配就连主库，
+ * 但仍是一个独立的小连接池，报表再慢也只会占满自己的几个连接，收银台照常拿主库连接。
+ */
+@Configuration
+public class DataSourceConfig {
+
+    // 主库连接池：spring.datasource.* 和 spring.datasource.hikari.* 照常生效
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource ds = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        ds.setPoolName("primary");
+        return ds;
+    }
+
+    @Bean
+    public HikariDataSource reportingDataSource(DataSourceProperties properties,
+                                                @Value("${lkpos.reporting.datasource.url:}") String url,
+                                                @Value("${lkpos.reporting.datasource.username:}") String username,
+                                                @Value("${lkpos.reporting.datasource.password:}") String password,
+                                                @Value("${lkpos.reporting.maximum-pool-size:4}") int maximumPoolSize,
+                                                @Value("${lkpos.reporting.connection-timeout:2s}") Duration connectionTimeout) {
+        boolean replica = !url.isBlank();
+        HikariDataSource ds = new HikariDataSource();
+        ds.setPoolName("reporting");
+        ds.setDriverClassName(properties.determineDriverClassName());
+        ds.setJdbcUrl(replica ? url : properties.determineUrl());
+        ds.setUsername(replica && !username.isBlank() ? username : properties.determineUsername());
+        ds.setPassword(replica && !password.isBlank() ? password : properties.determinePassword());
+        ds.setMaximumPoolSize(maximumPoolSize);
+        ds.setConnectionTimeout(connectionTimeout.toMillis());
+        ds.setReadOnly(true);
+        return ds;
+    }
+
+    @Bean
+    @Primary
+    public RoutingDataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                        @Qualifier("reportingDataSource") DataSource reporting,
+                                        @Value("${lkpos.reporting.datasource.url:}") String replicaUrl) {
+        RoutingDataSource routing = new RoutingDataSource(replicaUrl.isBlank());
+        routing.setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPORTING, reporting));
+        routing.setDefaultTargetDataSource(primary);
+        return routing;
+    }
+
+    public enum Route {
+        PRIMARY, REPORTING
+    }
+
+    /**
+     * 按当前线程选连接池：默认主库；{@link #onReporting} 里拿连接时走报表库，
+     * 从库落后太多（{@link #setReplicaUsable}）时报表查询也回到主库。
+     * 已经在事务里的话连接在事务开始时就拿好了，中途切换不起作用，这正好保证事务内读写一致。
+     */
+    public static class RoutingDataSource extends AbstractRoutingDataSource {
+
+        private static final ThreadLocal<Route> CURRENT = new ThreadLocal<>();
+
+        // 报表池连的就是主库时不存在延迟，一直可用；连从库时等第一次心跳确认之后才启用
+        private final boolean sameDatabase;
+        private volatile boolean replicaUsable;
+
+        RoutingDataSource(boolean sameDatabase) {
+            this.sameDatabase = sameDatabase;
+            this.replicaUsable = sameDatabase;
+        }
+
+        /** 报表池连的是不是从库（需要检查延迟） */
+        public boolean isReplica() {
+            return !sameDatabase;
+        }
+
+        public boolean isReplicaUsable() {
+            return replicaUsable;
+        }
+
+        void setReplicaUsable(boolean usable) {
+            replicaUsable = usable;
+        }
+
+        /** 在报表库上执行一段查询；嵌套调用时结束后恢复外层的选择 */
+        public static <T> T onReporting(Supplier<T> work) {
+            Route previous = use(Route.REPORTING);
+            try {
+                return work.get();
+            } finally {
+                restore(previous);
+            }
+        }
+
+        static Route use(Route route) {
+            Route previous = CURRENT.get();
+            CURRENT.set(route);
+            return previous;
+        }
+
+        static void restore(Route previous) {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+
+        /** 当前线程拿连接时实际会用哪个池 */
+        public Route currentRoute() {
+            return CURRENT.get() == Route.REPORTING && replicaUsable ? Route.REPORTING : Route.PRIMARY;
+        }
+
+        @Override
+        protected Object determineCurrentLookupKey() {
+            return currentRoute();
+        }
+    }
+}
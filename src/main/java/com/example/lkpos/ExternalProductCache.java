@@ -0,0 +1,244 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 云端条码查询的前置层：
+ * 1. 同一个条码同时只发一次云端请求，并发的查询共享同一个结果；
+ * 2. 结果（包括“查无此码”）放进有上限、带过期时间的缓存；
+ * 3. 商品图片在后台线程下载进 {@link ImageStore}。下载完成之前查询返回云端原图地址，
+ *    下好之后缓存里的商品才换成本地路径，并发布 {@link ImageLocalized}：已经按云端地址保存的商品随之换成本地路径，
+ *    之后再保存的商品用 {@link #localImage} 换掉云端地址。下载失败就一直用云端地址。
+ */
+@Component
+public class ExternalProductCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ExternalProductCache.class);
+
+    private final ProductLookup lookup;
+    private final ImageStore imageStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxEntries;
+
+    // 按访问顺序排列的 LRU，超过上限淘汰最久没用的条码；所有访问都在 synchronized (cache) 里
+    private final LinkedHashMap<String, Entry> cache;
+
+    // 正在向云端查询的条码 -> 共享的结果
+    private final ConcurrentHashMap<String, CompletableFuture<Product>> inFlight = new ConcurrentHashMap<>();
+
+    // 云端查询线程池：线程和排队都有上限，云端再慢也只会拖住这几个线程
+    private final ExecutorService lookupPool;
+    private final ExecutorService imagePool;
+    private final HttpClient imageClient;
+
+    public ExternalProductCache(ProductLookup lookup,
+                                ImageStore imageStore,
+                                ApplicationEventPublisher eventPublisher,
+                                @Value("${lkpos.lookup.cache-ttl:24h}") Duration ttl,
+                                @Value("${lkpos.lookup.negative-ttl:10m}") Duration negativeTtl,
+                                @Value("${lkpos.lookup.cache-size:10000}") int maxEntries,
+                                @Value("${lkpos.lookup.threads:4}") int threads) {
+        this.lookup = lookup;
+        this.imageStore = imageStore;
+        this.eventPublisher = eventPublisher;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ExternalProductCache.this.maxEntries;
+            }
+        };
+        this.lookupPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(200), daemon("external-lookup"));
+        this.imagePool = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(500), daemon("image-download"));
+        this.imageClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(3))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lookupPool.shutdownNow();
+        imagePool.shutdownNow();
+    }
+
+    /**
+     * 查询条码：命中缓存立即完成；否则加入（或发起）这个条码唯一的一次云端请求。
+     * 结果为 null 表示云端确认没有这个商品；网络错误时 future 以异常结束。
+     */
+    public CompletableFuture<Product> fetch(String barcode) {
+        Entry cached = fresh(barcode);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(copyOrNull(cached.product));
+        }
+        CompletableFuture<Product> mine = new CompletableFuture<>();
+        CompletableFuture<Product> existing = inFlight.putIfAbsent(barcode, mine);
+        if (existing != null) {
+            return existing.thenApply(ExternalProductCache::copyOrNull);
+        }
+        try {
+            lookupPool.execute(() -> {
+                try {
+                    mine.complete(load(barcode));
+                } catch (Throwable e) {
+                    mine.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(barcode, mine);
+                }
+            });
+        } catch (RuntimeException rejected) {
+            inFlight.remove(barcode, mine);
+            mine.completeExceptionally(rejected);
+        }
+        return mine.thenApply(ExternalProductCache::copyOrNull);
+    }
+
+    private Product load(String barcode) throws Exception {
+        Product product = lookup.lookup(barcode);
+        if (product != null) {
+            product.barcode = barcode;
+        }
+        put(barcode, product);
+        if (product != null) {
+            String remoteImage = product.imageUrl;
+            if (remoteImage != null && (remoteImage.startsWith("http://") || remoteImage.startsWith("https://"))) {
+                // 🌟 查询先带着云端原图地址返回，图片在后台慢慢下，下好了再换成本地路径
+                try {
+                    imagePool.execute(() -> download(barcode, remoteImage));
+                } catch (RejectedExecutionException e) {
+                    // 下载队列满了：这次先用云端地址，缓存过期后再查时重新下载
+                }
+            }
+        }
+        return product;
+    }
+
+    private void download(String barcode, String remoteUrl) {
+        String localUrl;
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(remoteUrl)).timeout(Duration.ofSeconds(15)).GET().build();
+            HttpResponse<InputStream> response = imageClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("HTTP " + response.statusCode());
+                }
+                // 按内容去重存储
+                localUrl = imageStore.store(in);
+            }
+            localize(barcode, remoteUrl, localUrl);
+            log.info("✅ 图片下载成功，本地路径：{}", localUrl);
+        } catch (Exception e) {
+            // 缓存里的商品仍然是云端地址，不会指向一个不存在的本地文件
+            log.warn("❌ 图片下载失败: {}", remoteUrl, e);
+            return;
+        }
+        try {
+            eventPublisher.publishEvent(new ImageLocalized(remoteUrl, localUrl));
+        } catch (Exception e) {
+            log.warn("⚠️ 已保存商品的图片地址更新失败: {}", remoteUrl, e);
+        }
+    }
+
+    /**
+     * 保存商品前调用：这个条码的云端图片已经下到本地了，就换成本地路径；否则原样返回。
+     */
+    public String localImage(String barcode, String imageUrl) {
+        if (barcode == null || imageUrl == null) {
+            return imageUrl;
+        }
+        synchronized (cache) {
+            Entry e = cache.get(barcode);
+            return e != null && imageUrl.equals(e.remoteImage) ? e.product.imageUrl : imageUrl;
+        }
+    }
+
+    // 本地文件已经存在了，缓存里的商品换成本地路径（过期时间不变）；这期间条目被换掉或淘汰了就不管
+    private void localize(String barcode, String remoteUrl, String localUrl) {
+        synchronized (cache) {
+            Entry e = cache.get(barcode);
+            if (e != null && e.product != null && remoteUrl.equals(e.product.imageUrl)) {
+                Product localized = e.product.copy();
+                localized.imageUrl = localUrl;
+                cache.put(barcode, new Entry(localized, e.expiresAt, remoteUrl));
+            }
+        }
+    }
+
+    private Entry fresh(String barcode) {
+        synchronized (cache) {
+            Entry e = cache.get(barcode);
+            return e == null || e.expiresAt - System.nanoTime() < 0 ? null : e;
+        }
+    }
+
+    private void put(String barcode, Product product) {
+        long ttl = product == null ? negativeTtlNanos : ttlNanos;
+        synchronized (cache) {
+            cache.put(barcode, new Entry(product, System.nanoTime() + ttl, null));
+        }
+    }
+
+    private static Product copyOrNull(Product p) {
+        return p == null ? null : p.copy();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static class Entry {
+        final Product product; // null 表示云端确认查无此码
+        final long expiresAt;
+        final String remoteImage; // 图片已经换成本地路径时，原来的云端地址
+
+        Entry(Product product, long expiresAt, String remoteImage) {
+            this.product = product;
+            this.expiresAt = expiresAt;
+            this.remoteImage = remoteImage;
+        }
+    }
+
+    /** 一张云端图片已经存到本地：image_url 还是 remoteUrl 的商品都该换成 localUrl */
+    public static class ImageLocalized {
+        public final String remoteUrl;
+        public final String localUrl;
+
+        public ImageLocalized(String remoteUrl, String localUrl) {
+            this.remoteUrl = remoteUrl;
+            this.localUrl = localUrl;
+        }
+    }
+}
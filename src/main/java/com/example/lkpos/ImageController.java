@@ -0,0 +1,107 @@
+package com.example.lkpos;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.regex.Pattern;
+
+/**
+ * 商品图片下载：/uploads/{文件名}，可选 ?w=宽度 取缩略图（还没生成好时先给原图，生成不了的一直给原图）。
+ * 图片文件写入后永不修改，所以给强 ETag + 一年的 immutable 缓存；
+ * 但缩略图还没生成、临时拿原图顶替的那次响应不能这样缓存，否则客户端一年都拿不到缩略图。
+ * 大文件交给 Tomcat 的 sendfile 直接从页缓存发到网卡，不经过 JVM 堆。
+ */
+@RestController
+@RequestMapping("/uploads")
+public class ImageController {
+
+    // 和 Tomcat DefaultServlet 的默认值一样：太小的文件用 sendfile 不划算
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    private static final Pattern CONTENT_HASH = Pattern.compile("[0-9a-f]{64}");
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @GetMapping("/{fileName:.+}")
+    public void getImage(@PathVariable String fileName, @RequestParam(required = false) Integer w,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path file = imageStore.resolve(fileName);
+        if (file == null || !Files.isRegularFile(file)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        boolean fallback = false;
+        if (w != null && w > 0) {
+            Path thumb = imageStore.thumbnail(file, w);
+            if (thumb != null) {
+                file = thumb;
+            } else {
+                fallback = true;
+            }
+        }
+
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (fallback) {
+            // ⚠️ 缩略图生成中，先给原图：不带 ETag、不让缓存，下次请求再来拿缩略图
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        } else {
+            String etag = etag(file, attrs);
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable");
+            String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+            if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.contains(etag))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+
+        long size = attrs.size();
+        String type = request.getServletContext().getMimeType(file.getFileName().toString());
+        response.setContentType(type != null ? type : "application/octet-stream");
+        response.setContentLengthLong(size);
+
+        if (size >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            // 🌟 零拷贝：告诉 Tomcat 直接把这个文件发出去，响应体我们不写
+            request.setAttribute("org.apache.tomcat.sendfile.filename", file.toAbsolutePath().toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", 0L);
+            request.setAttribute("org.apache.tomcat.sendfile.end", size);
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long pos = 0;
+            while (pos < size) {
+                pos += ch.transferTo(pos, size - pos, out);
+            }
+        }
+    }
+
+    // 内容寻址的文件名本身就是哈希；缩略图带上宽度；老的 UUID 文件名用 inode + 大小 + 修改时间
+    private static String etag(Path file, BasicFileAttributes attrs) {
+        String name = file.getFileName().toString();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        String hash = base.length() >= 64 ? base.substring(0, 64) : "";
+        if (CONTENT_HASH.matcher(hash).matches()) {
+            return "\"" + base + "\"";
+        }
+        Object key = attrs.fileKey();
+        return "\"" + Integer.toHexString(String.valueOf(key).hashCode()) + "-" + Long.toHexString(attrs.size())
+                + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis()) + "\"";
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.lkpos;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 商品图片仓库：文件名就是内容的 SHA-256，同一张图无论上传多少次磁盘上只有一份。
+ * 缩略图（按宽度）在后台生成一次，放在 uploads/thumbs/ 下；
+ * 原图不比这一档宽、或者格式解不开（比如 webp）时，在同一位置留一个 .none 空文件，之后直接给原图。
+ * 文件一旦写入就不会再变，所以 {@link ImageController} 可以放心给强 ETag 和 immutable 缓存头。
+ */
+@Component
+public class ImageStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageStore.class);
+
+    static final String URL_PREFIX = "/uploads/";
+
+    // 只允许简单文件名，杜绝 ../ 之类的路径穿越
+    private static final Pattern SAFE_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]*\\.(jpg|jpeg|png|webp|gif)");
+
+    private final Path dir;
+    private final Path thumbDir;
+    private final int[] thumbWidths;
+
+    // 正在生成的缩略图，避免同一张图被并发请求触发多次
+    private final Set<Path> generating = ConcurrentHashMap.newKeySet();
+    private final ExecutorService thumbPool;
+
+    public ImageStore(@Value("${lkpos.images.dir:}") String dir,
+                      @Value("${lkpos.images.thumb-widths:200,600}") int[] thumbWidths) {
+        this.dir = (dir.isBlank() ? Paths.get(System.getProperty("user.dir"), "uploads") : Paths.get(dir)).toAbsolutePath();
+        this.thumbDir = this.dir.resolve("thumbs");
+        this.thumbWidths = Arrays.stream(thumbWidths).sorted().toArray();
+        this.thumbPool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000), r -> {
+            Thread t = new Thread(r, "image-thumbnail");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Files.createDirectories(thumbDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法创建图片目录 " + thumbDir, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thumbPool.shutdownNow();
+    }
+
+    /**
+     * 边写临时文件边算哈希，写完改名为 &lt;sha256&gt;.&lt;ext&gt;；已经有同样内容的文件就直接复用。
+     * 返回给前端用的相对路径（/uploads/xxx.jpg）。
+     */
+    public String store(InputStream in) throws IOException {
+        Path tmp = Files.createTempFile(dir, "upload-", ".part");
+        try {
+            MessageDigest sha = sha256();
+            byte[] head = new byte[12];
+            int headLen;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), sha)) {
+                headLen = in.readNBytes(head, 0, head.length);
+                out.write(head, 0, headLen);
+                in.transferTo(out);
+            }
+            String name = HexFormat.of().formatHex(sha.digest()) + "." + extension(head, headLen);
+            Path target = dir.resolve(name);
+            if (Files.exists(target)) {
+                Files.delete(tmp);
+            } else {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                scheduleThumbnails(target);
+            }
+            return URL_PREFIX + name;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** 把 URL 里的文件名解析成磁盘路径，文件名不合法时返回 null */
+    public Path resolve(String fileName) {
+        if (fileName == null || !SAFE_NAME.matcher(fileName).matches()) {
+            return null;
+        }
+        return dir.resolve(fileName);
+    }
+
+    /**
+     * 宽度不小于 width 的最小一档缩略图。这一档永远不会有缩略图时返回原图（它就是最终结果）；
+     * 还没生成就排队生成，这次先返回 null（调用方临时退回原图）。
+     */
+    public Path thumbnail(Path original, int width) {
+        int chosen = thumbWidthFor(width);
+        if (chosen < 0) {
+            return original; // 要的比最大一档还大，直接给原图
+        }
+        Path thumb = thumbPath(original, chosen);
+        if (Files.exists(thumb)) {
+            return thumb;
+        }
+        if (Files.exists(noThumbPath(original, chosen))) {
+            return original;
+        }
+        scheduleThumbnails(original);
+        return null;
+    }
+
+    private int thumbWidthFor(int width) {
+        for (int w : thumbWidths) {
+            if (w >= width) {
+                return w;
+            }
+        }
+        return -1;
+    }
+
+    private Path thumbPath(Path original, int width) {
+        String name = original.getFileName().toString();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        return thumbDir.resolve(base + "-w" + width + ".jpg");
+    }
+
+    // 这一档不会有缩略图的标记
+    private Path noThumbPath(Path original, int width) {
+        String name = original.getFileName().toString();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        return thumbDir.resolve(base + "-w" + width + ".none");
+    }
+
+    private void markNoThumbnail(Path original, int width) throws IOException {
+        try {
+            Files.createFile(noThumbPath(original, width));
+        } catch (FileAlreadyExistsException e) {
+            // 并发生成时别人已经标过了
+        }
+    }
+
+    private void scheduleThumbnails(Path original) {
+        if (!generating.add(original)) {
+            return;
+        }
+        try {
+            thumbPool.execute(() -> {
+                try {
+                    generateThumbnails(original);
+                } finally {
+                    generating.remove(original);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            generating.remove(original);
+        }
+    }
+
+    private void generateThumbnails(Path original) {
+        try {
+            BufferedImage src;
+            try {
+                src = ImageIO.read(original.toFile());
+            } catch (IIOException e) {
+                src = null; // 文件头对不上、数据损坏
+            }
+            for (int w : thumbWidths) {
+                Path thumb = thumbPath(original, w);
+                if (Files.exists(thumb)) {
+                    continue;
+                }
+                if (src == null || src.getWidth() <= w) {
+                    // ImageIO 不认识的格式（比如 webp）或者原图不比这一档宽：只提供原图
+                    markNoThumbnail(original, w);
+                    continue;
+                }
+                int h = Math.max(1, (int) Math.round(src.getHeight() * (double) w / src.getWidth()));
+                BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = scaled.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(src, 0, 0, w, h, null);
+                g.dispose();
+                Path tmp = Files.createTempFile(thumbDir, "thumb-", ".part");
+                ImageIO.write(scaled, "jpg", tmp.toFile());
+                Files.move(tmp, thumb, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ 缩略图生成失败 {}", original.getFileName(), e);
+        }
+    }
+
+    // 根据文件头的魔数判断格式，认不出来的一律按 jpg 处理（和以前的行为一致）
+    private static String extension(byte[] head, int len) {
+        if (len >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+            return "png";
+        }
+        if (len >= 6 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F') {
+            return "gif";
+        }
+        if (len >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+            return "webp";
+        }
+        return "jpg";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
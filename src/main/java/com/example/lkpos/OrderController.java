@@ -1,10 +1,33 @@
 package com.example.lkpos;
 
+import com.example.lkpos.DataSourceConfig.RoutingDataSource;
 import org.apache.ibatis.annotations.*;
+import org.apache.ibatis.cursor.Cursor;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import tools.jackson.databind.ObjectMapper;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 @RestController
@@ -14,38 +37,160 @@ public class OrderController {
     @Autowired
     private OrderMapper orderMapper;
 
+    @Autowired
+    private OrderWriter orderWriter;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private OrderIngest orderIngest;
+
+    // Spring 配置好的那一个：导出的每行订单和 GET /api/orders 返回的格式一致
+    @Autowired
+    private ObjectMapper jsonMapper;
+
+    @Value("${lkpos.export.timeout:10m}")
+    private Duration exportTimeout;
+
+    // 开启 lkpos.journal.enabled 后才有：先写本地结账日志，再由后台线程落库
+    @Autowired(required = false)
+    private OrderJournal orderJournal;
+
     // 🌟 接收前端传来的结账请求
     @PostMapping
-    @Transactional // 🌟 事务注解：保证主表和子表要么一起成功，要么一起失败，防止账目错乱！
-    public String createOrder(@RequestBody OrderRequest request) {
-        System.out.println("收到结账请求，总金额：" + request.totalAmount);
-
-        // 1. 组装主订单并插入数据库
-        Order order = new Order();
-        order.totalAmount = request.totalAmount;
-        order.totalItems = request.totalItems;
-        orderMapper.insertOrder(order);
-        // 👆 运行完这行后，MyBatis 会自动把 MySQL 生成的自增 ID 塞回 order.id 里
-
-        // 2. 遍历购物车里的每一项，绑定刚才生成的订单 ID，存入明细表
-        for (OrderItem item : request.items) {
-            item.orderId = order.id; // 关联主表
-            orderMapper.insertOrderItem(item);
+    public ResponseEntity<String> createOrder(@RequestBody OrderRequest request) {
+        if (orderJournal != null) {
+            // 🌟 日志 fsync 成功就算结账成功，MySQL 慢也不会卡住收银台
+            orderJournal.append(request);
+            return ResponseEntity.ok("success");
+        }
+        try {
+            orderWriter.save(request);
+        } catch (StockLevels.OutOfStockException e) {
+            // 库存不够：整单没有写入，前台提示收银员
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (DuplicateKeyException e) {
+            // 同一个 clientOrderId 的并发重复提交：另一次已经入库，对前台来说就是成功
+            return ResponseEntity.ok("success");
         }
+        return ResponseEntity.ok("success");
+    }
 
-        return "success";
+    // 🌟 离线补录：断网期间攒下的订单一次提交（每单带 clientOrderId），重复提交不会重复入库
+    @PostMapping("/bulk")
+    public ResponseEntity<OrderIngest.IngestResult> ingestOrders(@RequestBody List<OrderRequest> requests) {
+        if (requests == null || requests.size() > OrderIngest.MAX_ORDERS) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(orderIngest.ingest(requests));
     }
 
     @GetMapping
     public List<Order> getAllOrders() {
-        System.out.println("正在拉取销售流水...");
         return orderMapper.findAllOrders();
     }
 
+    // 🌟 流水导出：用数据库游标边查边写，几十万单也不会一次性读进内存
+    //    format=ndjson（默认，每行一单，带明细）或 csv（每行一条明细）
+    //    from/to 为日期（含 to 当天），afterId 为断点续传用的订单号
+    //    几十万单要导很久，超时（lkpos.export.timeout）只对这个接口放宽，其他异步请求仍按默认值
+    @GetMapping("/export")
+    public WebAsyncTask<Void> exportOrders(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) Integer afterId,
+            HttpServletResponse response) {
+        boolean csv = "csv".equalsIgnoreCase(format);
+        LocalDateTime start = from == null ? null : from.atStartOfDay();
+        LocalDateTime end = to == null ? null : to.plusDays(1).atStartOfDay();
+
+        response.setContentType(csv ? "text/csv;charset=UTF-8" : "application/x-ndjson");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=orders." + (csv ? "csv" : "ndjson"));
+        return new WebAsyncTask<>(exportTimeout.toMillis(), () -> {
+            OutputStream buffered = new BufferedOutputStream(response.getOutputStream(), 64 * 1024);
+            // 游标只在事务（SqlSession）打开期间有效，所以整个输出过程包在一个只读事务里
+            // 事务开始时就拿连接，所以要在事务外面切到报表库，导出再久也不占收银的主库连接
+            TransactionTemplate tx = new TransactionTemplate(transactionManager);
+            tx.setReadOnly(true);
+            RoutingDataSource.onReporting(() -> tx.execute(status -> {
+                try (Cursor<ExportRow> rows = orderMapper.streamOrderRows(start, end, afterId)) {
+                    if (csv) {
+                        writeCsv(rows, buffered);
+                    } else {
+                        writeNdjson(rows, buffered);
+                    }
+                    buffered.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }));
+            return null;
+        });
+    }
+
+    // 游标按订单号、明细号有序，同一单的明细是连续的，攒够一单就写一行
+    private void writeNdjson(Cursor<ExportRow> rows, OutputStream out) throws IOException {
+        ExportOrder current = null;
+        for (ExportRow row : rows) {
+            if (current == null || !current.id.equals(row.orderId)) {
+                if (current != null) {
+                    writeJsonLine(current, out);
+                }
+                current = new ExportOrder();
+                current.id = row.orderId;
+                current.totalAmount = row.totalAmount;
+                current.totalItems = row.totalItems;
+                current.createTime = row.createTime;
+                current.items = new ArrayList<>();
+            }
+            if (row.itemId != null) {
+                OrderItem item = new OrderItem();
+                item.id = row.itemId;
+                item.orderId = row.orderId;
+                item.barcode = row.barcode;
+                item.name = row.name;
+                item.price = row.price;
+                item.quantity = row.quantity;
+                current.items.add(item);
+            }
+        }
+        if (current != null) {
+            writeJsonLine(current, out);
+        }
+    }
+
+    private void writeJsonLine(ExportOrder order, OutputStream out) throws IOException {
+        out.write(jsonMapper.writeValueAsBytes(order));
+        out.write('\n');
+    }
+
+    private void writeCsv(Cursor<ExportRow> rows, OutputStream out) throws IOException {
+        Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        w.write("orderId,createTime,totalAmount,totalItems,itemId,barcode,name,price,quantity\n");
+        for (ExportRow row : rows) {
+            w.write(row.orderId + "," + csvField(row.createTime) + "," + row.totalAmount + "," + row.totalItems + ","
+                    + (row.itemId == null ? "" : row.itemId) + "," + csvField(row.barcode) + "," + csvField(row.name) + ","
+                    + (row.itemId == null ? "" : row.price) + "," + (row.itemId == null ? "" : row.quantity) + "\n");
+        }
+        w.flush();
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+
     // 🌟 1. 新增：根据订单ID获取具体卖了什么商品的接口
     @GetMapping("/{orderId}/items")
     public List<OrderItem> getOrderItems(@PathVariable Integer orderId) {
-        System.out.println("正在查询订单明细，订单号：" + orderId);
         return orderMapper.findItemsByOrderId(orderId);
     }
 
@@ -58,9 +203,43 @@ public class OrderController {
         @Options(useGeneratedKeys = true, keyProperty = "id")
         void insertOrder(Order order);
 
-        // 插入明细表
-        @Insert("INSERT INTO order_items (order_id, barcode, name, price, quantity) VALUES (#{orderId}, #{barcode}, #{name}, #{price}, #{quantity})")
-        void insertOrderItem(OrderItem item);
+        // 离线补录：多行 INSERT 一次写入一批订单，带上收银台记录的结账时间，自增 ID 按顺序回填
+        @Insert("<script>" +
+                "INSERT INTO orders (total_amount, total_items, create_time) VALUES " +
+                "<foreach collection='orders' item='o' separator=','>" +
+                "(#{o.totalAmount}, #{o.totalItems}, #{o.createTime})" +
+                "</foreach>" +
+                "</script>")
+        @Options(useGeneratedKeys = true, keyProperty = "orders.id", keyColumn = "id")
+        void insertOrders(@Param("orders") List<Order> orders);
+
+        // 🌟 批量插入明细表：一条多行 INSERT 写完整个购物车
+        @Insert("<script>" +
+                "INSERT INTO order_items (order_id, barcode, name, price, quantity) VALUES " +
+                "<foreach collection='items' item='it' separator=','>" +
+                "(#{it.orderId}, #{it.barcode}, #{it.name}, #{it.price}, #{it.quantity})" +
+                "</foreach>" +
+                "</script>")
+        void insertOrderItems(@Param("items") List<OrderItem> items);
+
+        @Insert("<script>" +
+                "INSERT INTO order_client_ids (client_order_id, order_id) VALUES " +
+                "<foreach collection='ids' item='c' separator=','>(#{c.clientOrderId}, #{c.orderId})</foreach>" +
+                "</script>")
+        void insertClientOrderIds(@Param("ids") List<ClientOrderId> ids);
+
+        @Select("<script>" +
+                "SELECT client_order_id AS clientOrderId, order_id AS orderId FROM order_client_ids " +
+                "WHERE client_order_id IN <foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+                "</script>")
+        List<ClientOrderId> findClientOrderIds(@Param("ids") List<String> clientOrderIds);
+
+        // 常驻统计重建时查一批订单在当前快照里是否已经可见
+        @Select("<script>" +
+                "SELECT id FROM orders " +
+                "WHERE id IN <foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+                "</script>")
+        List<Integer> findExistingOrderIds(@Param("ids") List<Integer> ids);
 
         // 🌟 修改：使用 AS 取别名，让数据库字段和 Java 属性精准对齐
         @Select("SELECT id, " +
@@ -68,6 +247,7 @@ public class OrderController {
                 "total_items AS totalItems, " +
                 "create_time AS createTime " +
                 "FROM orders ORDER BY create_time DESC")
+        // 收银台结完账马上会翻流水，读主库；从库落后时刚结的单会看不到
         List<Order> findAllOrders();
 
         // 🌟 2. 新增：连表/条件查询子表，注意用 AS 匹配驼峰命名
@@ -76,6 +256,23 @@ public class OrderController {
                 "barcode, name, price, quantity " +
                 "FROM order_items WHERE order_id = #{orderId}")
         List<OrderItem> findItemsByOrderId(Integer orderId);
+
+        // 🌟 流水导出：订单左连明细，按订单号有序流式读取
+        //    fetchSize = Integer.MIN_VALUE 是 MySQL 驱动的逐行流式模式，结果集不会整体缓存在内存里
+        @Select("<script>" +
+                "SELECT o.id AS orderId, o.total_amount AS totalAmount, o.total_items AS totalItems, o.create_time AS createTime, " +
+                "oi.id AS itemId, oi.barcode, oi.name, oi.price, oi.quantity " +
+                "FROM orders o LEFT JOIN order_items oi ON oi.order_id = o.id " +
+                "<where>" +
+                "<if test='from != null'>o.create_time &gt;= #{from}</if>" +
+                "<if test='to != null'> AND o.create_time &lt; #{to}</if>" +
+                "<if test='afterId != null'> AND o.id &gt; #{afterId}</if>" +
+                "</where>" +
+                "ORDER BY o.id, oi.id" +
+                "</script>")
+        @Options(fetchSize = Integer.MIN_VALUE)
+        Cursor<ExportRow> streamOrderRows(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                          @Param("afterId") Integer afterId);
     }
 
     // --- 内部实体类与 DTO ---
@@ -85,6 +282,8 @@ public class OrderController {
         public double totalAmount;
         public int totalItems;
         public List<OrderItem> items; // 对应前端的 cart 数组
+        public String clientOrderId; // 收银台生成的唯一订单号，带上之后重复提交只会入库一次
+        public LocalDateTime createTime; // 离线补录时的实际结账时间，不填则为入库时间
     }
 
     public static class Order {
@@ -94,6 +293,41 @@ public class OrderController {
         public String createTime; // 🌟 新增：用于接收数据库的结账时间
     }
 
+    // 导出时一单一行：主表字段 + 全部明细
+    public static class ExportOrder {
+        public Integer id;
+        public double totalAmount;
+        public int totalItems;
+        public String createTime;
+        public List<OrderItem> items;
+    }
+
+    // 导出游标的一行：订单左连明细，没有明细的订单 itemId 为空
+    public static class ExportRow {
+        public Integer orderId;
+        public double totalAmount;
+        public int totalItems;
+        public String createTime;
+        public Integer itemId;
+        public String barcode;
+        public String name;
+        public double price;
+        public int quantity;
+    }
+
+    public static class ClientOrderId {
+        public String clientOrderId;
+        public Integer orderId;
+
+        public ClientOrderId() {
+        }
+
+        public ClientOrderId(String clientOrderId, Integer orderId) {
+            this.clientOrderId = clientOrderId;
+            this.orderId = orderId;
+        }
+    }
+
     public static class OrderItem {
         public Integer id;
         public Integer orderId;
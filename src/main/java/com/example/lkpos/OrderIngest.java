@@ -0,0 +1,171 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.ClientOrderId;
+import com.example.lkpos.OrderController.Order;
+import com.example.lkpos.OrderController.OrderMapper;
+import com.example.lkpos.OrderController.OrderRequest;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 离线收银台断网期间攒下的订单，恢复联网后一次性补录。
+ *
+ * 每单必须带收银台生成的 clientOrderId：先一把查出哪些已经入库过（重复同步、超时重发），
+ * 剩下的按 lkpos.ingest.batch-orders 分批，每批一个事务交给 {@link OrderWriter#saveBatch}。
+ * 某一批失败（比如另一台设备同时在同步同一批订单撞了主键）时，退回逐单写入，
+ * 保证一单出错不会连累整批，每单都有明确的结果。
+ */
+@Component
+public class OrderIngest {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderIngest.class);
+
+    // 一次请求最多补录多少单
+    static final int MAX_ORDERS = 10_000;
+
+    static final int MAX_CLIENT_ORDER_ID_LENGTH = 64;
+
+    // 查重用的 IN 列表分批大小
+    private static final int LOOKUP_CHUNK = 1000;
+
+    @Autowired
+    private OrderWriter orderWriter;
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private SchemaMigrations schemaMigrations;
+
+    @Value("${lkpos.ingest.batch-orders:500}")
+    private int batchOrders;
+
+    // 每批至少一单，否则分批循环永远走不完
+    @PostConstruct
+    public void checkConfig() {
+        if (batchOrders <= 0) {
+            throw new IllegalStateException("lkpos.ingest.batch-orders 必须大于 0，当前为 " + batchOrders);
+        }
+    }
+
+    public IngestResult ingest(List<OrderRequest> requests) {
+        schemaMigrations.migrate();
+        IngestResult result = new IngestResult();
+        OrderOutcome[] outcomes = new OrderOutcome[requests.size()];
+
+        // 1. 校验，并去掉同一请求里重复出现的订单号（以第一次出现的为准）
+        Map<String, Integer> firstIndex = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            OrderRequest request = requests.get(i);
+            String id = request == null ? null : request.clientOrderId;
+            if (id == null || id.isBlank() || id.length() > MAX_CLIENT_ORDER_ID_LENGTH) {
+                outcomes[i] = OrderOutcome.of(id, OrderOutcome.REJECTED, null, "缺少 clientOrderId 或长度超过 " + MAX_CLIENT_ORDER_ID_LENGTH);
+            } else if (request.items == null || request.items.isEmpty()) {
+                outcomes[i] = OrderOutcome.of(id, OrderOutcome.REJECTED, null, "订单没有明细");
+            } else if (firstIndex.putIfAbsent(id, i) != null) {
+                outcomes[i] = OrderOutcome.of(id, OrderOutcome.DUPLICATE, null, "同一请求内重复");
+            }
+        }
+
+        // 2. 已经入库过的订单直接标记为重复，带回原来的订单 ID
+        Map<String, Integer> stored = new HashMap<>();
+        List<String> ids = new ArrayList<>(firstIndex.keySet());
+        for (int from = 0; from < ids.size(); from += LOOKUP_CHUNK) {
+            for (ClientOrderId row : orderMapper.findClientOrderIds(ids.subList(from, Math.min(from + LOOKUP_CHUNK, ids.size())))) {
+                stored.put(row.clientOrderId, row.orderId);
+            }
+        }
+        List<Integer> pending = new ArrayList<>(firstIndex.size());
+        for (Map.Entry<String, Integer> e : firstIndex.entrySet()) {
+            Integer orderId = stored.get(e.getKey());
+            if (orderId != null) {
+                outcomes[e.getValue()] = OrderOutcome.of(e.getKey(), OrderOutcome.DUPLICATE, orderId, null);
+            } else {
+                pending.add(e.getValue());
+            }
+        }
+
+        // 3. 新订单分批写入，每批一个事务
+        for (int from = 0; from < pending.size(); from += batchOrders) {
+            List<Integer> batch = pending.subList(from, Math.min(from + batchOrders, pending.size()));
+            List<OrderRequest> batchRequests = new ArrayList<>(batch.size());
+            for (Integer index : batch) {
+                batchRequests.add(requests.get(index));
+            }
+            try {
+                List<Order> orders = orderWriter.saveBatch(batchRequests);
+                for (int i = 0; i < batch.size(); i++) {
+                    outcomes[batch.get(i)] = OrderOutcome.of(batchRequests.get(i).clientOrderId, OrderOutcome.CREATED, orders.get(i).id, null);
+                }
+            } catch (Exception e) {
+                log.warn("⚠️ 补录批次失败，改为逐单写入：{}", e.getMessage());
+                for (Integer index : batch) {
+                    outcomes[index] = ingestOne(requests.get(index));
+                }
+            }
+        }
+
+        for (OrderOutcome outcome : outcomes) {
+            result.results.add(outcome);
+            switch (outcome.status) {
+                case OrderOutcome.CREATED -> result.created++;
+                case OrderOutcome.DUPLICATE -> result.duplicates++;
+                default -> result.failed++;
+            }
+        }
+        log.info("离线补录完成：新增 {}，重复 {}，失败 {}", result.created, result.duplicates, result.failed);
+        return result;
+    }
+
+    private OrderOutcome ingestOne(OrderRequest request) {
+        try {
+            Order order = orderWriter.saveBatch(List.of(request)).get(0);
+            return OrderOutcome.of(request.clientOrderId, OrderOutcome.CREATED, order.id, null);
+        } catch (DuplicateKeyException e) {
+            List<ClientOrderId> existing = orderMapper.findClientOrderIds(List.of(request.clientOrderId));
+            return OrderOutcome.of(request.clientOrderId, OrderOutcome.DUPLICATE,
+                    existing.isEmpty() ? null : existing.get(0).orderId, null);
+        } catch (Exception e) {
+            return OrderOutcome.of(request.clientOrderId, OrderOutcome.FAILED, null, e.getMessage());
+        }
+    }
+
+    public static class IngestResult {
+        public int created;
+        public int duplicates;
+        public int failed;
+        public List<OrderOutcome> results = new ArrayList<>(); // 和请求里的订单一一对应、顺序一致
+    }
+
+    public static class OrderOutcome {
+        static final String CREATED = "created";
+        static final String DUPLICATE = "duplicate";
+        static final String REJECTED = "rejected";
+        static final String FAILED = "failed";
+
+        public String clientOrderId;
+        public String status;
+        public Integer orderId;
+        public String error;
+
+        static OrderOutcome of(String clientOrderId, String status, Integer orderId, String error) {
+            OrderOutcome o = new OrderOutcome();
+            o.clientOrderId = clientOrderId;
+            o.status = status;
+            o.orderId = orderId;
+            o.error = error;
+            return o;
+        }
+    }
+}
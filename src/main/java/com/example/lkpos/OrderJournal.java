@@ -0,0 +1,528 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 结账预写日志（write-behind）：收银台的订单先追加到本地分段日志并 fsync，
+ * 立刻给前台返回成功；后台线程再把日志里的订单成批写进 MySQL。
+ *
+ * 每条记录带一个单调递增的序号，已落库的最大序号和订单在同一个数据库事务里更新，
+ * 所以不管在哪一步崩溃，重启回放时都只会补写还没落库的那部分，不丢单也不重单。
+ *
+ * 记录格式：[int 长度][long 序号][JSON 订单][int CRC32]，尾部写了一半的记录在启动时截掉。
+ *
+ * 回放失败分两种：数据库连不上、锁超时这类暂时性故障，整批原样重试，直到数据库恢复；
+ * 违反约束、字段超长这类只和某一单有关的错误，同一批连续失败 lkpos.journal.max-attempts 次后改成逐单回放，
+ * 仍然写不进去的那一单追加到日志目录下的 dead-letter.ndjson 并跳过，后面的订单照常落库。
+ */
+@Component
+@ConditionalOnProperty(name = "lkpos.journal.enabled", havingValue = "true")
+public class OrderJournal {
+
+    private static final String SEGMENT_PREFIX = "orders-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 12;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final String DEAD_LETTER_FILE = "dead-letter.ndjson";
+
+    private static final Logger log = LoggerFactory.getLogger(OrderJournal.class);
+
+    @Autowired
+    private OrderWriter orderWriter;
+
+    @Autowired
+    private JournalMapper journalMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private SchemaMigrations schemaMigrations;
+
+    @Value("${lkpos.journal.dir:journal}")
+    private String journalDir;
+
+    // 单个分段文件写满后滚动到新文件，已经全部落库的旧分段直接删除
+    @Value("${lkpos.journal.segment-bytes:67108864}")
+    private long segmentBytes;
+
+    // 一次 fsync 最多合并多少笔结账
+    @Value("${lkpos.journal.group-size:256}")
+    private int groupSize;
+
+    // 后台一个数据库事务最多回放多少笔订单
+    @Value("${lkpos.journal.drain-batch:200}")
+    private int drainBatch;
+
+    // 同一批因为订单本身的问题连续失败几次后改成逐单回放
+    @Value("${lkpos.journal.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${lkpos.journal.retry-delay:1s}")
+    private Duration retryDelay;
+
+    // Spring 配置好的那一个：日志里的订单和 POST /api/orders 的请求体按同样的规则读写
+    @Autowired
+    private ObjectMapper mapper;
+
+    // 等待 fsync 的结账请求，由写线程成组刷盘
+    private final BlockingQueue<PendingAppend> appendQueue = new LinkedBlockingQueue<>();
+
+    // 已经持久化、等待写入 MySQL 的日志记录（按序号递增）
+    private final BlockingQueue<JournalRecord> drainQueue = new LinkedBlockingQueue<>();
+
+    // 分段起始序号 -> 文件，只有写线程和回放线程会改，统一用 segments 自身加锁
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+
+    private Path dir;
+    private FileChannel active;
+    private long activeFirstSeq;
+    private long nextSeq = 1;
+
+    // 移入死信文件的订单数
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    private Thread writerThread;
+    private Thread drainerThread;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void start() throws IOException {
+        dir = Paths.get(journalDir).toAbsolutePath();
+        Files.createDirectories(dir);
+        schemaMigrations.migrate();
+
+        // 1. 扫描已有分段，把所有完整的记录重新排进落库队列（是否已落库由回放事务判断）
+        recover();
+
+        // 旧分段全部落库删光之后，序号也不能从头再来，否则新订单会被当成“已落库”跳过
+        nextSeq = Math.max(nextSeq, journalMapper.selectAppliedSeq() + 1);
+        if (!segments.isEmpty()) {
+            nextSeq = Math.max(nextSeq, segments.lastKey());
+        }
+
+        // 2. 总是开一个新分段来写，不在可能被截断过的旧文件后面追加
+        openSegment(nextSeq);
+
+        writerThread = new Thread(this::writeLoop, "order-journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        drainerThread = new Thread(this::drainLoop, "order-journal-drainer");
+        drainerThread.setDaemon(true);
+        drainerThread.start();
+
+        log.info("✅ 结账日志已启用：{}，待回放 {} 笔", dir, drainQueue.size());
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        // 不用 interrupt：被中断的 FileChannel 会直接关闭，可能把已经 fsync 的结账误报成失败
+        running = false;
+        try {
+            writerThread.join(5000);
+            drainerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (segments) {
+            if (active != null) {
+                active.close();
+            }
+        }
+    }
+
+    /**
+     * 追加一笔结账，等它和同一批的其他结账一起 fsync 完成后才返回。
+     * 返回值是这笔订单在日志里的序号。
+     *
+     * 写线程迟迟没来取（10 秒）或者等待时被中断，只有还能从队列里撤回时才报失败；
+     * 已经被写线程取走的一定会写盘并落库，这时前台收到失败再重试就会重单，所以一直等到写完。
+     */
+    public long append(OrderRequest request) {
+        PendingAppend pending = new PendingAppend(mapper.writeValueAsBytes(request), request);
+        if (pending.payload.length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("订单过大，无法写入结账日志");
+        }
+        appendQueue.add(pending);
+        boolean interrupted = false;
+        try {
+            try {
+                return pending.done.get(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (TimeoutException e) {
+                // 继续往下：撤回不了就等
+            }
+            if (appendQueue.remove(pending)) {
+                throw new IllegalStateException(interrupted ? "等待结账日志刷盘时被中断" : "结账日志写入超时");
+            }
+            while (true) {
+                try {
+                    return pending.done.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("结账日志写入失败", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** 还没写进 MySQL 的日志条数，用来观察后台回放是否跟得上 */
+    public int backlog() {
+        return drainQueue.size();
+    }
+
+    /** 回放不进去、已移入死信文件的订单数（本次启动以来） */
+    public long deadLettered() {
+        return deadLettered.get();
+    }
+
+    // --- 写线程：成组写入 + 一次 fsync ---
+
+    private void writeLoop() {
+        List<PendingAppend> group = new ArrayList<>(groupSize);
+        while (running) {
+            try {
+                PendingAppend first = appendQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                appendQueue.drainTo(group, groupSize - 1);
+                List<JournalRecord> written = writeGroup(group);
+                for (int i = 0; i < group.size(); i++) {
+                    group.get(i).done.complete(written.get(i).seq);
+                }
+                drainQueue.addAll(written);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                log.error("❌ 结账日志写盘失败", e);
+                for (PendingAppend p : group) {
+                    p.done.completeExceptionally(e);
+                }
+            } finally {
+                group.clear();
+            }
+        }
+        // 关闭时还没来得及写的请求直接失败，前台会收到错误并重试
+        PendingAppend p;
+        while ((p = appendQueue.poll()) != null) {
+            p.done.completeExceptionally(new IllegalStateException("结账日志已关闭"));
+        }
+    }
+
+    private List<JournalRecord> writeGroup(List<PendingAppend> group) throws IOException {
+        synchronized (segments) {
+            if (active.position() >= segmentBytes) {
+                active.close();
+                openSegment(nextSeq);
+            }
+            int size = 0;
+            for (PendingAppend p : group) {
+                size += HEADER_BYTES + p.payload.length + 4;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            List<JournalRecord> written = new ArrayList<>(group.size());
+            long seq = nextSeq;
+            for (PendingAppend p : group) {
+                buf.putInt(p.payload.length);
+                buf.putLong(seq);
+                buf.put(p.payload);
+                buf.putInt(crc(seq, p.payload));
+                written.add(new JournalRecord(seq, p.request));
+                seq++;
+            }
+            buf.flip();
+            long start = active.size();
+            try {
+                while (buf.hasRemaining()) {
+                    active.write(buf);
+                }
+                // 🌟 一整组结账只 fsync 一次
+                active.force(false);
+            } catch (IOException e) {
+                // 写了一半的组不能留在文件中间，否则恢复时会卡在这里、丢掉后面的记录
+                active.truncate(start);
+                throw e;
+            }
+            nextSeq = seq;
+            return written;
+        }
+    }
+
+    // --- 回放线程：成批写入 MySQL，已落库序号和订单同一事务提交 ---
+
+    private void drainLoop() {
+        List<JournalRecord> batch = new ArrayList<>(drainBatch);
+        // 手里这一批因为订单本身的问题失败了几次
+        int recordFailures = 0;
+        while (running) {
+            try {
+                if (batch.isEmpty()) {
+                    JournalRecord first = drainQueue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    drainQueue.drainTo(batch, drainBatch - 1);
+                }
+                long applied = recordFailures >= maxAttempts ? applyOneByOne(batch) : applyBatch(batch);
+                batch.clear();
+                recordFailures = 0;
+                deleteAppliedSegments(applied);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                if (isRecordFault(e)) {
+                    recordFailures++;
+                    log.warn("⚠️ 结账日志回放失败（第 {} 次），稍后重试: {}", recordFailures, e.getMessage());
+                } else {
+                    // 数据库暂时不可用：这一批留在手里，稍后原样重试
+                    log.warn("⚠️ 数据库暂时不可用，结账日志稍后重试回放: {}", e.getMessage());
+                }
+                try {
+                    Thread.sleep(retryDelay.toMillis());
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 只和这一单有关、换个时间重试也不会成功的错误：违反约束、字段超长，
+     * 或者订单内容本身让写入代码出错。连接、锁、事务这类数据库层面的故障不算。
+     */
+    static boolean isRecordFault(Throwable e) {
+        if (e instanceof DataIntegrityViolationException) {
+            return true;
+        }
+        return !(e instanceof DataAccessException) && !(e instanceof TransactionException);
+    }
+
+    // 逐单回放：单独写不进去的订单移入死信文件并越过它；遇到数据库故障就停下，整批稍后再试
+    private long applyOneByOne(List<JournalRecord> batch) throws IOException {
+        long applied = 0;
+        for (JournalRecord record : batch) {
+            try {
+                applied = applyBatch(List.of(record));
+            } catch (RuntimeException e) {
+                if (!isRecordFault(e)) {
+                    throw e;
+                }
+                deadLetter(record, e);
+                applied = skip(record.seq);
+            }
+        }
+        return applied;
+    }
+
+    // 先 fsync 死信再推进检查点：两步之间崩溃的话重启后这单会再进一次死信文件，按 seq 去重即可
+    private void deadLetter(JournalRecord record, Exception cause) throws IOException {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("seq", record.seq);
+        entry.put("error", String.valueOf(cause.getMessage()));
+        entry.put("order", record.request);
+        byte[] json = mapper.writeValueAsBytes(entry);
+        ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+        try (FileChannel ch = FileChannel.open(dir.resolve(DEAD_LETTER_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (line.hasRemaining()) {
+                ch.write(line);
+            }
+            ch.force(false);
+        }
+        deadLettered.incrementAndGet();
+        log.error("❌ 结账日志第 {} 条订单无法落库，已移入 {}", record.seq, DEAD_LETTER_FILE, cause);
+    }
+
+    private long skip(long seq) {
+        return transactionTemplate.execute(status -> {
+            long applied = journalMapper.lockAppliedSeq();
+            if (seq <= applied) {
+                return applied;
+            }
+            journalMapper.updateAppliedSeq(seq);
+            return seq;
+        });
+    }
+
+    private long applyBatch(List<JournalRecord> batch) {
+        return transactionTemplate.execute(status -> {
+            // 锁住检查点行：序号不大于它的记录已经落库过，直接跳过
+            long applied = journalMapper.lockAppliedSeq();
+            for (JournalRecord record : batch) {
+                if (record.seq <= applied) {
+                    continue;
+                }
+                orderWriter.saveAccepted(record.request);
+                applied = record.seq;
+            }
+            journalMapper.updateAppliedSeq(applied);
+            return applied;
+        });
+    }
+
+    private void deleteAppliedSegments(long applied) throws IOException {
+        synchronized (segments) {
+            // 某个分段的最后一条序号 = 下一个分段的起始序号 - 1；正在写的分段永远保留
+            Map.Entry<Long, Path> first;
+            while ((first = segments.firstEntry()) != null && first.getKey() != activeFirstSeq) {
+                Long nextFirst = segments.higherKey(first.getKey());
+                if (nextFirst == null || nextFirst - 1 > applied) {
+                    break;
+                }
+                Files.deleteIfExists(first.getValue());
+                segments.pollFirstEntry();
+            }
+        }
+    }
+
+    // --- 启动恢复 ---
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                    && p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long firstSeq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            segments.put(firstSeq, file);
+        }
+        for (Path file : segments.values()) {
+            readSegment(file);
+        }
+    }
+
+    private void readSegment(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            long pos = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (pos + HEADER_BYTES <= size) {
+                header.clear();
+                ch.read(header, pos);
+                header.flip();
+                int len = header.getInt();
+                long seq = header.getLong();
+                if (len < 0 || len > MAX_RECORD_BYTES || pos + HEADER_BYTES + len + 4 > size) {
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.allocate(len + 4);
+                ch.read(body, pos + HEADER_BYTES);
+                body.flip();
+                byte[] payload = new byte[len];
+                body.get(payload);
+                if (body.getInt() != crc(seq, payload)) {
+                    break;
+                }
+                drainQueue.add(new JournalRecord(seq, mapper.readValue(payload, OrderRequest.class)));
+                nextSeq = Math.max(nextSeq, seq + 1);
+                pos += HEADER_BYTES + len + 4;
+            }
+            if (pos < size) {
+                // 崩溃时写了一半的尾巴：这部分从未 fsync 成功、也从未回复过前台，安全截掉
+                log.warn("⚠️ 截断结账日志尾部 {} @{}", file.getFileName(), pos);
+                ch.truncate(pos);
+                ch.force(true);
+            }
+        }
+    }
+
+    private void openSegment(long firstSeq) throws IOException {
+        Path file = dir.resolve(SEGMENT_PREFIX + String.format("%020d", firstSeq) + SEGMENT_SUFFIX);
+        active = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeFirstSeq = firstSeq;
+        segments.put(firstSeq, file);
+    }
+
+    private static int crc(long seq, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, seq));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static class PendingAppend {
+        final byte[] payload;
+        final OrderRequest request;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        PendingAppend(byte[] payload, OrderRequest request) {
+            this.payload = payload;
+            this.request = request;
+        }
+    }
+
+    private static class JournalRecord {
+        final long seq;
+        final OrderRequest request;
+
+        JournalRecord(long seq, OrderRequest request) {
+            this.seq = seq;
+            this.request = request;
+        }
+    }
+
+    // --- 检查点表：记录已经落库的最大日志序号 ---
+    @Mapper
+    public interface JournalMapper {
+
+        @Select("SELECT applied_seq FROM order_journal_checkpoint WHERE id = 1")
+        long selectAppliedSeq();
+
+        @Select("SELECT applied_seq FROM order_journal_checkpoint WHERE id = 1 FOR UPDATE")
+        long lockAppliedSeq();
+
+        @Update("UPDATE order_journal_checkpoint SET applied_seq = #{appliedSeq} WHERE id = 1")
+        void updateAppliedSeq(long appliedSeq);
+    }
+}
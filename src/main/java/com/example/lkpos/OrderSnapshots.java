@@ -0,0 +1,147 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderMapper;
+import com.example.lkpos.OrderWriter.OrderCommitted;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 常驻统计（看板汇总、销售时间序列、商品关联）从历史订单全量重建的公共做法。
+ *
+ * 不再用“重建时的 MAX(id) 以前都算过了”当水位线：自增 ID 在插入时就分配了，
+ * 号小的订单可能比号大的晚提交，它的提交事件会被水位线挡掉，历史查询里也没有它，就漏了。
+ * 也不拿着组件的锁跑整段历史的 SQL，那会把结账事务提交之后的增量回调一起卡住。
+ *
+ * 1. 在组件的锁里开始记录提交事件（组件照常用旧数据服务、照常增量累加）；
+ * 2. 在一个只读的一致性快照事务里，不拿锁，把历史读成一份新数据；
+ * 3. 在同一个快照里查记下来的订单哪些看不见，只把看不见的补到新数据上；
+ * 4. 回到组件的锁里，没有新事件了就把新数据整体换上，停止记录。
+ */
+@Component
+public class OrderSnapshots {
+
+    // IN 列表太长 MySQL 解析也慢，按批查
+    private static final int ID_BATCH_SIZE = 1000;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    private volatile TransactionTemplate snapshotTx;
+
+    /** 一个组件的重建进度；{@link #offer} 要在组件的锁里调用 */
+    public static class Catchup {
+
+        // 重建期间到达的提交事件，不在重建时为 null
+        private List<OrderCommitted> events;
+
+        /** 正在重建就把事件记下来，快照里看不见这一单的话重建完补上 */
+        public void offer(OrderCommitted event) {
+            if (events != null) {
+                events.add(event);
+            }
+        }
+    }
+
+    /**
+     * 重建一个组件的常驻数据。
+     *
+     * @param lock    组件保护常驻数据的锁，提交事件回调也要拿着它调用 {@link Catchup#offer}
+     * @param load    在快照事务里从数据库读出一份新数据，不拿锁
+     * @param apply   把一笔快照里看不见的订单加到新数据上，不拿锁
+     * @param publish 在锁里换上新数据
+     */
+    public <S> void rebuild(Object lock, Catchup catchup, Supplier<S> load,
+                            BiConsumer<S, OrderCommitted> apply, Consumer<S> publish) {
+        // 同一个组件的重建排队执行，只用来互斥，不和组件的锁嵌套
+        synchronized (catchup) {
+            synchronized (lock) {
+                catchup.events = new ArrayList<>();
+            }
+            try {
+                snapshotTx().executeWithoutResult(status -> {
+                    S state = load.get();
+                    int checked = 0;
+                    while (true) {
+                        List<OrderCommitted> arrived;
+                        synchronized (lock) {
+                            if (catchup.events.size() == checked) {
+                                publish.accept(state);
+                                catchup.events = null;
+                                return;
+                            }
+                            arrived = new ArrayList<>(catchup.events.subList(checked, catchup.events.size()));
+                            checked = catchup.events.size();
+                        }
+                        Set<Integer> visible = visibleOrderIds(arrived);
+                        for (OrderCommitted event : arrived) {
+                            if (event.order.id != null && !visible.contains(event.order.id)) {
+                                apply.accept(state, event);
+                            }
+                        }
+                    }
+                });
+            } finally {
+                synchronized (lock) {
+                    catchup.events = null;
+                }
+            }
+        }
+    }
+
+    private Set<Integer> visibleOrderIds(List<OrderCommitted> events) {
+        List<Integer> ids = new ArrayList<>(events.size());
+        for (OrderCommitted event : events) {
+            if (event.order.id != null) {
+                ids.add(event.order.id);
+            }
+        }
+        Set<Integer> visible = new HashSet<>();
+        for (int from = 0; from < ids.size(); from += ID_BATCH_SIZE) {
+            visible.addAll(orderMapper.findExistingOrderIds(ids.subList(from, Math.min(from + ID_BATCH_SIZE, ids.size()))));
+        }
+        return visible;
+    }
+
+    // MySQL（InnoDB）的可重复读在事务第一次读的时候拍下整库的一致性快照，之后的读都看这个快照；
+    // 它的 SERIALIZABLE 会把普通查询变成加共享锁的读、挡住结账，不能用。
+    // H2 的可重复读是每张表第一次读的时候各拍各的，要 SERIALIZABLE 才是整库快照（只读事务不加锁）
+    private TransactionTemplate snapshotTx() {
+        TransactionTemplate tx = snapshotTx;
+        if (tx == null) {
+            tx = new TransactionTemplate(transactionManager);
+            tx.setReadOnly(true);
+            tx.setIsolationLevel(isH2() ? TransactionDefinition.ISOLATION_SERIALIZABLE
+                    : TransactionDefinition.ISOLATION_REPEATABLE_READ);
+            snapshotTx = tx;
+        }
+        return tx;
+    }
+
+    private boolean isH2() {
+        try (Connection conn = dataSource.getConnection()) {
+            return "H2".equals(conn.getMetaData().getDatabaseProductName());
+        } catch (SQLException e) {
+            throw new IllegalStateException("无法识别数据库类型", e);
+        }
+    }
+}
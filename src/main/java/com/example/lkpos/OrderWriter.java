@@ -0,0 +1,187 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.ClientOrderId;
+import com.example.lkpos.OrderController.Order;
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderMapper;
+import com.example.lkpos.OrderController.OrderRequest;
+import com.example.lkpos.StockLevels.Reservation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 订单落库的唯一入口：收银台直接结账、结账日志后台回放都走这里，
+ * 保证主表和明细表的写法只有一份。
+ * 每写一单都会发布 {@link OrderCommitted} 事件，统计类组件用
+ * {@code @TransactionalEventListener} 在事务提交之后再增量更新。
+ */
+@Component
+public class OrderWriter {
+
+    // 超大购物车按批切开，避免单条 SQL 超过 MySQL 的 max_allowed_packet
+    static final int ITEM_BATCH_SIZE = 500;
+
+    // 离线补录时主表一条多行 INSERT 最多写多少单
+    static final int ORDER_BATCH_SIZE = 500;
+
+    private static final DateTimeFormatter SQL_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private StockLevels stockLevels;
+
+    @Autowired
+    private SchemaMigrations schemaMigrations;
+
+    @Transactional // 🌟 事务注解：保证主表和子表要么一起成功，要么一起失败，防止账目错乱！
+    public Order save(OrderRequest request) {
+        return write(request, false);
+    }
+
+    /** 结账日志回放用：前台已经答应了顾客，库存不够也照样落库（库存记成负数） */
+    @Transactional
+    public Order saveAccepted(OrderRequest request) {
+        return write(request, true);
+    }
+
+    private Order write(OrderRequest request, boolean allowOversell) {
+        // 带了收银台订单号的请求先查重：已经入库过就直接返回原来的订单，什么都不写
+        if (request.clientOrderId != null) {
+            schemaMigrations.migrate();
+            List<ClientOrderId> existing = orderMapper.findClientOrderIds(List.of(request.clientOrderId));
+            if (!existing.isEmpty()) {
+                Order order = new Order();
+                order.id = existing.get(0).orderId;
+                return order;
+            }
+        }
+
+        // 0. 先在内存里扣库存，不够卖直接抛 OutOfStockException，整单回滚
+        Reservation stock = stockLevels.reserve(request.items, allowOversell);
+
+        // 1. 组装主订单并插入数据库
+        Order order = newOrder(request);
+        if (order.createTime != null) {
+            orderMapper.insertOrders(List.of(order));
+        } else {
+            orderMapper.insertOrder(order);
+        }
+        // 👆 运行完这行后，MyBatis 会自动把 MySQL 生成的自增 ID 塞回 order.id 里
+        stock.bind(order.id);
+        if (request.clientOrderId != null) {
+            // 并发重复提交时这里会撞主键（DuplicateKeyException），整单回滚
+            orderMapper.insertClientOrderIds(List.of(new ClientOrderId(request.clientOrderId, order.id)));
+        }
+
+        // 2. 购物车里的每一项绑定刚才生成的订单 ID，用多行 INSERT 一次性写入明细表
+        //    不管购物车多大，结账都只需要固定的几次数据库往返
+        insertItems(order.id, request.items);
+
+        // 3. 通知各个统计组件：等事务真正提交了才会被处理，回滚的订单不会算进去
+        eventPublisher.publishEvent(new OrderCommitted(order, request.items, eventTime(request)));
+        return order;
+    }
+
+    /**
+     * 离线收银台补录：一个事务写入一批订单，主表、订单号映射、明细各自用多行 INSERT，
+     * 几百单也只有寥寥几次数据库往返。调用方负责先查重；万一并发撞了订单号主键，
+     * 整批回滚并抛出 DuplicateKeyException。库存按已成交处理，不够也照样扣。
+     */
+    @Transactional
+    public List<Order> saveBatch(List<OrderRequest> requests) {
+        schemaMigrations.migrate();
+        List<Reservation> reservations = new ArrayList<>(requests.size());
+        List<Order> orders = new ArrayList<>(requests.size());
+        for (OrderRequest request : requests) {
+            reservations.add(stockLevels.reserve(request.items, true));
+            Order order = newOrder(request);
+            if (order.createTime == null) {
+                order.createTime = LocalDateTime.now().format(SQL_TIME);
+            }
+            orders.add(order);
+        }
+        for (int from = 0; from < orders.size(); from += ORDER_BATCH_SIZE) {
+            orderMapper.insertOrders(orders.subList(from, Math.min(from + ORDER_BATCH_SIZE, orders.size())));
+        }
+
+        List<ClientOrderId> clientIds = new ArrayList<>(requests.size());
+        List<OrderItem> items = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            OrderRequest request = requests.get(i);
+            Order order = orders.get(i);
+            reservations.get(i).bind(order.id);
+            if (request.clientOrderId != null) {
+                clientIds.add(new ClientOrderId(request.clientOrderId, order.id));
+            }
+            if (request.items != null) {
+                for (OrderItem item : request.items) {
+                    item.orderId = order.id;
+                    items.add(item);
+                }
+            }
+        }
+        for (int from = 0; from < clientIds.size(); from += ORDER_BATCH_SIZE) {
+            orderMapper.insertClientOrderIds(clientIds.subList(from, Math.min(from + ORDER_BATCH_SIZE, clientIds.size())));
+        }
+        for (int from = 0; from < items.size(); from += ITEM_BATCH_SIZE) {
+            orderMapper.insertOrderItems(items.subList(from, Math.min(from + ITEM_BATCH_SIZE, items.size())));
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            eventPublisher.publishEvent(new OrderCommitted(orders.get(i), requests.get(i).items, eventTime(requests.get(i))));
+        }
+        return orders;
+    }
+
+    private static Order newOrder(OrderRequest request) {
+        Order order = new Order();
+        order.totalAmount = request.totalAmount;
+        order.totalItems = request.totalItems;
+        if (request.createTime != null) {
+            order.createTime = request.createTime.format(SQL_TIME);
+        }
+        return order;
+    }
+
+    // 统计按实际结账时间归桶，离线补录的订单不会全堆在同步的那一刻
+    private static LocalDateTime eventTime(OrderRequest request) {
+        return request.createTime != null ? request.createTime : LocalDateTime.now();
+    }
+
+    private void insertItems(Integer orderId, List<OrderItem> items) {
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        for (OrderItem item : items) {
+            item.orderId = orderId; // 关联主表
+        }
+        for (int from = 0; from < items.size(); from += ITEM_BATCH_SIZE) {
+            orderMapper.insertOrderItems(items.subList(from, Math.min(from + ITEM_BATCH_SIZE, items.size())));
+        }
+    }
+
+    /** 一笔订单已经写入数据库（监听方需配合 AFTER_COMMIT 使用） */
+    public static class OrderCommitted {
+        public final Order order;
+        public final List<OrderItem> items;
+        public final LocalDateTime time;
+
+        public OrderCommitted(Order order, List<OrderItem> items, LocalDateTime time) {
+            this.order = order;
+            this.items = items == null ? List.of() : items;
+            this.time = time;
+        }
+    }
+}
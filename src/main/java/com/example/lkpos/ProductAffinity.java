@@ -0,0 +1,638 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderWriter.OrderCommitted;
+import com.example.lkpos.ProductController.Product;
+import com.example.lkpos.ProductController.ProductMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * “经常一起买”分析：哪些商品总和某个商品出现在同一单里，用来排货架、给收银台做搭配推荐。
+ *
+ * 不在 MySQL 里拿 order_items 自连接算（几十万单就能把库拖死），而是启动时把历史订单按订单号分段读进内存列存：
+ * 每单一个订单号、结账时间和明细起始行，每行明细一个商品槽位和数量，全是 int / long 数组，没有对象。
+ * 全量统计按订单切成分片交给 fork-join 并行数，合并后得到：
+ * - 每个商品出现在多少单里（support 的分子）；
+ * - 每对商品同时出现在多少单里，以及同单里对方买了多少件。
+ * 之后每笔订单提交后增量累加，查询全部历史只读内存里的计数；带时间范围的查询现扫一遍列存，同样分片并行。
+ *
+ * 口径：同一单里同一商品不管扫了几行、用了几个条码都只算一次；条码对不上商品的明细不计入。
+ * lift = P(A 且 B) / (P(A) * P(B))，大于 1 说明一起买的比随机碰上的多；同单次数少于
+ * lkpos.affinity.min-orders 的组合偶然性太大，不参与排名。
+ * 启动加载失败时每隔 lkpos.affinity.rebuild-retry 重试一次，成功后接口自动恢复。
+ * 增量累加靠条码索引把条码对到商品，索引没就绪时这一单会整单丢掉，
+ * 所以先停用（和加载失败一样），稍后重新全量加载，明细由 SQL 对到商品。
+ */
+@Component
+public class ProductAffinity {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductAffinity.class);
+
+    static final int MAX_LIMIT = 50;
+
+    // 一个分片最多多少单，太碎了合并的开销比并行省下的还多
+    static final int SHARD_ORDERS = 20_000;
+
+    // 加载时每次查询覆盖多少个订单号
+    private static final int LOAD_CHUNK_ORDERS = 50_000;
+
+    @Autowired
+    private AffinityMapper affinityMapper;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private BarcodeIndex barcodeIndex;
+
+    @Value("${lkpos.affinity.min-orders:3}")
+    private int minOrders;
+
+    @Value("${lkpos.affinity.rebuild-retry:5s}")
+    private Duration rebuildRetry;
+
+    @Autowired
+    private OrderSnapshots orderSnapshots;
+
+    // 当前在用的列存和计数，只在锁里读写和整体替换
+    private Store store = new Store();
+
+    private final OrderSnapshots.Catchup catchup = new OrderSnapshots.Catchup();
+
+    private volatile boolean ready = false;
+
+    private RebuildRetry retry;
+
+    @PostConstruct
+    public void start() {
+        retry = new RebuildRetry("商品关联分析加载", "product-affinity-reload", rebuildRetry, () -> {
+            // 加载期间提交的订单要靠条码索引对商品，它也没就绪的话先把它建起来
+            if (!barcodeIndex.isReady()) {
+                barcodeIndex.reload();
+            }
+            reload();
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retry.shutdown();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("⚠️ 商品关联分析加载失败，暂不可用", e);
+            retry.schedule();
+        }
+    }
+
+    /**
+     * 从 orders / order_items 全量重新加载并统计。
+     * 在锁外另起一份列存，建好后整体换上，加载期间提交的订单由 {@link OrderSnapshots} 补齐。
+     */
+    public void reload() {
+        long begin = System.nanoTime();
+        orderSnapshots.rebuild(this, catchup, this::load, this::add, loaded -> {
+            store = loaded;
+            ready = true;
+            log.info("✅ 商品关联分析加载完成，{} 单，{} 行明细，{} 个商品，耗时 {} ms",
+                    loaded.orders, loaded.rows, loaded.slots, (System.nanoTime() - begin) / 1_000_000);
+        });
+    }
+
+    private Store load() {
+        Store s = new Store();
+        // 在快照事务里取，只用来划分段，和后面读到的明细是同一个时间点的
+        Long maxId = affinityMapper.getMaxOrderId();
+        long upTo = maxId == null ? 0 : maxId;
+
+        // 按订单号分段读，每段一次查询：不会把几百万行一次性读进内存
+        int[] lineSlots = new int[16];
+        int[] lineQuantities = new int[16];
+        for (long after = 0; after < upTo; after += LOAD_CHUNK_ORDERS) {
+            int lines = 0;
+            int currentOrder = -1;
+            long currentTime = 0;
+            for (BasketRow row : affinityMapper.findBasketRows(after, Math.min(after + LOAD_CHUNK_ORDERS, upTo))) {
+                if (row.orderId != currentOrder) {
+                    s.appendOrder(currentOrder, currentTime, lineSlots, lineQuantities, lines);
+                    currentOrder = row.orderId;
+                    currentTime = epochSecond(row.createTime);
+                    lines = 0;
+                }
+                if (lines == lineSlots.length) {
+                    lineSlots = Arrays.copyOf(lineSlots, lines * 2);
+                    lineQuantities = Arrays.copyOf(lineQuantities, lines * 2);
+                }
+                lineSlots[lines] = s.slotOf(row.productId);
+                lineQuantities[lines] = row.quantity;
+                lines++;
+            }
+            s.appendOrder(currentOrder, currentTime, lineSlots, lineQuantities, lines);
+        }
+        s.countAll();
+        return s;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 🌟 订单提交后追加进列存并累加计数，回滚的订单不会算进来
+    @TransactionalEventListener
+    public synchronized void onOrderCommitted(OrderCommitted event) {
+        if (event.order.id == null) {
+            return;
+        }
+        catchup.offer(event);
+        if (!ready) {
+            return;
+        }
+        if (!barcodeIndex.isReady()) {
+            // 对不上商品，这一单就从计数和总单数里整个漏掉了；宁可先停用，稍后全量加载
+            ready = false;
+            retry.schedule();
+            return;
+        }
+        add(store, event);
+    }
+
+    private void add(Store s, OrderCommitted event) {
+        if (!barcodeIndex.isReady()) {
+            // 加载补单时条码索引没了：这次加载作废，由调用方稍后重试
+            throw new IllegalStateException("条码索引未就绪，无法累加订单 " + event.order.id);
+        }
+        int[] lineSlots = new int[event.items.size()];
+        int[] lineQuantities = new int[event.items.size()];
+        int lines = 0;
+        for (OrderItem item : event.items) {
+            Product product = barcodeIndex.lookup(item.barcode);
+            if (product != null) {
+                lineSlots[lines] = s.slotOf(product.id);
+                lineQuantities[lines] = item.quantity;
+                lines++;
+            }
+        }
+        if (s.appendOrder(event.order.id, epochSecond(event.time), lineSlots, lineQuantities, lines)) {
+            s.countLast();
+        }
+    }
+
+    /**
+     * 和某个商品最常一起买的前 limit 个商品，按 lift 从高到低。
+     * from / to 都为空时用全部历史的常驻计数；否则只统计 [from, to) 内结账的订单（现算）。
+     */
+    public AffinityResult topAssociated(int productId, int limit, LocalDateTime from, LocalDateTime to) {
+        int n = Math.max(1, Math.min(limit, MAX_LIMIT));
+        AffinityResult result = new AffinityResult();
+        result.productId = productId;
+
+        List<Affinity> ranked;
+        int[] idsBySlot;
+        if (from == null && to == null) {
+            synchronized (this) {
+                Store s = store;
+                Integer slot = s.slotById.get(productId);
+                result.totalOrders = s.orders;
+                if (slot == null) {
+                    return result;
+                }
+                result.orders = s.baskets[slot];
+                ranked = rank(s.partners[slot], s.baskets, result.orders, s.orders, n);
+                idsBySlot = s.idBySlot;
+            }
+        } else {
+            Columns columns;
+            Integer slot;
+            synchronized (this) {
+                columns = store.columns();
+                slot = store.slotById.get(productId);
+            }
+            if (slot == null) {
+                return result;
+            }
+            // 快照之后追加的行写在快照范围之外，扫描不用持锁，不挡结账
+            Counts counts = ForkJoinPool.commonPool().invoke(new Shard(columns, 0, columns.orders, slot,
+                    from == null ? Long.MIN_VALUE : epochSecond(from),
+                    to == null ? Long.MAX_VALUE : epochSecond(to)));
+            result.totalOrders = counts.orders;
+            result.orders = counts.baskets[slot];
+            ranked = rank(counts.pairs, counts.baskets, result.orders, counts.orders, n);
+            idsBySlot = columns.idBySlot;
+        }
+        attachProducts(ranked, idsBySlot);
+        result.associations = ranked;
+        return result;
+    }
+
+    // 按 lift 排名：并列时同单次数多的在前，再并列按商品 ID
+    private List<Affinity> rank(PairTable table, int[] basketCounts, int targetOrders, int totalOrders, int limit) {
+        List<Affinity> candidates = new ArrayList<>();
+        if (table == null || targetOrders == 0) {
+            return candidates;
+        }
+        for (int i = 0; i < table.keys.length; i++) {
+            if (table.keys[i] == PairTable.EMPTY || table.together[i] < minOrders) {
+                continue;
+            }
+            int partner = (int) table.keys[i];
+            Affinity a = new Affinity();
+            a.productId = partner; // 先放槽位，取商品信息时再换成 ID
+            a.orders = table.together[i];
+            a.units = table.units[i];
+            a.support = (double) a.orders / totalOrders;
+            a.confidence = (double) a.orders / targetOrders;
+            a.lift = a.confidence * totalOrders / basketCounts[partner];
+            candidates.add(a);
+        }
+        candidates.sort((x, y) -> x.lift != y.lift ? Double.compare(y.lift, x.lift)
+                : x.orders != y.orders ? Integer.compare(y.orders, x.orders)
+                : Integer.compare(x.productId, y.productId));
+        return new ArrayList<>(candidates.subList(0, Math.min(limit, candidates.size())));
+    }
+
+    // 槽位换成商品 ID 并带上名称、图片；已经删掉的商品不再推荐
+    private void attachProducts(List<Affinity> ranked, int[] idsBySlot) {
+        if (ranked.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(ranked.size());
+        for (Affinity a : ranked) {
+            a.productId = idsBySlot[a.productId];
+            ids.add(a.productId);
+        }
+        Map<Integer, Product> byId = new HashMap<>();
+        for (Product p : productMapper.findByIds(ids)) {
+            byId.put(p.id, p);
+        }
+        ranked.removeIf(a -> !byId.containsKey(a.productId));
+        for (Affinity a : ranked) {
+            Product p = byId.get(a.productId);
+            a.name = p.name;
+            a.imageUrl = p.imageUrl;
+        }
+    }
+
+    /** 一份列存和按它统计的全部历史计数；加载时在锁外建，换上之后只在锁里改 */
+    private static final class Store {
+
+        // --- 列存：第 k 单的明细是 [orderStart[k], orderStart[k + 1]) 这几行，orderStart[orders] 总等于 rows ---
+        int[] orderIds = new int[1024];
+        long[] orderTimes = new long[1024]; // 结账时间，按本地时间折成秒
+        int[] orderStart = new int[1025];
+        int orders;
+
+        int[] products = new int[4096]; // 商品槽位，不是商品 ID
+        int[] quantities = new int[4096];
+        int rows;
+
+        // 商品 ID 和槽位互转：槽位从 0 连续编号，计数可以直接用数组下标
+        final Map<Integer, Integer> slotById = new HashMap<>();
+        int[] idBySlot = new int[1024];
+        int slots;
+
+        // --- 全部历史的计数，按槽位下标 ---
+        int[] baskets = new int[1024];
+        PairTable[] partners = new PairTable[1024];
+
+        // 整份列存并行统计一遍
+        void countAll() {
+            Counts counts = ForkJoinPool.commonPool().invoke(
+                    new Shard(columns(), 0, orders, -1, Long.MIN_VALUE, Long.MAX_VALUE));
+            baskets = Arrays.copyOf(counts.baskets, Math.max(1024, slots));
+            partners = new PairTable[baskets.length];
+            PairTable pairs = counts.pairs;
+            for (int i = 0; i < pairs.keys.length; i++) {
+                long key = pairs.keys[i];
+                if (key != PairTable.EMPTY) {
+                    partnersOf((int) (key >>> 32)).add((int) key, pairs.together[i], pairs.units[i]);
+                }
+            }
+        }
+
+        // 刚追加的最后一单累加进计数
+        void countLast() {
+            if (baskets.length < slots) {
+                int size = Math.max(slots, baskets.length * 2);
+                baskets = Arrays.copyOf(baskets, size);
+                partners = Arrays.copyOf(partners, size);
+            }
+            int from = orderStart[orders - 1];
+            for (int r = from; r < rows; r++) {
+                int a = products[r];
+                baskets[a]++;
+                for (int s = from; s < rows; s++) {
+                    if (s != r) {
+                        partnersOf(a).add(products[s], 1, quantities[s]);
+                    }
+                }
+            }
+        }
+
+        // 一单追加到列存：同一商品的多行合并成一行，数量相加。没有可识别的商品时整单不计，返回 false
+        boolean appendOrder(int orderId, long time, int[] lineSlots, int[] lineQuantities, int lines) {
+            if (lines == 0) {
+                return false;
+            }
+            if (orders + 1 == orderIds.length) {
+                int size = orderIds.length * 2;
+                orderIds = Arrays.copyOf(orderIds, size);
+                orderTimes = Arrays.copyOf(orderTimes, size);
+                orderStart = Arrays.copyOf(orderStart, size + 1);
+            }
+            if (rows + lines > products.length) {
+                int size = Math.max(rows + lines, products.length * 2);
+                products = Arrays.copyOf(products, size);
+                quantities = Arrays.copyOf(quantities, size);
+            }
+            int start = rows;
+            int end = rows;
+            for (int i = 0; i < lines; i++) {
+                int r = start;
+                while (r < end && products[r] != lineSlots[i]) {
+                    r++;
+                }
+                if (r == end) {
+                    products[end] = lineSlots[i];
+                    quantities[end] = lineQuantities[i];
+                    end++;
+                } else {
+                    quantities[r] += lineQuantities[i];
+                }
+            }
+            orderIds[orders] = orderId;
+            orderTimes[orders] = time;
+            rows = end;
+            orders++;
+            orderStart[orders] = rows;
+            return true;
+        }
+
+        int slotOf(int productId) {
+            Integer slot = slotById.get(productId);
+            if (slot != null) {
+                return slot;
+            }
+            if (slots == idBySlot.length) {
+                idBySlot = Arrays.copyOf(idBySlot, slots * 2);
+            }
+            idBySlot[slots] = productId;
+            slotById.put(productId, slots);
+            return slots++;
+        }
+
+        PairTable partnersOf(int slot) {
+            PairTable table = partners[slot];
+            if (table == null) {
+                table = new PairTable(8);
+                partners[slot] = table;
+            }
+            return table;
+        }
+
+        Columns columns() {
+            return new Columns(orderTimes, orderStart, products, quantities, idBySlot, orders, slots);
+        }
+    }
+
+    // 时间范围只用来比大小，按 UTC 折算本地时间即可，不涉及时区换算
+    private static long epochSecond(LocalDateTime time) {
+        return time == null ? 0 : time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    // 列存的只读快照：数组只会整体换新，快照里的前 orders 单不会再被改写
+    private static final class Columns {
+        final long[] orderTimes;
+        final int[] orderStart;
+        final int[] products;
+        final int[] quantities;
+        final int[] idBySlot;
+        final int orders;
+        final int slots;
+
+        Columns(long[] orderTimes, int[] orderStart, int[] products, int[] quantities, int[] idBySlot,
+                int orders, int slots) {
+            this.orderTimes = orderTimes;
+            this.orderStart = orderStart;
+            this.products = products;
+            this.quantities = quantities;
+            this.idBySlot = idBySlot;
+            this.orders = orders;
+            this.slots = slots;
+        }
+    }
+
+    // 一个分片的统计结果
+    private static final class Counts {
+        int orders;
+        final int[] baskets;
+        final PairTable pairs = new PairTable(1024);
+
+        Counts(int slots) {
+            baskets = new int[slots];
+        }
+
+        Counts merge(Counts other) {
+            orders += other.orders;
+            for (int i = 0; i < baskets.length; i++) {
+                baskets[i] += other.baskets[i];
+            }
+            PairTable p = other.pairs;
+            for (int i = 0; i < p.keys.length; i++) {
+                if (p.keys[i] != PairTable.EMPTY) {
+                    pairs.add(p.keys[i], p.together[i], p.units[i]);
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * 对 [from, to) 这段订单计数，超过 {@link #SHARD_ORDERS} 单就对半拆开并行。
+     * target 为 -1 时统计所有商品对（键为 A 槽位 << 32 | B 槽位）；
+     * 否则只统计含 target 的订单里 target 和其他商品的组合（键为对方槽位）。
+     */
+    private static final class Shard extends RecursiveTask<Counts> {
+        final Columns c;
+        final int from;
+        final int to;
+        final int target;
+        final long start;
+        final long end;
+
+        Shard(Columns c, int from, int to, int target, long start, long end) {
+            this.c = c;
+            this.from = from;
+            this.to = to;
+            this.target = target;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Counts compute() {
+            if (to - from > SHARD_ORDERS) {
+                int mid = (from + to) >>> 1;
+                Shard left = new Shard(c, from, mid, target, start, end);
+                left.fork();
+                Counts right = new Shard(c, mid, to, target, start, end).compute();
+                return left.join().merge(right);
+            }
+            Counts counts = new Counts(c.slots);
+            int[] products = c.products;
+            int[] quantities = c.quantities;
+            for (int k = from; k < to; k++) {
+                long t = c.orderTimes[k];
+                if (t < start || t >= end) {
+                    continue;
+                }
+                int lo = c.orderStart[k];
+                int hi = c.orderStart[k + 1];
+                counts.orders++;
+                boolean hasTarget = target < 0;
+                for (int r = lo; r < hi; r++) {
+                    counts.baskets[products[r]]++;
+                    hasTarget |= products[r] == target;
+                }
+                if (!hasTarget) {
+                    continue;
+                }
+                for (int r = lo; r < hi; r++) {
+                    int a = products[r];
+                    if (target >= 0 && a != target) {
+                        continue;
+                    }
+                    for (int s = lo; s < hi; s++) {
+                        if (s != r) {
+                            long key = target < 0 ? (long) a << 32 | products[s] : products[s];
+                            counts.pairs.add(key, 1, quantities[s]);
+                        }
+                    }
+                }
+            }
+            return counts;
+        }
+    }
+
+    /** long 键到（同单次数, 对方件数）的开放寻址表，没有装箱 */
+    private static final class PairTable {
+        static final long EMPTY = -1L;
+
+        long[] keys;
+        int[] together;
+        int[] units;
+        int size;
+
+        PairTable(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            together = new int[capacity];
+            units = new int[capacity];
+        }
+
+        void add(long key, int count, int quantity) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = (int) (mix(key) & mask);
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = key;
+                size++;
+            }
+            together[i] += count;
+            units[i] += quantity;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldTogether = together;
+            int[] oldUnits = units;
+            keys = new long[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            together = new int[keys.length];
+            units = new int[keys.length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    add(oldKeys[i], oldTogether[i], oldUnits[i]);
+                }
+            }
+        }
+
+        private static long mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return key ^ (key >>> 32);
+        }
+    }
+
+    public static class AffinityResult {
+        public int productId;
+        public int orders;      // 含这个商品的单数
+        public int totalOrders; // 统计范围内的总单数
+        public List<Affinity> associations = new ArrayList<>();
+    }
+
+    public static class Affinity {
+        public int productId;
+        public String name;
+        public String imageUrl;
+        public int orders;         // 两者同在一单的单数
+        public long units;         // 这些单里对方一共卖了多少件
+        public double support;     // orders / 总单数
+        public double confidence;  // orders / 含目标商品的单数
+        public double lift;
+    }
+
+    @Mapper
+    public interface AffinityMapper {
+
+        @Select("SELECT MAX(id) FROM orders")
+        Long getMaxOrderId();
+
+        // (after, upTo] 内订单的明细，按订单号有序，同一单的明细连续
+        @Select("SELECT o.id AS orderId, o.create_time AS createTime, pb.product_id AS productId, oi.quantity " +
+                "FROM orders o " +
+                "JOIN order_items oi ON oi.order_id = o.id " +
+                "JOIN product_barcodes pb ON pb.barcode = oi.barcode " +
+                "WHERE o.id > #{after} AND o.id <= #{upTo} " +
+                "ORDER BY o.id")
+        List<BasketRow> findBasketRows(@Param("after") long after, @Param("upTo") long upTo);
+    }
+
+    public static class BasketRow {
+        public int orderId;
+        public LocalDateTime createTime;
+        public int productId;
+        public int quantity;
+    }
+}
@@ -1,29 +1,31 @@
 package com.example.lkpos;
 
 import org.apache.ibatis.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
 
-import org.springframework.http.*;
-import org.springframework.web.client.RestTemplate;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.UUID;
-import java.net.URL;
-
-
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.http.MediaType;
-import tools.jackson.databind.ObjectMapper;
+import java.nio.charset.Charset;
 
 import org.springframework.web.multipart.MultipartFile;
 
@@ -31,13 +33,43 @@ import org.springframework.web.multipart.MultipartFile;
 @RequestMapping("/api/products")
 public class ProductController {
 
+    private static final Logger log = LoggerFactory.getLogger(ProductController.class);
+
     @Autowired
     private ProductMapper productMapper;
 
+    @Autowired
+    private BarcodeIndex barcodeIndex;
+
+    @Autowired
+    private SalesRollups salesRollups;
+
+    @Autowired
+    private ExternalProductCache externalProductCache;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @Autowired
+    private CatalogVersions catalogVersions;
+
+    @Autowired
+    private CatalogImport catalogImport;
+
+    @Autowired
+    private ProductSearch productSearch;
+
     // 1. 前台扫码：任意一个口味的条码，都能顺藤摸瓜查出主商品信息
     @GetMapping("/{barcode}")
     public Product getProductByBarcode(@PathVariable String barcode) {
-        Product product = productMapper.findByBarcode(barcode);
+        // 🌟 优先走内存条码索引（无锁、不查库），索引还没预热好时才回退到数据库
+        Product product;
+        if (barcodeIndex.isReady()) {
+            Product hit = barcodeIndex.lookup(barcode);
+            product = hit == null ? null : scanResult(hit);
+        } else {
+            product = productMapper.findByBarcode(barcode);
+        }
         if (product == null) {
             Product empty = new Product();
             empty.barcode = barcode;
@@ -50,11 +82,79 @@ public class ProductController {
         return product;
     }
 
+    // 🌟 商品搜索（输入联想）：按名称、品牌、厂家、分类、规格模糊搜，支持拼音首字母（kkkl -> 可口可乐）
+    //    例：/api/products/search?q=可乐&limit=10；多个词用空格隔开，需要同时命中
+    @GetMapping("/search")
+    public ResponseEntity<List<Product>> searchProducts(@RequestParam String q,
+                                                        @RequestParam(defaultValue = "10") int limit) {
+        if (!productSearch.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(productSearch.search(q, limit));
+    }
+
+    // 一次最多解析多少个条码，挂单再大也够用
+    static final int MAX_RESOLVE_BATCH = 1000;
+
+    // 🌟 批量扫码：恢复挂单、粘贴一串条码时一次请求全部解析
+    //    返回顺序和请求一致，查不到的条码 found=false，不会被悄悄丢掉
+    @PostMapping("/resolve")
+    public ResponseEntity<List<ResolvedBarcode>> resolveBarcodes(@RequestBody List<String> barcodes) {
+        if (barcodes == null || barcodes.size() > MAX_RESOLVE_BATCH) {
+            return ResponseEntity.badRequest().build();
+        }
+        Map<String, Product> found = new HashMap<>(barcodes.size() * 4 / 3 + 1);
+        if (barcodeIndex.isReady()) {
+            for (String barcode : barcodes) {
+                Product hit = barcode == null ? null : barcodeIndex.lookup(barcode);
+                if (hit != null) {
+                    found.put(barcode, hit);
+                }
+            }
+        } else {
+            // 索引没预热好：去重后一条 IN 查询查完
+            List<String> distinct = new ArrayList<>(new LinkedHashSet<>(barcodes));
+            distinct.remove(null);
+            if (!distinct.isEmpty()) {
+                for (Product row : productMapper.findByBarcodes(distinct)) {
+                    found.put(row.barcode, row);
+                }
+            }
+        }
+
+        List<ResolvedBarcode> result = new ArrayList<>(barcodes.size());
+        for (String barcode : barcodes) {
+            ResolvedBarcode r = new ResolvedBarcode();
+            r.barcode = barcode;
+            Product hit = found.get(barcode);
+            if (hit != null) {
+                r.found = true;
+                r.product = scanResult(hit);
+                r.product.barcode = barcode; // 和单个扫码一样，带回扫中的那个条码
+            }
+            result.add(r);
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    // 索引里的对象是共享的，先复制一份；索引行带着进价（看板算毛利用），前台扫码和查库那条路一样不返回进价
+    private static Product scanResult(Product hit) {
+        Product p = hit.copy();
+        p.costPrice = 0;
+        return p;
+    }
+
     // 2. 后台录入：保存主商品，并批量保存多个关联条码
     @PostMapping
     @Transactional // 🌟 数据库事务：保证主表(商品)和子表(条码)要么一起成功，要么一起失败，防止脏数据！
     public String addProduct(@RequestBody Product product) {
         try {
+            // 从云端查来的商品：图片已经下到本地的话，存本地路径而不是云端地址
+            if (product.barcodes != null) {
+                for (String bc : product.barcodes) {
+                    product.imageUrl = externalProductCache.localImage(bc, product.imageUrl);
+                }
+            }
             // 第一步：插入主表 (products) 并拿到数据库自动生成的内部流水 ID
             productMapper.insertProduct(product);
 
@@ -64,53 +164,161 @@ public class ProductController {
                     productMapper.insertBarcode(bc, product.id);
                 }
             }
+            barcodeIndex.refreshProduct(product.id);
+            productSearch.refreshProduct(product.id);
+            catalogVersions.record(product.id);
             return "success";
         } catch (Exception e) {
-            System.err.println("入库失败：" + e.getMessage());
+            log.error("入库失败", e);
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return "error";
         }
     }
 
-    // --- 🌟 新增：独立接收前端实物拍照上传的接口 ---
-    @PostMapping("/upload")
-    public String uploadImage(@RequestParam("file") MultipartFile file) {
+    // 🌟 批量导入商品目录：请求体直接就是整个文件，边读边写，不会整个读进内存
+    //    CSV 首行是表头（name,price,costPrice,barcodes,...，中文表头也认），NDJSON 每行一个商品
+    //    例：curl --data-binary @catalog.csv -H 'Content-Type: text/csv' /api/products/import
+    //    format 不填时按 Content-Type 判断；Excel 导出的 GBK 文件加 charset=GBK
+    @PostMapping("/import")
+    public ResponseEntity<CatalogImport.ImportProgress> importCatalog(InputStream body,
+                                                                      @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+                                                                      @RequestParam(required = false) String format,
+                                                                      @RequestParam(defaultValue = "UTF-8") String charset) {
+        String kind = (format != null ? format : contentType == null ? "" : contentType).toLowerCase();
+        CatalogImport.Format f;
+        if (kind.contains("csv")) {
+            f = CatalogImport.Format.CSV;
+        } else if (kind.contains("ndjson") || kind.contains("json")) {
+            f = CatalogImport.Format.NDJSON;
+        } else {
+            return ResponseEntity.badRequest().build();
+        }
+        Charset cs;
         try {
-            // 生成随机文件名
-            String fileName = UUID.randomUUID().toString() + ".jpg";
-            // 拼接本地保存路径
-            Path localPath = Paths.get(System.getProperty("user.dir") + "/uploads/" + fileName);
-
-            // 确保 uploads 文件夹存在，如果不存在则自动创建
-            if (!Files.exists(localPath.getParent())) {
-                Files.createDirectories(localPath.getParent());
-            }
+            cs = Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(catalogImport.importCatalog(body, f, cs));
+        } catch (CatalogImport.ImportBusyException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(catalogImport.progress());
+        }
+    }
 
-            // 将前端传来的文件流保存到硬盘
-            file.transferTo(localPath.toFile());
+    // 导入进度：正在进行的或者最近一次导入
+    @GetMapping("/import")
+    public ResponseEntity<CatalogImport.ImportProgress> getImportProgress() {
+        CatalogImport.ImportProgress progress = catalogImport.progress();
+        return progress == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(progress);
+    }
 
+    // --- 🌟 新增：独立接收前端实物拍照上传的接口 ---
+    @PostMapping("/upload")
+    public String uploadImage(@RequestParam("file") MultipartFile file) {
+        try (InputStream in = file.getInputStream()) {
+            // 🌟 按内容哈希存盘：同一张图重复上传只存一份，缩略图在后台生成
             // 返回相对路径给前端
-            return "/uploads/" + fileName;
+            return imageStore.store(in);
         } catch (Exception e) {
-            System.err.println("❌ 图片上传失败: " + e.getMessage());
+            log.error("❌ 图片上传失败", e);
             return "";
         }
     }
 
     // 3. 后台列表：查询所有商品，并自动带出它们的“一品多码”集合
+    //    🌟 支持按 id 翻页 (afterId + size) 和按名称/品牌/分类过滤 (q)；什么参数都不带时仍然返回全部商品
+    //    商品一条 SQL、条码一条 SQL，在内存里拼起来，不再每个商品单独查一次条码
+    //    响应带目录版本号（X-Catalog-Version + ETag），目录没变时带 If-None-Match 来问直接回 304
     @GetMapping
-    public List<Product> getAllProducts() {
-        List<Product> products = productMapper.findAll();
-        // 为了兼容目前的前端表格，我们把多个条码用逗号拼成一个字符串，塞给前端的单数 barcode 字段
+    public ResponseEntity<List<Product>> getAllProducts(@RequestParam(required = false) Integer afterId,
+                                                        @RequestParam(required = false) Integer size,
+                                                        @RequestParam(required = false) String q,
+                                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // 先取版本号再查数据：数据只会比版本号新，不会旧，客户端下次拉增量最多重复拿到几条
+        long version = catalogVersions.current();
+        String etag = "\"catalog-" + version + "\"";
+        if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).header(CATALOG_VERSION_HEADER, String.valueOf(version)).build();
+        }
+
+        Integer limit = size == null ? null : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        String keyword = q == null || q.isBlank() ? null : q.trim();
+        List<Product> products = productMapper.findPage(afterId, limit, keyword);
+        attachBarcodes(products);
+        joinBarcodes(products);
+        return ResponseEntity.ok().eTag(etag).header(CATALOG_VERSION_HEADER, String.valueOf(version))
+                .cacheControl(CacheControl.noCache()).body(products);
+    }
+
+    // 为了兼容目前的前端表格，我们把多个条码用逗号拼成一个字符串，塞给前端的单数 barcode 字段
+    private static void joinBarcodes(List<Product> products) {
         for (Product p : products) {
             if (p.barcodes != null && !p.barcodes.isEmpty()) {
                 p.barcode = String.join(", ", p.barcodes);
             }
         }
-        return products;
+    }
+
+    static final String CATALOG_VERSION_HEADER = "X-Catalog-Version";
+
+    // 一次增量最多带多少个商品，超过就让客户端重新拉全量
+    static final int MAX_CHANGES = 5000;
+
+    // 🌟 目录增量：since 版本之后新增/修改的商品（完整信息）和被删掉的商品 ID
+    @GetMapping("/changes")
+    public CatalogDelta getCatalogChanges(@RequestParam long since) {
+        CatalogDelta delta = new CatalogDelta();
+        delta.version = catalogVersions.current();
+        if (since >= delta.version) {
+            return delta; // 已经是最新的，不用查库
+        }
+        List<Integer> changed = catalogVersions.changedProductIds(since, delta.version, MAX_CHANGES + 1);
+        if (changed.size() > MAX_CHANGES) {
+            delta.resync = true;
+            return delta;
+        }
+        for (int from = 0; from < changed.size(); from += BARCODE_QUERY_CHUNK) {
+            delta.products.addAll(productMapper.findByIds(changed.subList(from, Math.min(from + BARCODE_QUERY_CHUNK, changed.size()))));
+        }
+        attachBarcodes(delta.products);
+        joinBarcodes(delta.products);
+        // 改过但现在查不到的，就是被删掉了
+        Set<Integer> present = new HashSet<>();
+        for (Product p : delta.products) {
+            present.add(p.id);
+        }
+        for (Integer id : changed) {
+            if (!present.contains(id)) {
+                delta.deleted.add(id);
+            }
+        }
+        return delta;
+    }
+
+    static final int MAX_PAGE_SIZE = 500;
+
+    // IN 列表太长 MySQL 解析也慢，按批查条码
+    static final int BARCODE_QUERY_CHUNK = 1000;
+
+    private void attachBarcodes(List<Product> products) {
+        Map<Integer, Product> byId = new HashMap<>(products.size() * 4 / 3 + 1);
+        for (Product p : products) {
+            p.barcodes = new ArrayList<>(2);
+            byId.put(p.id, p);
+        }
+        List<Integer> ids = new ArrayList<>(byId.keySet());
+        for (int from = 0; from < ids.size(); from += BARCODE_QUERY_CHUNK) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + BARCODE_QUERY_CHUNK, ids.size()));
+            for (Product row : productMapper.findBarcodesByProductIds(chunk)) {
+                byId.get(row.id).barcodes.add(row.barcode);
+            }
+        }
     }
 
     // 4. 删除商品：顺藤摸瓜级联删除
     @DeleteMapping("/{barcode}")
+    @Transactional
     public String deleteProduct(@PathVariable String barcode) {
         try {
             // 如果传过来的是 "6901, 6902" 这种逗号拼接的字符串，我们只取第一个条码去找主商品
@@ -121,15 +329,20 @@ public class ProductController {
             if (productId != null) {
                 productMapper.deleteProduct(productId);
                 // 🌟 得益于建表时的 ON DELETE CASCADE，主商品一删，子表里的几十个口味条码会自动瞬间消失！
+                barcodeIndex.refreshProduct(productId);
+                productSearch.refreshProduct(productId);
+                catalogVersions.record(productId);
             }
             return "success";
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return "error";
         }
     }
 
     // 5. 修改商品信息
     @PutMapping("/{barcode}")
+    @Transactional
     public String updateProduct(@PathVariable String barcode, @RequestBody Product product) {
         try {
             String firstBarcode = barcode.split(",")[0].trim();
@@ -137,9 +350,13 @@ public class ProductController {
             if (productId != null) {
                 product.id = productId;
                 productMapper.updateProduct(product);
+                barcodeIndex.refreshProduct(productId);
+                productSearch.refreshProduct(productId);
+                catalogVersions.record(productId);
             }
             return "success";
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return "error";
         }
     }
@@ -147,12 +364,17 @@ public class ProductController {
     // --- 🌟 新增：获取单个商品的历史销量和今日销量 ---
     @GetMapping("/{id}/stats")
     public Map<String, Object> getProductStats(@PathVariable Integer id) {
-        System.out.println("正在查询商品ID: " + id + " 的销售数据...");
         Map<String, Object> stats = new HashMap<>();
 
-        // 分别查询总销量和今日销量
+        // 分别查询总销量和今日销量；今日销量优先从按天预聚合的销售桶里取
         Integer totalSales = productMapper.getTotalSalesByProductId(id);
-        Integer todaySales = productMapper.getTodaySalesByProductId(id);
+        Integer todaySales;
+        LocalDateTime today = LocalDate.now().atStartOfDay();
+        if (salesRollups.isReady()) {
+            todaySales = (int) salesRollups.unitsSold(id, today, today.plusDays(1));
+        } else {
+            todaySales = productMapper.getTodaySalesByProductId(id, today, today.plusDays(1));
+        }
 
         // 防空指针处理：如果没有卖出过，数据库的 SUM() 会返回 null
         stats.put("totalSales", totalSales == null ? 0 : totalSales);
@@ -163,82 +385,38 @@ public class ProductController {
 
 
     // --- 🌟 1. 新增：调用第三方 API 并下载图片本地化 ---
+    //    同一条码的并发查询合并成一次云端请求，结果（包括查无此码）会缓存；图片在后台下载
+    //    返回 CompletableFuture，等云端的这段时间不占用 Tomcat 请求线程
     @GetMapping("/fetch-external")
-    public Product fetchExternalProduct(@RequestParam String barcode) {
-        System.out.println("正在从 ShowAPI 云端拉取条码信息：" + barcode);
-        Product result = new Product();
-        result.barcode = barcode;
-
-        try {
-            // 1. 真实的 ShowAPI 接口地址
-            String apiUrl = "https://route.showapi.com/66-22";
-
-            // 2. 设置请求头为表单提交 (对应 curl 中的 -H 'content-type: application/x-www-form-urlencoded')
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-
-            // 3. 封装表单参数 (对应 curl 中的 -d 'code=...&appKey=...')
-            MultiValueMap<String, String> map = new LinkedMultiValueMap<>();
-            map.add("appKey", "86C53ef713e848F8Ae0a8264f7E6D095"); // ⚠️ 务必填入你的 appKey
-            map.add("code", barcode);
-
-            HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(map, headers);
-            RestTemplate restTemplate = new RestTemplate();
-
-            // 4. 发送 POST 请求并接收 String 格式的原始响应
-            ResponseEntity<String> response = restTemplate.postForEntity(apiUrl, request, String.class);
-            String rawData = response.getBody();
-
-            System.out.println("====== ShowAPI 原始返回数据 ======");
-            System.out.println(rawData);
-            System.out.println("=================================");
-
-            // 5. 手动解析 JSON
-            ObjectMapper mapper = new ObjectMapper();
-            Map<String, Object> body = mapper.readValue(rawData, Map.class);
-
-            // 6. 按照你截图里的格式精准解析
-            if (body != null && "0".equals(String.valueOf(body.get("showapi_res_code")))) {
-                Map<String, Object> data = (Map<String, Object>) body.get("showapi_res_body");
-
-                if (data != null && data.get("goodsName") != null) {
-                    // 解析名称
-                    result.name = String.valueOf(data.get("goodsName"));
-
-                    // 解析价格（防空字符串报错）
-                    String priceStr = String.valueOf(data.get("price"));
-                    if (priceStr != null && !priceStr.trim().isEmpty() && !"null".equals(priceStr)) {
-                        try { result.price = Double.parseDouble(priceStr); }
-                        catch (NumberFormatException e) { result.price = 0.0; }
-                    } else { result.price = 0.0; }
-
-                    // 解析图片并下载到本地
-                    String netImageUrl = (String) data.get("img");
-                    if (netImageUrl != null && !netImageUrl.trim().isEmpty()) {
-                        String fileName = UUID.randomUUID().toString() + ".jpg";
-                        Path localPath = Paths.get(System.getProperty("user.dir") + "/uploads/" + fileName);
-                        try (InputStream in = new URL(netImageUrl).openStream()) {
-                            Files.copy(in, localPath, StandardCopyOption.REPLACE_EXISTING);
-                            result.imageUrl = "/uploads/" + fileName;
-                            System.out.println("✅ 图片下载成功，本地路径：" + result.imageUrl);
-                        } catch (Exception e) { System.err.println("❌ 图片下载失败: " + e.getMessage()); }
-                    }
-
-                    // 🌟 新增：精准抓取高价值商业数据！
-                    result.brand = data.get("trademark") != null ? data.get("trademark").toString() : "未知品牌";
-                    result.specification = data.get("spec") != null ? data.get("spec").toString() : "无规格";
-                    result.manufacturer = data.get("manuName") != null ? data.get("manuName").toString() : "未知厂家";
-                    result.category = data.get("gpcType") != null ? data.get("gpcType").toString() : "未分类";
-                    result.note = data.get("note") != null ? data.get("note").toString() : "暂无详细说明";
-
-                }
-            } else {
-                System.out.println("⚠️ API 返回错误：" + body.get("showapi_res_error"));
+    public CompletableFuture<Product> fetchExternalProduct(@RequestParam String barcode) {
+        return externalProductCache.fetch(barcode).handle((product, e) -> {
+            if (e != null) {
+                log.warn("❌ 调用 ShowAPI 发生异常", e);
             }
-        } catch (Exception e) {
-            System.err.println("❌ 调用 ShowAPI 发生异常: " + e.getMessage());
+            if (product == null) {
+                // 云端无记录或调用失败：和以前一样只回传条码，前端据此提示手动录入
+                Product empty = new Product();
+                empty.barcode = barcode;
+                return empty;
+            }
+            return product;
+        });
+    }
+
+    // 云端图片在后台下好了：已经按云端地址保存的商品换成本地路径，扫码索引、搜索和目录版本跟着更新
+    @EventListener
+    @Transactional
+    public void onImageLocalized(ExternalProductCache.ImageLocalized event) {
+        List<Integer> ids = productMapper.findIdsByImageUrl(event.remoteUrl);
+        if (ids.isEmpty()) {
+            return;
+        }
+        productMapper.replaceImageUrl(event.remoteUrl, event.localUrl);
+        for (Integer id : ids) {
+            barcodeIndex.refreshProduct(id);
+            productSearch.refreshProduct(id);
         }
-        return result;
+        catalogVersions.record(ids);
     }
 
     // --- 🌟 2. 实体类补充 ---
@@ -259,6 +437,39 @@ public class ProductController {
         public String note;
 
         public Product() {}
+
+        // 扫码索引里的对象是共享的，返回给前台前先复制一份，避免改到快照
+        public Product copy() {
+            Product p = new Product();
+            p.id = id;
+            p.name = name;
+            p.price = price;
+            p.barcodes = barcodes;
+            p.barcode = barcode;
+            p.imageUrl = imageUrl;
+            p.costPrice = costPrice;
+            p.brand = brand;
+            p.specification = specification;
+            p.manufacturer = manufacturer;
+            p.category = category;
+            p.note = note;
+            return p;
+        }
+    }
+
+    // 目录增量：version 是这次同步到的版本号；resync=true 表示落后太多，请重新拉全量
+    public static class CatalogDelta {
+        public long version;
+        public boolean resync;
+        public List<Product> products = new ArrayList<>();
+        public List<Integer> deleted = new ArrayList<>();
+    }
+
+    // 批量扫码的一项结果：found=false 时 product 为空
+    public static class ResolvedBarcode {
+        public String barcode;
+        public boolean found;
+        public Product product;
     }
 
 
@@ -270,6 +481,24 @@ public class ProductController {
         @Select("SELECT p.id, p.name, p.price, p.image_url as imageUrl FROM products p JOIN product_barcodes pb ON p.id = pb.product_id WHERE pb.barcode = #{barcode}")
         Product findByBarcode(String barcode);
 
+        // 目录增量：按 ID 取商品完整信息
+        @Select("<script>SELECT id, name, price, cost_price as costPrice, image_url as imageUrl, brand, specification, manufacturer, category, note " +
+                "FROM products WHERE id IN <foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach></script>")
+        List<Product> findByIds(@Param("ids") List<Integer> ids);
+
+        // 批量扫码：一次 IN 查询，每个命中的条码一行
+        @Select("<script>SELECT pb.barcode, p.id, p.name, p.price, p.image_url as imageUrl " +
+                "FROM product_barcodes pb JOIN products p ON p.id = pb.product_id " +
+                "WHERE pb.barcode IN <foreach collection='barcodes' item='b' open='(' separator=',' close=')'>#{b}</foreach></script>")
+        List<Product> findByBarcodes(@Param("barcodes") List<String> barcodes);
+
+        // 条码索引预热：每个条码一行，比 findByBarcode 多带一个进价，供统计看板增量计算毛利
+        @Select("SELECT pb.barcode, p.id, p.name, p.price, p.cost_price as costPrice, p.image_url as imageUrl FROM product_barcodes pb JOIN products p ON p.id = pb.product_id")
+        List<Product> findAllBarcodeEntries();
+
+        @Select("SELECT pb.barcode, p.id, p.name, p.price, p.cost_price as costPrice, p.image_url as imageUrl FROM product_barcodes pb JOIN products p ON p.id = pb.product_id WHERE p.id = #{productId}")
+        List<Product> findBarcodeEntriesByProductId(Integer productId);
+
         @Select("SELECT product_id FROM product_barcodes WHERE barcode = #{barcode} LIMIT 1")
         Integer findProductIdByBarcode(String barcode);
 
@@ -284,39 +513,49 @@ public class ProductController {
         @Insert("INSERT INTO product_barcodes (barcode, product_id) VALUES (#{barcode}, #{productId})")
         void insertBarcode(@Param("barcode") String barcode, @Param("productId") Integer productId);
 
-        // 4. 查询商品列表 (映射图片和条码集合)
+        // 4. 查询商品列表：按 id 倒序的键集分页 + 可选关键字过滤，条码由 findBarcodesByProductIds 一次补齐
         // 🌟 升级：查询列表时把新字段一起拉出来
-        @Select("SELECT id, name, price, cost_price as costPrice, image_url as imageUrl, brand, specification, manufacturer, category, note FROM products ORDER BY id DESC")
-        @Results({
-                @Result(property = "id", column = "id"),
-                @Result(property = "name", column = "name"),
-                @Result(property = "price", column = "price"),
-                @Result(property = "imageUrl", column = "imageUrl"),
-                @Result(property = "brand", column = "brand"),
-                @Result(property = "costPrice", column = "costPrice"),
-                @Result(property = "specification", column = "specification"),
-                @Result(property = "manufacturer", column = "manufacturer"),
-                @Result(property = "category", column = "category"),
-                @Result(property = "note", column = "note"),
-                @Result(property = "barcodes", column = "id", many = @Many(select = "findBarcodesByProductId"))
-        })
-        List<Product> findAll();
-
-        @Select("SELECT barcode FROM product_barcodes WHERE product_id = #{productId}")
-        List<String> findBarcodesByProductId(Integer productId);
+        @Select("<script>" +
+                "SELECT id, name, price, cost_price as costPrice, image_url as imageUrl, brand, specification, manufacturer, category, note FROM products " +
+                "<where>" +
+                "<if test='afterId != null'>id &lt; #{afterId}</if>" +
+                "<if test='keyword != null'> AND (name LIKE CONCAT('%', #{keyword}, '%') " +
+                "OR brand LIKE CONCAT('%', #{keyword}, '%') " +
+                "OR category LIKE CONCAT('%', #{keyword}, '%'))</if>" +
+                "</where>" +
+                "ORDER BY id DESC" +
+                "<if test='limit != null'> LIMIT #{limit}</if>" +
+                "</script>")
+        List<Product> findPage(@Param("afterId") Integer afterId, @Param("limit") Integer limit, @Param("keyword") String keyword);
+
+        // 一批商品的全部条码，每行只填 id 和 barcode
+        @Select("<script>" +
+                "SELECT product_id as id, barcode FROM product_barcodes WHERE product_id IN " +
+                "<foreach collection='productIds' item='pid' open='(' separator=',' close=')'>#{pid}</foreach>" +
+                "</script>")
+        List<Product> findBarcodesByProductIds(@Param("productIds") List<Integer> productIds);
 
         @Delete("DELETE FROM products WHERE id = #{id}")
         void deleteProduct(Integer id);
 
-        @Update("UPDATE products SET name = #{name}, price = #{price} WHERE id = #{id}, cost_price = #{costPrice} WHERE id = #{id}")
+        @Update("UPDATE products SET name = #{name}, price = #{price}, cost_price = #{costPrice} WHERE id = #{id}")
         void updateProduct(Product product);
 
+        @Select("SELECT id FROM products WHERE image_url = #{imageUrl}")
+        List<Integer> findIdsByImageUrl(String imageUrl);
+
+        @Update("UPDATE products SET image_url = #{localUrl} WHERE image_url = #{remoteUrl}")
+        void replaceImageUrl(@Param("remoteUrl") String remoteUrl, @Param("localUrl") String localUrl);
+
         // 5. 销量统计报表
         @Select("SELECT SUM(oi.quantity) FROM order_items oi JOIN product_barcodes pb ON oi.barcode = pb.barcode WHERE pb.product_id = #{productId}")
+        @ReportingQuery
         Integer getTotalSalesByProductId(Integer productId);
 
-        @Select("SELECT SUM(oi.quantity) FROM order_items oi JOIN product_barcodes pb ON oi.barcode = pb.barcode JOIN orders o ON oi.order_id = o.id WHERE pb.product_id = #{productId} AND DATE(o.create_time) = CURDATE()")
-        Integer getTodaySalesByProductId(Integer productId);
+        // 时间范围 [from, to) 由调用方按应用时区算好传进来，和内存里的销售桶口径一致
+        @Select("SELECT SUM(oi.quantity) FROM order_items oi JOIN product_barcodes pb ON oi.barcode = pb.barcode JOIN orders o ON oi.order_id = o.id WHERE pb.product_id = #{productId} AND o.create_time >= #{from} AND o.create_time < #{to}")
+        @ReportingQuery
+        Integer getTodaySalesByProductId(@Param("productId") Integer productId, @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,17 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+
+/**
+ * 第三方条码库查询。默认实现是 {@link ShowApiProductLookup}，
+ * 测试时可以换成指向本地假服务器的实现。
+ */
+public interface ProductLookup {
+
+    /**
+     * 按条码查询商品资料，云端没有记录时返回 null。
+     * 返回的 imageUrl 是云端原图地址，由调用方决定要不要下载到本地。
+     * 网络错误、超时等直接抛异常，调用方不会把异常当成“查无此码”缓存起来。
+     */
+    Product lookup(String barcode) throws Exception;
+}
@@ -0,0 +1,672 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import com.example.lkpos.ProductController.ProductMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品搜索（输入联想）用的内存 n-gram 倒排索引。
+ *
+ * 名称、品牌、厂家、分类、规格统一转成小写半角，每个字、每两个相邻字各是一个 gram，
+ * gram -> 含有它的商品（按文档号排好序，并标明出现在名称开头、名称里还是其他字段）。
+ * 一两个字的查询词本身就是 gram，查表即可；更长的词取倒排表最短的 bigram 作候选，再核对是否真的包含，
+ * 所以中文按字、英文数字按字符都能做子串匹配，“乐 330”这种多个词之间是“且”的关系。
+ * 名称和品牌另外存一份拼音首字母（“可口可乐” -> “kkkl”），纯字母的查询也会去匹配首字母。
+ *
+ * 拼音首字母按 GB2312 一级汉字的拼音顺序推出来，不依赖外部词库；二级汉字（生僻字）没有首字母，
+ * 只能按汉字本身搜。
+ * 启动时全量构建，之后随商品增删改、批量导入在事务提交后增量更新，查询不查库。
+ * 构建失败时每隔 lkpos.search.rebuild-retry 重试一次，成功后搜索自动恢复。
+ * 和条码索引一样，全量构建期间提交了改动的商品会被记下来，读完表再重读一遍才发布，不会被旧数据盖掉。
+ */
+@Component
+public class ProductSearch {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearch.class);
+
+    static final int MAX_LIMIT = 50;
+
+    // 首字母 gram 和正文 gram 放在同一张表里，用前缀区分
+    private static final char INITIALS_PREFIX = '\u0001';
+
+    // GB2312 一级汉字按拼音排序，每个声母对应一段编码区间
+    private static final int[] GB2312_BOUNDARIES = {
+            0xB0A1, 0xB0C5, 0xB2C1, 0xB4EE, 0xB6EA, 0xB7A2, 0xB8C1, 0xB9FE, 0xBBF7, 0xBFA6, 0xC0AC, 0xC2E8,
+            0xC4C3, 0xC5B6, 0xC5BE, 0xC6DA, 0xC8BB, 0xC8F6, 0xCBFA, 0xCDDA, 0xCEF4, 0xD1B9, 0xD4D1, 0xD7FA};
+    private static final char[] INITIALS = "abcdefghjklmnopqrstwxyz".toCharArray();
+    private static final Charset GB2312 = Charset.forName("GB2312");
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Value("${lkpos.search.rebuild-retry:5s}")
+    private Duration rebuildRetry;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // gram 出现在哪些字段
+    private static final int NAME_START = 1;
+    private static final int NAME = 2;
+    private static final int OTHER = 4;
+
+    // 文档号 -> 商品；改过或删掉的商品原来的位置留空，新版本追加到末尾
+    private Doc[] docs = new Doc[1024];
+    private int[] nameLengths = new int[1024];
+    private int[] productIds = new int[1024];
+    private int docCount;
+    private final Map<Integer, Integer> docNoById = new HashMap<>();
+    private final Map<String, Posting> postings = new HashMap<>();
+
+    private volatile boolean ready = false;
+
+    // 全量构建期间提交了改动的商品 ID，只在写锁里读写；不在构建时为 null
+    private Set<Integer> changedDuringLoad;
+
+    // 同一时间只跑一次全量构建，只用来互斥，不和索引的读写锁嵌套
+    private final Object loadLock = new Object();
+
+    private RebuildRetry retry;
+
+    @PostConstruct
+    public void start() {
+        retry = new RebuildRetry("商品搜索索引构建", "product-search-rebuild", rebuildRetry, this::reload);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retry.shutdown();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("⚠️ 商品搜索索引构建失败，搜索暂不可用", e);
+            retry.schedule();
+        }
+    }
+
+    /** 全量重建；读表时不拿锁，商品照常增删改、照常搜索 */
+    public void reload() {
+        synchronized (loadLock) {
+            lock.writeLock().lock();
+            try {
+                changedDuringLoad = new HashSet<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                List<Product> products = productMapper.findPage(null, null, null);
+                attachBarcodes(products);
+                Map<Integer, Product> byId = new LinkedHashMap<>(Math.max(16, products.size() * 4 / 3 + 1));
+                for (Product p : products) {
+                    byId.put(p.id, p);
+                }
+                while (true) {
+                    List<Integer> changed;
+                    lock.writeLock().lock();
+                    try {
+                        if (changedDuringLoad.isEmpty()) {
+                            rebuild(byId.values());
+                            ready = true;
+                            changedDuringLoad = null;
+                            break;
+                        }
+                        changed = new ArrayList<>(changedDuringLoad);
+                        changedDuringLoad.clear();
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    // 这些商品的改动已经提交了，重读一遍就是最新的；查不到的是被删掉了
+                    for (Integer id : changed) {
+                        byId.remove(id);
+                    }
+                    for (int from = 0; from < changed.size(); from += ProductController.BARCODE_QUERY_CHUNK) {
+                        List<Product> rows = productMapper.findByIds(changed.subList(from, Math.min(from + ProductController.BARCODE_QUERY_CHUNK, changed.size())));
+                        attachBarcodes(rows);
+                        for (Product p : rows) {
+                            byId.put(p.id, p);
+                        }
+                    }
+                }
+                log.info("✅ 商品搜索索引构建完成，{} 个商品，{} 个 gram", byId.size(), postings.size());
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    changedDuringLoad = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    // 调用方持有写锁
+    private void rebuild(Collection<Product> products) {
+        int capacity = Math.max(1024, products.size() * 2);
+        docs = new Doc[capacity];
+        nameLengths = new int[capacity];
+        productIds = new int[capacity];
+        docCount = 0;
+        docNoById.clear();
+        postings.clear();
+        for (Product p : products) {
+            put(p);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 某个商品新增、修改或删除了：在当前事务里读出它的最新信息，事务提交后再更新索引。
+     * 删除之后查不到，相当于从索引里摘掉。
+     */
+    public void refreshProduct(Integer productId) {
+        if (productId == null) {
+            return;
+        }
+        List<Product> rows = productMapper.findByIds(List.of(productId));
+        attachBarcodes(rows);
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                if (changedDuringLoad != null) {
+                    changedDuringLoad.add(productId);
+                }
+                remove(productId);
+                for (Product p : rows) {
+                    put(p);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /** 批量导入的新商品（带好 id 和条码），事务提交后一次加进索引 */
+    public void addProducts(Collection<Product> products) {
+        if (products.isEmpty()) {
+            return;
+        }
+        List<Product> copies = new ArrayList<>(products.size());
+        for (Product p : products) {
+            copies.add(p.copy());
+        }
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                for (Product p : copies) {
+                    if (changedDuringLoad != null) {
+                        changedDuringLoad.add(p.id);
+                    }
+                    remove(p.id);
+                    put(p);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void attachBarcodes(List<Product> products) {
+        Map<Integer, Product> byId = new HashMap<>();
+        for (Product p : products) {
+            p.barcodes = new ArrayList<>();
+            byId.put(p.id, p);
+        }
+        List<Integer> ids = new ArrayList<>(byId.keySet());
+        for (int from = 0; from < ids.size(); from += ProductController.BARCODE_QUERY_CHUNK) {
+            for (Product row : productMapper.findBarcodesByProductIds(ids.subList(from, Math.min(from + ProductController.BARCODE_QUERY_CHUNK, ids.size())))) {
+                byId.get(row.id).barcodes.add(row.barcode);
+            }
+        }
+    }
+
+    /**
+     * 输入联想：按相关度返回前 limit 个商品。
+     * 名称开头命中最靠前，其次名称包含、拼音首字母、其他字段；同分时名称短的在前。
+     */
+    public List<Product> search(String query, int limit) {
+        List<String> words = terms(query);
+        if (words.isEmpty()) {
+            return List.of();
+        }
+        int n = Math.max(1, Math.min(limit, MAX_LIMIT));
+        TopHits top = new TopHits(n);
+        lock.readLock().lock();
+        try {
+            List<Term> terms = new ArrayList<>(words.size());
+            Term scan = null;
+            for (String word : words) {
+                Term t = new Term(word);
+                if (t.candidates() == 0) {
+                    return List.of(); // 有一个词哪儿都没有，不可能命中
+                }
+                if (scan == null || t.candidates() < scan.candidates()) {
+                    scan = t;
+                }
+                terms.add(t);
+            }
+            // 只扫候选最少的那个词的倒排表，其余词对每个候选二分查找
+            if (scan.text != null) {
+                for (int i = 0; i < scan.text.size; i++) {
+                    collect(scan.text.docs[i], scan, scan.text.masks[i], 0, terms, top);
+                }
+            }
+            if (scan.initials != null) {
+                for (int i = 0; i < scan.initials.size; i++) {
+                    int docNo = scan.initials.docs[i];
+                    if (scan.text == null || scan.text.indexOf(docNo) < 0) { // 正文表里已经算过
+                        collect(docNo, scan, 0, scan.initials.masks[i], terms, top);
+                    }
+                }
+            }
+            return top.products();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void collect(int docNo, Term scan, int textMask, int initialsMask, List<Term> terms, TopHits top) {
+        Doc doc = docs[docNo];
+        if (doc == null) {
+            return;
+        }
+        int total = 0;
+        for (Term t : terms) {
+            int s;
+            if (t != scan) {
+                s = t.score(doc, docNo);
+            } else if (initialsMask == 0 && t.initials != null) {
+                s = t.score(doc, textMask, t.initials.maskOf(docNo)); // 从正文表扫到的，首字母表里可能也有
+            } else {
+                s = t.score(doc, textMask, initialsMask);
+            }
+            if (s == 0) {
+                return;
+            }
+            total += s;
+        }
+        top.offer(docNo, total);
+    }
+
+    // 一个查询词：一两个字的词，它本身就是一个 gram，倒排表上的字段标记就是答案；
+    // 更长的词取最稀有的那个 bigram 作候选，再按标记只去核对可能命中的字段
+    private class Term {
+        final String word;
+        final boolean exact;
+        final Posting text;
+        final Posting initials;
+
+        Term(String word) {
+            this.word = word;
+            this.exact = word.length() <= 2;
+            this.text = rarest(word, "");
+            this.initials = isLetters(word) ? rarest(word, String.valueOf(INITIALS_PREFIX)) : null;
+        }
+
+        int candidates() {
+            return (text == null ? 0 : text.size) + (initials == null ? 0 : initials.size);
+        }
+
+        int score(Doc doc, int docNo) {
+            return score(doc, text == null ? 0 : text.maskOf(docNo), initials == null ? 0 : initials.maskOf(docNo));
+        }
+
+        // textMask / initialsMask 是候选 gram 在这个商品上的字段标记，扫描的那个词直接用扫到的，其余二分查找
+        int score(Doc doc, int textMask, int initialsMask) {
+            if (exact) {
+                if ((textMask & NAME_START) != 0) return 100;
+                if ((textMask & NAME) != 0) return 60;
+                if ((initialsMask & NAME_START) != 0) return 50;
+                if ((initialsMask & NAME) != 0) return 30;
+                if ((textMask & OTHER) != 0) return 20;
+                return 0;
+            }
+            if ((textMask & NAME) != 0) {
+                int at = doc.name.indexOf(word);
+                if (at == 0) return 100;
+                if (at > 0) return 60;
+            }
+            if ((initialsMask & NAME) != 0) {
+                int at = doc.initials.indexOf(word);
+                if (at == 0) return 50;
+                if (at > 0) return 30;
+            }
+            if ((textMask & OTHER) != 0 && doc.other.contains(word)) {
+                return 20;
+            }
+            return 0;
+        }
+
+        private Posting rarest(String word, String prefix) {
+            if (word.length() == 1) {
+                return postings.get(prefix + word);
+            }
+            Posting shortest = null;
+            for (int i = 0; i + 2 <= word.length(); i++) {
+                Posting p = postings.get(prefix + word.substring(i, i + 2));
+                if (p == null) {
+                    return null;
+                }
+                if (shortest == null || p.size < shortest.size) {
+                    shortest = p;
+                }
+            }
+            return shortest;
+        }
+    }
+
+    private void put(Product p) {
+        Doc doc = new Doc(p);
+        if (docCount == docs.length) {
+            docs = Arrays.copyOf(docs, docCount * 2);
+            nameLengths = Arrays.copyOf(nameLengths, docCount * 2);
+            productIds = Arrays.copyOf(productIds, docCount * 2);
+        }
+        int docNo = docCount++;
+        docs[docNo] = doc;
+        nameLengths[docNo] = doc.name.length();
+        productIds[docNo] = p.id;
+        docNoById.put(p.id, docNo);
+        // 文档号只增不减，追加到倒排表末尾就保持有序
+        grams(doc).forEach((gram, mask) -> postings.computeIfAbsent(gram, g -> new Posting()).add(docNo, mask));
+    }
+
+    private void remove(Integer id) {
+        Integer docNo = docNoById.remove(id);
+        if (docNo == null) {
+            return;
+        }
+        for (String gram : grams(docs[docNo]).keySet()) {
+            Posting p = postings.get(gram);
+            if (p != null) {
+                p.remove(docNo);
+                if (p.size == 0) {
+                    postings.remove(gram);
+                }
+            }
+        }
+        docs[docNo] = null; // 空位留到下次全量重建时再收拢
+    }
+
+    // 一个商品的全部 gram 及其出现在哪些字段：正文里每个字、每两个相邻字；首字母同理，加前缀
+    private static Map<String, Integer> grams(Doc doc) {
+        Map<String, Integer> grams = new HashMap<>();
+        addGrams(doc.name, "", NAME, grams);
+        addGrams(doc.other, "", OTHER, grams);
+        addGrams(doc.initials, String.valueOf(INITIALS_PREFIX), NAME, grams);
+        return grams;
+    }
+
+    private static void addGrams(String text, String prefix, int field, Map<String, Integer> grams) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                continue;
+            }
+            int mask = field == NAME && i == 0 ? NAME | NAME_START : field;
+            grams.merge(prefix + c, mask, (a, b) -> a | b);
+            if (i + 1 < text.length() && Character.isLetterOrDigit(text.charAt(i + 1))) {
+                grams.merge(prefix + text.substring(i, i + 2), mask, (a, b) -> a | b);
+            }
+        }
+    }
+
+    // 查询拆词：按空格标点切开，和建索引时一样转小写半角
+    static List<String> terms(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        for (char c : normalize(query).toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                term.append(c);
+            } else if (!term.isEmpty()) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (!term.isEmpty()) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isLetters(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 拼音首字母：汉字换成声母，英文数字保留，其余（含生僻字）当作分隔 */
+    static String initials(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : normalize(text).toCharArray()) {
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                sb.append(c);
+            } else {
+                char initial = initialOf(c);
+                sb.append(initial == 0 ? ' ' : initial);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static char initialOf(char c) {
+        if (Character.UnicodeScript.of(c) != Character.UnicodeScript.HAN) {
+            return 0;
+        }
+        byte[] gb = String.valueOf(c).getBytes(GB2312);
+        if (gb.length != 2) {
+            return 0;
+        }
+        int code = ((gb[0] & 0xFF) << 8) | (gb[1] & 0xFF);
+        for (int i = 0; i < INITIALS.length; i++) {
+            if (code >= GB2312_BOUNDARIES[i] && code < GB2312_BOUNDARIES[i + 1]) {
+                return INITIALS[i];
+            }
+        }
+        return 0;
+    }
+
+    // 前 n 名：小顶堆，堆顶是目前最差的一个。比较只用并排的基本类型数组，
+    // 比堆顶还差的候选（绝大多数）连商品对象都不用碰
+    private class TopHits {
+        final int[] hits;
+        final int[] scores;
+        int size;
+
+        TopHits(int n) {
+            this.hits = new int[n];
+            this.scores = new int[n];
+        }
+
+        void offer(int docNo, int score) {
+            if (size == hits.length) {
+                if (!better(docNo, score, hits[0], scores[0])) {
+                    return;
+                }
+                hits[0] = docNo;
+                scores[0] = score;
+                siftDown(0);
+            } else {
+                hits[size] = docNo;
+                scores[size] = score;
+                siftUp(size++);
+            }
+        }
+
+        // 分数高的好；同分时名称短的好；再同就商品 ID 小的好
+        private boolean better(int a, int aScore, int b, int bScore) {
+            if (aScore != bScore) {
+                return aScore > bScore;
+            }
+            if (nameLengths[a] != nameLengths[b]) {
+                return nameLengths[a] < nameLengths[b];
+            }
+            return productIds[a] < productIds[b];
+        }
+
+        private boolean worse(int i, int j) {
+            return better(hits[j], scores[j], hits[i], scores[i]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(i, parent)) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int worst = i;
+                int l = 2 * i + 1;
+                int r = l + 1;
+                if (l < size && worse(l, worst)) {
+                    worst = l;
+                }
+                if (r < size && worse(r, worst)) {
+                    worst = r;
+                }
+                if (worst == i) {
+                    return;
+                }
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int d = hits[i];
+            hits[i] = hits[j];
+            hits[j] = d;
+            int s = scores[i];
+            scores[i] = scores[j];
+            scores[j] = s;
+        }
+
+        // 从好到差输出
+        List<Product> products() {
+            List<Product> result = new ArrayList<>(size);
+            while (size > 0) {
+                Product p = docs[hits[0]].product.copy();
+                if (p.barcodes != null && !p.barcodes.isEmpty()) {
+                    p.barcode = p.barcodes.get(0); // 收银台点选后直接按这个条码加入购物车
+                }
+                result.add(p);
+                swap(0, --size);
+                siftDown(0);
+            }
+            Collections.reverse(result);
+            return result;
+        }
+    }
+
+    // 索引里的一个商品：原始信息 + 预先算好的小写名称、其他字段和首字母
+    private static class Doc {
+        final Product product;
+        final String name;
+        final String other;
+        final String initials;
+
+        Doc(Product p) {
+            this.product = p;
+            this.name = normalize(p.name);
+            this.other = String.join(" ", normalize(p.brand), normalize(p.manufacturer),
+                    normalize(p.category), normalize(p.specification));
+            this.initials = initials(p.name) + " " + initials(p.brand);
+        }
+    }
+
+    // 倒排表：按文档号升序的 int 数组，附带每个商品上这个 gram 出现在哪些字段
+    private static class Posting {
+        int[] docs = new int[4];
+        byte[] masks = new byte[4];
+        int size;
+
+        void add(int docNo, int mask) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                masks = Arrays.copyOf(masks, size * 2);
+            }
+            docs[size] = docNo;
+            masks[size++] = (byte) mask;
+        }
+
+        int indexOf(int docNo) {
+            return Arrays.binarySearch(docs, 0, size, docNo);
+        }
+
+        int maskOf(int docNo) {
+            int i = indexOf(docNo);
+            return i < 0 ? 0 : masks[i];
+        }
+
+        void remove(int docNo) {
+            int i = indexOf(docNo);
+            if (i >= 0) {
+                System.arraycopy(docs, i + 1, docs, i, size - i - 1);
+                System.arraycopy(masks, i + 1, masks, i, size - i - 1);
+                size--;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.lkpos;
+
+import com.example.lkpos.DataSourceConfig.Route;
+import com.example.lkpos.DataSourceConfig.RoutingDataSource;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读写分离：标了 {@link ReportingQuery} 的 Mapper 语句在报表连接池上执行，其余语句都走主库。
+ *
+ * 语句执行前按 MappedStatement 的 ID（接口全名.方法名）找到 Mapper 方法，看方法或接口上有没有注解，
+ * 结果按语句缓存；有注解就在 {@link RoutingDataSource#onReporting} 里执行，这期间拿的连接来自报表池。
+ *
+ * 报表池连的是从库时，每隔 lkpos.reporting.heartbeat-interval 往主库的 replication_heartbeat 写一次当前时间，
+ * 再从从库读回来：从库上的时间比现在落后超过 lkpos.reporting.max-lag（或者从库连不上），
+ * 报表查询临时改走主库，追上之后自动切回去。
+ */
+@Component
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor", args = {MappedStatement.class, Object.class, RowBounds.class})
+})
+public class ReadRouting implements Interceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadRouting.class);
+
+    @Autowired
+    private RoutingDataSource routingDataSource;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primaryDataSource;
+
+    @Autowired
+    @Qualifier("reportingDataSource")
+    private DataSource reportingDataSource;
+
+    @Autowired
+    private SchemaMigrations schemaMigrations;
+
+    @Value("${lkpos.reporting.max-lag:5s}")
+    private Duration maxLag;
+
+    @Value("${lkpos.reporting.heartbeat-interval:1s}")
+    private Duration heartbeatInterval;
+
+    // 语句 ID -> 是否走报表库
+    private final Map<String, Boolean> reportingStatements = new ConcurrentHashMap<>();
+
+    // 最近一次测到的从库延迟（毫秒），-1 表示从库不可用
+    private volatile long lastLagMillis = -1;
+
+    private ScheduledExecutorService heartbeat;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!routingDataSource.isReplica()) {
+            log.info("✅ 报表查询使用独立连接池（连主库）");
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long millis = Math.max(1, heartbeatInterval.toMillis());
+        heartbeat.scheduleWithFixedDelay(this::checkQuietly, 0, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        if (!reportingStatements.computeIfAbsent(ms.getId(), ReadRouting::isReportingStatement)) {
+            return invocation.proceed();
+        }
+        Route previous = RoutingDataSource.use(Route.REPORTING);
+        try {
+            return invocation.proceed();
+        } finally {
+            RoutingDataSource.restore(previous);
+        }
+    }
+
+    // 语句 ID 形如 com.example.lkpos.StatsController$StatsMapper.getTodayStats
+    static boolean isReportingStatement(String statementId) {
+        int dot = statementId.lastIndexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        try {
+            Class<?> mapper = Class.forName(statementId.substring(0, dot), false, ReadRouting.class.getClassLoader());
+            if (mapper.isAnnotationPresent(ReportingQuery.class)) {
+                return true;
+            }
+            String name = statementId.substring(dot + 1);
+            for (Method m : mapper.getMethods()) {
+                if (m.getName().equals(name) && m.isAnnotationPresent(ReportingQuery.class)) {
+                    return true;
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            // XML 里定义的语句、selectKey 之类，没有对应的接口方法
+        }
+        return false;
+    }
+
+    /** 最近一次测到的从库延迟，-1 表示从库不可用；报表池连主库时恒为 0 */
+    public long lagMillis() {
+        return routingDataSource.isReplica() ? lastLagMillis : 0;
+    }
+
+    private void checkQuietly() {
+        try {
+            checkLag();
+        } catch (Exception e) {
+            // 主库写不了心跳时不动当前状态，等下一轮
+            log.warn("⚠️ 从库心跳失败：{}", e.getMessage());
+        }
+    }
+
+    /** 写一次心跳并测一次从库延迟，据此决定报表查询走不走从库 */
+    void checkLag() {
+        schemaMigrations.migrate();
+        long now = System.currentTimeMillis();
+        new JdbcTemplate(primaryDataSource).update("UPDATE replication_heartbeat SET beat_at = ? WHERE id = 1", now);
+        long lag;
+        try {
+            Long beat = new JdbcTemplate(reportingDataSource).queryForObject(
+                    "SELECT beat_at FROM replication_heartbeat WHERE id = 1", Long.class);
+            lag = beat == null ? -1 : Math.max(0, now - beat);
+        } catch (Exception e) {
+            lag = -1;
+        }
+        lastLagMillis = lag;
+        boolean usable = lag >= 0 && lag <= maxLag.toMillis();
+        if (usable != routingDataSource.isReplicaUsable()) {
+            routingDataSource.setReplicaUsable(usable);
+            if (usable) {
+                log.info("✅ 报表从库已追上主库（延迟 {} ms），报表查询切回从库", lag);
+            } else {
+                log.warn("⚠️ 报表从库{}，报表查询临时改走主库", lag < 0 ? "不可用" : "落后 " + lag + " ms");
+            }
+        }
+    }
+}
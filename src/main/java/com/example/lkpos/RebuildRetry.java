@@ -0,0 +1,67 @@
+package com.example.lkpos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻数据（看板汇总、销售时间桶……）全量重建失败之后的定时重试。
+ * 同一时间最多排一次，重试又失败就再排一次，直到成功或者应用关闭，不用等重启才能恢复。
+ * 由组件在 @PostConstruct 里创建、@PreDestroy 里 {@link #shutdown()}。
+ */
+public class RebuildRetry {
+
+    private static final Logger log = LoggerFactory.getLogger(RebuildRetry.class);
+
+    private final String what;
+    private final Duration interval;
+    private final Runnable rebuild;
+    private final ScheduledExecutorService executor;
+
+    private boolean scheduled;
+
+    /**
+     * @param what     日志里的名字，例如“销售汇总重建”
+     * @param interval 隔多久重试一次
+     * @param rebuild  全量重建，抛异常就算失败
+     */
+    public RebuildRetry(String what, String threadName, Duration interval, Runnable rebuild) {
+        this.what = what;
+        this.interval = interval;
+        this.rebuild = rebuild;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 排一次重试；已经排上了、或者应用正在关闭时什么都不做 */
+    public synchronized void schedule() {
+        if (scheduled || executor.isShutdown()) {
+            return;
+        }
+        scheduled = true;
+        executor.schedule(this::run, Math.max(1, interval.toMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run() {
+        synchronized (this) {
+            scheduled = false;
+        }
+        try {
+            rebuild.run();
+        } catch (Exception e) {
+            log.warn("⚠️ {}失败，稍后重试", what, e);
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.lkpos;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标在 Mapper 方法（或整个 Mapper 接口）上：这条查询走报表只读库，不占收银用的主库连接池。
+ * 由 {@link ReadRouting} 在执行语句前切换数据源。
+ *
+ * 只标纯展示用的统计、列表查询。下面这些不要标，必须读主库：
+ * - 写完马上要读回来的（查重、库存、目录版本、收银台结账后翻看的流水和订单明细）；
+ * - 启动时重建内存汇总的查询，从库如果落后会漏掉已经提交的订单。
+ *
+ * 已经在事务里的调用沿用事务开始时拿到的主库连接，标了也不会切换。
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReportingQuery {
+}
@@ -0,0 +1,242 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderWriter.OrderCommitted;
+import com.example.lkpos.ProductController.Product;
+import com.example.lkpos.StatsController.DailyTotalsRow;
+import com.example.lkpos.StatsController.ProductTotalsRow;
+import com.example.lkpos.StatsController.StatsMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 看板用的常驻销售汇总：按天的营业额/成本/毛利/单量，以及按商品的累计销量/毛利。
+ * 启动时从历史订单重建一次，之后每笔订单提交后增量累加，
+ * 看板刷新只读内存，不再每次四表连查整段历史。
+ * 重建在锁外另起一份汇总，建好后整体换上，重建期间提交的订单由 {@link OrderSnapshots} 补齐。
+ *
+ * 金额口径和原来的 SQL 一致：按商品档案里的售价、进价计算，对不上商品的条码不计入。
+ *
+ * 重建失败、或者条码索引还没就绪没法增量累加时，看板先回退到 SQL 统计，
+ * 每隔 lkpos.dashboard.rebuild-retry 重试一次全量重建，成功后恢复读内存。
+ */
+@Component
+public class SalesAggregates {
+
+    private static final Logger log = LoggerFactory.getLogger(SalesAggregates.class);
+
+    static final int TOP_N = 5;
+
+    @Autowired
+    private StatsMapper statsMapper;
+
+    @Autowired
+    private BarcodeIndex barcodeIndex;
+
+    @Autowired
+    private OrderSnapshots orderSnapshots;
+
+    @Value("${lkpos.dashboard.rebuild-retry:5s}")
+    private Duration rebuildRetry;
+
+    // 当前在用的汇总，只在锁里读写和整体替换
+    private Totals totals = new Totals();
+
+    private final OrderSnapshots.Catchup catchup = new OrderSnapshots.Catchup();
+
+    private volatile boolean ready = false;
+
+    private RebuildRetry retry;
+
+    @PostConstruct
+    public void start() {
+        retry = new RebuildRetry("销售汇总重建", "sales-aggregates-rebuild", rebuildRetry, () -> {
+            // 增量累加要靠条码索引查售价进价，它也没就绪的话先把它建起来
+            if (!barcodeIndex.isReady()) {
+                barcodeIndex.reload();
+            }
+            rebuild();
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retry.shutdown();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.warn("⚠️ 销售汇总重建失败，看板暂时回退到 SQL 统计", e);
+            retry.schedule();
+        }
+    }
+
+    /** 从历史订单全量重建（启动时、或者改了商品价格想让历史口径对齐时调用） */
+    public void rebuild() {
+        orderSnapshots.rebuild(this, catchup, this::load, this::add, rebuilt -> {
+            totals = rebuilt;
+            ready = true;
+            log.info("✅ 销售汇总重建完成，{} 天，{} 个商品", rebuilt.days.size(), rebuilt.products.size());
+        });
+    }
+
+    private Totals load() {
+        Totals t = new Totals();
+        for (DailyTotalsRow row : statsMapper.getDailyTotals()) {
+            DayTotals d = new DayTotals();
+            d.revenue = row.revenue;
+            d.cost = row.cost;
+            d.orderCount = row.orderCount;
+            t.days.put(row.saleDate, d);
+        }
+        for (ProductTotalsRow row : statsMapper.getProductTotals()) {
+            ProductTotals p = new ProductTotals();
+            p.productId = row.productId;
+            p.name = row.name;
+            p.imageUrl = row.imageUrl;
+            p.totalSold = row.totalSold;
+            p.totalProfit = row.totalProfit;
+            t.products.put(p.productId, p);
+        }
+        List<ProductTotals> all = new ArrayList<>(t.products.values());
+        all.sort(BY_SOLD_DESC);
+        t.top = List.copyOf(all.subList(0, Math.min(TOP_N, all.size())));
+        return t;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 🌟 订单提交之后才累加，回滚的订单不会污染看板
+    @TransactionalEventListener
+    public synchronized void onOrderCommitted(OrderCommitted event) {
+        if (event.order.id == null) {
+            return;
+        }
+        catchup.offer(event);
+        if (!ready) {
+            return;
+        }
+        if (!barcodeIndex.isReady()) {
+            // 没有条码索引就拿不到售价进价，只能放弃增量，看板回退到 SQL；
+            // 稍后全量重建，这一单和这期间的订单都会从数据库里统计进去
+            ready = false;
+            retry.schedule();
+            return;
+        }
+        add(totals, event);
+    }
+
+    private void add(Totals t, OrderCommitted event) {
+        if (!barcodeIndex.isReady()) {
+            // 重建补单时条码索引没了：这次重建作废，由调用方稍后重试
+            throw new IllegalStateException("条码索引未就绪，无法累加订单 " + event.order.id);
+        }
+        DayTotals day = t.days.computeIfAbsent(event.time.toLocalDate(), d -> new DayTotals());
+        boolean counted = false;
+        for (OrderItem item : event.items) {
+            Product product = barcodeIndex.lookup(item.barcode);
+            if (product == null) {
+                continue;
+            }
+            counted = true;
+            day.revenue += item.quantity * product.price;
+            day.cost += item.quantity * product.costPrice;
+
+            ProductTotals p = t.products.computeIfAbsent(product.id, id -> new ProductTotals());
+            p.productId = product.id;
+            p.name = product.name;
+            p.imageUrl = product.imageUrl;
+            p.totalSold += item.quantity;
+            p.totalProfit += item.quantity * (product.price - product.costPrice);
+            t.updateTop(p);
+        }
+        if (counted) {
+            day.orderCount++;
+        }
+    }
+
+    /** 某天的核心财务数据，字段名和看板原来的 SQL 结果保持一致 */
+    public synchronized Map<String, Object> dayStats(LocalDate date) {
+        DayTotals d = totals.days.get(date);
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("revenue", d == null ? 0.0 : d.revenue);
+        stats.put("cost", d == null ? 0.0 : d.cost);
+        stats.put("profit", d == null ? 0.0 : d.revenue - d.cost);
+        stats.put("orderCount", d == null ? 0 : d.orderCount);
+        return stats;
+    }
+
+    /** 热销榜，字段名和 getTopProducts 保持一致 */
+    public synchronized List<Map<String, Object>> topProducts() {
+        List<Map<String, Object>> list = new ArrayList<>(totals.top.size());
+        for (ProductTotals p : totals.top) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", p.name);
+            row.put("imageUrl", p.imageUrl);
+            row.put("totalSold", p.totalSold);
+            row.put("totalProfit", p.totalProfit);
+            list.add(row);
+        }
+        return list;
+    }
+
+    // 销量相同按商品 ID，增量维护和全量重建排出来的榜单才会一样
+    private static final Comparator<ProductTotals> BY_SOLD_DESC =
+            Comparator.comparingLong((ProductTotals p) -> p.totalSold).reversed().thenComparingInt(p -> p.productId);
+
+    private static class Totals {
+        final Map<LocalDate, DayTotals> days = new HashMap<>();
+        final Map<Integer, ProductTotals> products = new HashMap<>();
+
+        // 销量前 N 名，按销量降序；销量只增不减，所以每次只需要拿被更新的商品和它比一比
+        List<ProductTotals> top = List.of();
+
+        void updateTop(ProductTotals changed) {
+            if (top.size() == TOP_N && !top.contains(changed)
+                    && BY_SOLD_DESC.compare(changed, top.get(TOP_N - 1)) > 0) {
+                return;
+            }
+            List<ProductTotals> next = new ArrayList<>(top);
+            if (!next.contains(changed)) {
+                next.add(changed);
+            }
+            next.sort(BY_SOLD_DESC);
+            top = List.copyOf(next.subList(0, Math.min(TOP_N, next.size())));
+        }
+    }
+
+    private static class DayTotals {
+        double revenue;
+        double cost;
+        long orderCount;
+    }
+
+    private static class ProductTotals {
+        int productId;
+        String name;
+        String imageUrl;
+        long totalSold;
+        double totalProfit;
+    }
+}
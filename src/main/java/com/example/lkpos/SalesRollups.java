@@ -0,0 +1,343 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderWriter.OrderCommitted;
+import com.example.lkpos.ProductController.Product;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * 按小时、按天预聚合的销售桶（总量 + 每个商品），
+ * 用来回答“上周每小时卖了多少”“这个月某商品每天卖了多少”之类的时间序列查询。
+ * 启动时从 order_items 回填，之后每笔订单提交后增量累加；查询只遍历时间范围内的桶。
+ * 回填在锁外另建一套桶，建好后整体换上，回填期间提交的订单由 {@link OrderSnapshots} 补齐。
+ *
+ * 天桶保留全部历史；小时桶只保留最近 lkpos.rollups.hour-retention（按整天算），
+ * 更早的小时桶随新订单到来被淘汰，查那段时间的小时线时直接查库。
+ *
+ * 金额按明细里的实际成交价计算；条码对不上商品的明细只计入总量，不计入任何商品。
+ * 增量累加靠条码索引把条码对到商品，索引没就绪时这一单没法归到商品，
+ * 就先停用内存桶（和回填失败一样），每隔 lkpos.rollups.rebuild-retry 重试一次全量回填，商品归属由 SQL 算。
+ */
+@Component
+public class SalesRollups {
+
+    private static final Logger log = LoggerFactory.getLogger(SalesRollups.class);
+
+    public enum Granularity {
+        HOUR(ChronoUnit.HOURS), DAY(ChronoUnit.DAYS);
+
+        final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        LocalDateTime truncate(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+    }
+
+    // 单次查询最多返回多少个点，防止有人一口气要三年的小时线
+    static final int MAX_POINTS = 10_000;
+
+    @Autowired
+    private RollupMapper rollupMapper;
+
+    @Autowired
+    private BarcodeIndex barcodeIndex;
+
+    @Autowired
+    private OrderSnapshots orderSnapshots;
+
+    @Value("${lkpos.rollups.hour-retention:90d}")
+    private Duration hourRetention;
+
+    @Value("${lkpos.rollups.rebuild-retry:5s}")
+    private Duration rebuildRetry;
+
+    // 当前在用的桶，只在锁里读写和整体替换
+    private Rollup rollup = new Rollup();
+
+    private final OrderSnapshots.Catchup catchup = new OrderSnapshots.Catchup();
+
+    private volatile boolean ready = false;
+
+    private RebuildRetry retry;
+
+    @PostConstruct
+    public void start() {
+        retry = new RebuildRetry("销售时间桶回填", "sales-rollups-backfill", rebuildRetry, () -> {
+            // 补录回填期间提交的订单要靠条码索引对商品，它也没就绪的话先把它建起来
+            if (!barcodeIndex.isReady()) {
+                barcodeIndex.reload();
+            }
+            backfill();
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retry.shutdown();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            backfill();
+        } catch (Exception e) {
+            log.warn("⚠️ 销售时间桶回填失败，时间序列查询暂不可用", e);
+            retry.schedule();
+        }
+    }
+
+    /** 从 order_items 全量回填小时桶和天桶 */
+    public void backfill() {
+        orderSnapshots.rebuild(this, catchup, this::load, this::add, loaded -> {
+            rollup = loaded;
+            ready = true;
+            log.info("✅ 销售时间桶回填完成，{} 个小时桶，{} 个天桶", loaded.hours.size(), loaded.days.size());
+        });
+    }
+
+    private Rollup load() {
+        Rollup r = new Rollup();
+        for (HourlySalesRow row : rollupMapper.getDailyProductSales()) {
+            bucket(r.days, row.saleDate.atStartOfDay()).add(row.productId, row.units, row.revenue);
+        }
+        for (HourlySalesRow row : rollupMapper.getHourlyProductSales(hourCutoff())) {
+            bucket(r.hours, row.saleDate.atTime(row.saleHour, 0)).add(row.productId, row.units, row.revenue);
+        }
+        return r;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 小时桶的保留起点：早于它的小时线不在内存里
+    private LocalDateTime hourCutoff() {
+        return Granularity.DAY.truncate(LocalDateTime.now().minus(hourRetention));
+    }
+
+    /** 内存里的小时桶个数 */
+    synchronized int hourBucketCount() {
+        return rollup.hours.size();
+    }
+
+    @TransactionalEventListener
+    public synchronized void onOrderCommitted(OrderCommitted event) {
+        if (event.order.id == null) {
+            return;
+        }
+        catchup.offer(event);
+        if (!ready) {
+            return;
+        }
+        if (!barcodeIndex.isReady()) {
+            // 对不上商品就只能记进总量、商品桶永远少这一单；宁可先停用，稍后全量回填由 SQL 归属商品
+            ready = false;
+            retry.schedule();
+            return;
+        }
+        add(rollup, event);
+    }
+
+    private void add(Rollup r, OrderCommitted event) {
+        if (!barcodeIndex.isReady()) {
+            // 回填补单时条码索引没了：这次回填作废，由调用方稍后重试
+            throw new IllegalStateException("条码索引未就绪，无法累加订单 " + event.order.id);
+        }
+        LocalDateTime cutoff = hourCutoff();
+        r.hours.headMap(cutoff, false).clear();
+        LocalDateTime hour = Granularity.HOUR.truncate(event.time);
+        // 补录进来的老订单只进天桶
+        Bucket hourBucket = hour.isBefore(cutoff) ? null : bucket(r.hours, hour);
+        Bucket dayBucket = bucket(r.days, Granularity.DAY.truncate(hour));
+        for (OrderItem item : event.items) {
+            Product product = barcodeIndex.lookup(item.barcode);
+            Integer productId = product == null ? null : product.id;
+            if (hourBucket != null) {
+                hourBucket.add(productId, item.quantity, item.quantity * item.price);
+            }
+            dayBucket.add(productId, item.quantity, item.quantity * item.price);
+        }
+    }
+
+    private static Bucket bucket(NavigableMap<LocalDateTime, Bucket> buckets, LocalDateTime time) {
+        return buckets.computeIfAbsent(time, t -> new Bucket());
+    }
+
+    /**
+     * 半开区间 [from, to) 内的时间序列，没有销售的桶补 0，方便前端直接画图。
+     * productId 为空时返回全店总量。
+     */
+    public List<Map<String, Object>> series(Granularity granularity, LocalDateTime from,
+                                            LocalDateTime to, Integer productId) {
+        LocalDateTime start = granularity.truncate(from);
+        if (start.plus(MAX_POINTS, granularity.unit).isBefore(to)) {
+            throw new IllegalArgumentException("时间范围过大，最多 " + MAX_POINTS + " 个点");
+        }
+        Map<LocalDateTime, ProductSlot> values = new HashMap<>();
+        LocalDateTime inMemoryFrom = start;
+        if (granularity == Granularity.HOUR) {
+            // 超出保留期的那一段小时线查库（不持锁）
+            LocalDateTime cutoff = hourCutoff();
+            if (start.isBefore(cutoff)) {
+                LocalDateTime sqlTo = to.isBefore(cutoff) ? to : cutoff;
+                for (HourlySalesRow row : rollupMapper.getHourlySales(start, sqlTo, productId)) {
+                    values.put(row.saleDate.atTime(row.saleHour, 0), new ProductSlot(row.units, row.revenue));
+                }
+                inMemoryFrom = cutoff;
+            }
+        }
+        synchronized (this) {
+            if (inMemoryFrom.isBefore(to)) {
+                NavigableMap<LocalDateTime, Bucket> buckets = granularity == Granularity.HOUR ? rollup.hours : rollup.days;
+                buckets.subMap(inMemoryFrom, true, to, false).forEach((t, bucket) -> {
+                    // 拷贝一份，出了锁之后桶还会被继续累加
+                    ProductSlot slot = productId == null ? bucket.total() : bucket.products.get(productId);
+                    if (slot != null) {
+                        values.put(t, new ProductSlot(slot.units, slot.revenue));
+                    }
+                });
+            }
+        }
+        List<Map<String, Object>> points = new ArrayList<>();
+        for (LocalDateTime t = start; t.isBefore(to); t = t.plus(1, granularity.unit)) {
+            ProductSlot slot = values.get(t);
+            long units = slot == null ? 0 : slot.units;
+            double revenue = slot == null ? 0 : slot.revenue;
+            Map<String, Object> point = new HashMap<>();
+            point.put("time", t.toString());
+            point.put("units", units);
+            point.put("revenue", revenue);
+            points.add(point);
+        }
+        return points;
+    }
+
+    /** 某个商品在 [from, to) 内按天桶累计的销量 */
+    public synchronized long unitsSold(Integer productId, LocalDateTime from, LocalDateTime to) {
+        long units = 0;
+        for (Bucket bucket : rollup.days.subMap(from, true, to, false).values()) {
+            ProductSlot slot = bucket.products.get(productId);
+            if (slot != null) {
+                units += slot.units;
+            }
+        }
+        return units;
+    }
+
+    private static class Rollup {
+        final NavigableMap<LocalDateTime, Bucket> hours = new TreeMap<>();
+        final NavigableMap<LocalDateTime, Bucket> days = new TreeMap<>();
+    }
+
+    private static class Bucket {
+        long units;
+        double revenue;
+        final Map<Integer, ProductSlot> products = new HashMap<>();
+
+        ProductSlot total() {
+            return new ProductSlot(units, revenue);
+        }
+
+        void add(Integer productId, long units, double revenue) {
+            this.units += units;
+            this.revenue += revenue;
+            if (productId != null) {
+                ProductSlot slot = products.computeIfAbsent(productId, id -> new ProductSlot());
+                slot.units += units;
+                slot.revenue += revenue;
+            }
+        }
+    }
+
+    private static class ProductSlot {
+        long units;
+        double revenue;
+
+        ProductSlot() {
+        }
+
+        ProductSlot(long units, double revenue) {
+            this.units = units;
+            this.revenue = revenue;
+        }
+    }
+
+    @Mapper
+    public interface RollupMapper {
+
+        // 按“日期 + 商品”分组回填天桶（saleHour 不用）；条码对不上商品时 productId 为空。
+        // 只用 CAST / HOUR 这种各家都有的函数，测试和基准用的内存库也能跑。
+        // 回填用的两条都在 OrderSnapshots 的快照事务里执行，读主库
+        @Select("SELECT CAST(o.create_time AS DATE) AS saleDate, " +
+                "pb.product_id AS productId, " +
+                "SUM(oi.quantity) AS units, " +
+                "SUM(oi.quantity * oi.price) AS revenue " +
+                "FROM orders o " +
+                "JOIN order_items oi ON oi.order_id = o.id " +
+                "LEFT JOIN product_barcodes pb ON pb.barcode = oi.barcode " +
+                "GROUP BY CAST(o.create_time AS DATE), pb.product_id")
+        List<HourlySalesRow> getDailyProductSales();
+
+        // 按“日期 + 小时 + 商品”分组回填保留期内的小时桶
+        @Select("SELECT CAST(o.create_time AS DATE) AS saleDate, HOUR(o.create_time) AS saleHour, " +
+                "pb.product_id AS productId, " +
+                "SUM(oi.quantity) AS units, " +
+                "SUM(oi.quantity * oi.price) AS revenue " +
+                "FROM orders o " +
+                "JOIN order_items oi ON oi.order_id = o.id " +
+                "LEFT JOIN product_barcodes pb ON pb.barcode = oi.barcode " +
+                "WHERE o.create_time >= #{since} " +
+                "GROUP BY CAST(o.create_time AS DATE), HOUR(o.create_time), pb.product_id")
+        List<HourlySalesRow> getHourlyProductSales(@Param("since") LocalDateTime since);
+
+        // 保留期以外的小时线：[from, to) 内按小时汇总，productId 为空时是全店总量
+        @Select("<script>" +
+                "SELECT CAST(o.create_time AS DATE) AS saleDate, HOUR(o.create_time) AS saleHour, " +
+                "SUM(oi.quantity) AS units, " +
+                "SUM(oi.quantity * oi.price) AS revenue " +
+                "FROM orders o " +
+                "JOIN order_items oi ON oi.order_id = o.id " +
+                "<if test='productId != null'>JOIN product_barcodes pb ON pb.barcode = oi.barcode AND pb.product_id = #{productId} </if>" +
+                "WHERE o.create_time &gt;= #{from} AND o.create_time &lt; #{to} " +
+                "GROUP BY CAST(o.create_time AS DATE), HOUR(o.create_time)" +
+                "</script>")
+        @ReportingQuery
+        List<HourlySalesRow> getHourlySales(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                            @Param("productId") Integer productId);
+    }
+
+    public static class HourlySalesRow {
+        public LocalDate saleDate;
+        public int saleHour;
+        public Integer productId;
+        public long units;
+        public double revenue;
+    }
+}
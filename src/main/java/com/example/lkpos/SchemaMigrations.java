@@ -0,0 +1,199 @@
+package com.example.lkpos;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 数据库结构迁移：表和索引全部由 classpath:db/migration/V{版本号}__{说明}.sql 创建，
+ * 启动时按版本号顺序执行还没执行过的脚本，执行过的记在 schema_history 里，不会重复执行。
+ *
+ * 规则：
+ * - 脚本一旦发布就不再修改，要改结构就加一个更大版本号的新脚本；
+ * - 已执行脚本的内容被改过时只打警告，不会重跑；
+ * - MySQL 的 DDL 会隐式提交，脚本不包在事务里，所以每个脚本里的语句要能安全地重跑
+ *   （建表用 IF NOT EXISTS），执行到一半失败时下次启动从这个脚本重新开始。
+ *   MySQL 的 CREATE INDEX 没有 IF NOT EXISTS，由这里代劳：表上已经有同名索引
+ *   （上次执行到一半，或者 DBA 先手工建过）的 CREATE INDEX 语句直接跳过。
+ *
+ * 启动时数据库连不上不拦启动，用到表的组件第一次访问数据库前会再调一次 {@link #migrate()}。
+ * 收银后台是单机部署，不考虑多个实例同时迁移。
+ */
+@Component
+public class SchemaMigrations {
+
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    private static final String LOCATION = "classpath*:db/migration/V*__*.sql";
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "^\\s*CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)[^;]*;[ \\t]*\\R?",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+    // 迁移只在主库上做，从库靠复制同步
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource dataSource;
+
+    private volatile boolean migrated = false;
+
+    @PostConstruct
+    public void init() {
+        try {
+            migrate();
+        } catch (Exception e) {
+            log.warn("⚠️ 数据库结构迁移暂不能执行，首次访问数据库时再试", e);
+        }
+    }
+
+    /** 执行所有还没执行过的迁移脚本；已经迁移过时直接返回 */
+    public void migrate() {
+        if (migrated) {
+            return;
+        }
+        synchronized (this) {
+            if (migrated) {
+                return;
+            }
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(true);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("CREATE TABLE IF NOT EXISTS schema_history (" +
+                            "version INT PRIMARY KEY, description VARCHAR(200) NOT NULL, " +
+                            "checksum BIGINT NOT NULL, applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+                }
+                Map<Integer, Long> applied = appliedChecksums(conn);
+                int count = 0;
+                for (Map.Entry<Integer, Resource> entry : scripts().entrySet()) {
+                    int version = entry.getKey();
+                    Resource script = entry.getValue();
+                    long checksum = checksum(script);
+                    Long recorded = applied.get(version);
+                    if (recorded != null) {
+                        if (recorded != checksum) {
+                            log.warn("⚠️ 已执行的迁移脚本被改过，不会重跑：{}", script.getFilename());
+                        }
+                        continue;
+                    }
+                    ScriptUtils.executeSqlScript(conn, new EncodedResource(skipExistingIndexes(conn, script), StandardCharsets.UTF_8));
+                    try (PreparedStatement ps = conn.prepareStatement(
+                            "INSERT INTO schema_history (version, description, checksum) VALUES (?, ?, ?)")) {
+                        ps.setInt(1, version);
+                        ps.setString(2, description(script));
+                        ps.setLong(3, checksum);
+                        ps.executeUpdate();
+                    }
+                    count++;
+                    log.info("✅ 已执行迁移脚本 {}", script.getFilename());
+                }
+                if (count > 0) {
+                    log.info("✅ 数据库结构已迁移到 V{}", lastVersion(conn));
+                }
+            } catch (SQLException | IOException e) {
+                throw new IllegalStateException("数据库结构迁移失败：" + e.getMessage(), e);
+            }
+            migrated = true;
+        }
+    }
+
+    // 版本号 -> 脚本，按版本号从小到大
+    private static Map<Integer, Resource> scripts() throws IOException {
+        Map<Integer, Resource> scripts = new TreeMap<>();
+        for (Resource r : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            Matcher m = FILE_NAME.matcher(r.getFilename() == null ? "" : r.getFilename());
+            if (!m.matches()) {
+                continue;
+            }
+            Resource previous = scripts.put(Integer.parseInt(m.group(1)), r);
+            if (previous != null) {
+                throw new IllegalStateException("迁移脚本版本号重复：" + previous.getFilename() + " / " + r.getFilename());
+            }
+        }
+        return scripts;
+    }
+
+    // 去掉建已存在索引的语句，其余原样执行
+    private static Resource skipExistingIndexes(Connection conn, Resource script) throws SQLException, IOException {
+        String sql = script.getContentAsString(StandardCharsets.UTF_8);
+        Matcher m = CREATE_INDEX.matcher(sql);
+        StringBuilder kept = new StringBuilder();
+        boolean skipped = false;
+        while (m.find()) {
+            if (indexExists(conn, m.group(2), m.group(1))) {
+                log.info("✅ 索引 {} 已存在，跳过（{}）", m.group(1), script.getFilename());
+                m.appendReplacement(kept, "");
+                skipped = true;
+            }
+        }
+        if (!skipped) {
+            return script;
+        }
+        m.appendTail(kept);
+        return new ByteArrayResource(kept.toString().getBytes(StandardCharsets.UTF_8), script.getFilename());
+    }
+
+    private static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), conn.getSchema(), table, false, true)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Map<Integer, Long> appliedChecksums(Connection conn) throws SQLException {
+        Map<Integer, Long> applied = new TreeMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT version, checksum FROM schema_history")) {
+            while (rs.next()) {
+                applied.put(rs.getInt(1), rs.getLong(2));
+            }
+        }
+        return applied;
+    }
+
+    private static int lastVersion(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(version) FROM schema_history")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static String description(Resource script) {
+        Matcher m = FILE_NAME.matcher(script.getFilename());
+        return m.matches() ? m.group(2).replace('_', ' ') : script.getFilename();
+    }
+
+    private static long checksum(Resource script) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = script.getInputStream()) {
+            crc.update(in.readAllBytes());
+        }
+        return crc.getValue();
+    }
+}
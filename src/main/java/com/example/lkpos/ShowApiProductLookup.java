@@ -0,0 +1,90 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+import tools.jackson.databind.ObjectMapper;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * ShowAPI 条码库（66-22 接口）。整个应用共用一个 RestTemplate，
+ * 底层是 JDK HttpClient 的连接池，连接和读取都有超时，云端卡住也不会一直占着线程。
+ */
+@Component
+public class ShowApiProductLookup implements ProductLookup {
+
+    private final String apiUrl;
+    private final String appKey;
+    private final RestTemplate restTemplate;
+    private final ObjectMapper mapper;
+
+    // mapper 用 Spring 配置好的那一个，和应用里其他 JSON 的解析规则一致
+    public ShowApiProductLookup(ObjectMapper mapper,
+                                @Value("${lkpos.lookup.showapi.url:https://route.showapi.com/66-22}") String apiUrl,
+                                @Value("${lkpos.lookup.showapi.app-key:}") String appKey,
+                                @Value("${lkpos.lookup.connect-timeout:3s}") Duration connectTimeout,
+                                @Value("${lkpos.lookup.read-timeout:5s}") Duration readTimeout) {
+        this.mapper = mapper;
+        this.apiUrl = apiUrl;
+        this.appKey = appKey;
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+        factory.setReadTimeout(readTimeout);
+        this.restTemplate = new RestTemplate(factory);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Product lookup(String barcode) {
+        // 表单提交 (对应 curl 中的 -H 'content-type: application/x-www-form-urlencoded' -d 'code=...&appKey=...')
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("appKey", appKey);
+        form.add("code", barcode);
+
+        String rawData = restTemplate.postForEntity(apiUrl, new HttpEntity<>(form, headers), String.class).getBody();
+        Map<String, Object> body = mapper.readValue(rawData, Map.class);
+
+        if (body == null || !"0".equals(String.valueOf(body.get("showapi_res_code")))) {
+            // 接口级错误（额度用完、签名错误等）不是“查无此码”，按异常处理，不进负缓存
+            throw new IllegalStateException("ShowAPI 返回错误：" + (body == null ? "空响应" : body.get("showapi_res_error")));
+        }
+        Map<String, Object> data = (Map<String, Object>) body.get("showapi_res_body");
+        if (data == null || data.get("goodsName") == null) {
+            return null;
+        }
+
+        Product result = new Product();
+        result.barcode = barcode;
+        result.name = String.valueOf(data.get("goodsName"));
+
+        // 解析价格（防空字符串报错）
+        String priceStr = String.valueOf(data.get("price"));
+        if (!priceStr.trim().isEmpty() && !"null".equals(priceStr)) {
+            try { result.price = Double.parseDouble(priceStr); }
+            catch (NumberFormatException e) { result.price = 0.0; }
+        }
+
+        String img = (String) data.get("img");
+        result.imageUrl = img == null || img.trim().isEmpty() ? null : img.trim();
+
+        // 🌟 精准抓取高价值商业数据！
+        result.brand = data.get("trademark") != null ? data.get("trademark").toString() : "未知品牌";
+        result.specification = data.get("spec") != null ? data.get("spec").toString() : "无规格";
+        result.manufacturer = data.get("manuName") != null ? data.get("manuName").toString() : "未知厂家";
+        result.category = data.get("gpcType") != null ? data.get("gpcType").toString() : "未分类";
+        result.note = data.get("note") != null ? data.get("note").toString() : "暂无详细说明";
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.lkpos;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条 Mapper 语句的耗时直方图（lkpos.sql）和返回/影响行数分布（lkpos.sql.rows），
+ * 按语句名打标签，例如 statement=ProductMapper.findByBarcode。
+ *
+ * 取代原来的 StdOutImpl：那个会把每条 SQL 连同参数同步打到控制台，高峰期本身就是负担。
+ * 现在只按比例抽样输出一行 key=value 格式的日志（logger 名 lkpos.sql），外加超过
+ * lkpos.sql-log.slow-threshold 的慢语句。抽样比例默认 0，运行时可以通过
+ * 管理端口的 /actuator/sqllog 调整，无需重启。
+ */
+@Component
+@Endpoint(id = "sqllog")
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor", args = {MappedStatement.class, Object.class, RowBounds.class})
+})
+public class SqlMetrics implements Interceptor {
+
+    private static final Logger log = LoggerFactory.getLogger("lkpos.sql");
+
+    private final MeterRegistry registry;
+
+    // 计时器按语句名缓存，热路径上不用每次去注册表里查
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> rows = new ConcurrentHashMap<>();
+
+    private volatile double sampleRate;
+    private volatile long slowThresholdNanos;
+
+    public SqlMetrics(MeterRegistry registry,
+                      @Value("${lkpos.sql-log.sample-rate:0}") double sampleRate,
+                      @Value("${lkpos.sql-log.slow-threshold:500ms}") Duration slowThreshold) {
+        this.registry = registry;
+        this.sampleRate = clamp(sampleRate);
+        this.slowThresholdNanos = slowThreshold.toNanos();
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        long start = System.nanoTime();
+        Object result = null;
+        Throwable failure = null;
+        try {
+            result = invocation.proceed();
+            return result;
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            String statement = statementName(ms);
+            timer(statement, ms, failure).record(elapsed, TimeUnit.NANOSECONDS);
+            // 游标查询此刻只是打开了结果集，行数要等调用方读完才知道，不计入
+            long count = rowCount(result);
+            if (count >= 0) {
+                rows.computeIfAbsent(statement, s -> DistributionSummary.builder("lkpos.sql.rows")
+                        .description("Mapper 语句返回或影响的行数")
+                        .tag("statement", s)
+                        .publishPercentileHistogram()
+                        .register(registry)).record(count);
+            }
+            if (elapsed >= slowThresholdNanos || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+                logStatement(ms, invocation, statement, elapsed, count, failure);
+            }
+        }
+    }
+
+    private Timer timer(String statement, MappedStatement ms, Throwable failure) {
+        if (failure != null) {
+            // 出错的语句单独一条时间线，不常见，不必缓存
+            return Timer.builder("lkpos.sql").tag("statement", statement)
+                    .tag("type", ms.getSqlCommandType().name()).tag("outcome", "ERROR").register(registry);
+        }
+        return timers.computeIfAbsent(statement, s -> Timer.builder("lkpos.sql")
+                .description("Mapper 语句耗时")
+                .tag("statement", s)
+                .tag("type", ms.getSqlCommandType().name())
+                .tag("outcome", "SUCCESS")
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private void logStatement(MappedStatement ms, Invocation invocation, String statement,
+                              long elapsedNanos, long count, Throwable failure) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        String sql;
+        try {
+            Object[] args = invocation.getArgs();
+            BoundSql bound = args.length == 6 ? (BoundSql) args[5] : ms.getBoundSql(args[1]);
+            sql = bound.getSql().replaceAll("\\s+", " ").trim();
+        } catch (RuntimeException e) {
+            sql = "?";
+        }
+        // 参数里可能有顾客信息，日志里只留语句本身
+        log.info("statement={} type={} ms={} rows={} slow={} outcome={} sql=\"{}\"",
+                statement, ms.getSqlCommandType(), String.format("%.3f", elapsedNanos / 1e6), count,
+                elapsedNanos >= slowThresholdNanos, failure == null ? "ok" : failure.getClass().getSimpleName(),
+                sql.replace("\"", "'"));
+    }
+
+    // com.example.lkpos.ProductController$ProductMapper.findByBarcode -> ProductMapper.findByBarcode
+    private static String statementName(MappedStatement ms) {
+        String id = ms.getId();
+        int method = id.lastIndexOf('.');
+        int owner = Math.max(id.lastIndexOf('.', method - 1), id.lastIndexOf('$', method - 1));
+        return owner >= 0 ? id.substring(owner + 1) : id;
+    }
+
+    private static long rowCount(Object result) {
+        if (result instanceof Collection<?> c) {
+            return c.size();
+        }
+        if (result instanceof Number n) {
+            return n.longValue();
+        }
+        return -1;
+    }
+
+    private static double clamp(double rate) {
+        return Math.max(0, Math.min(1, rate));
+    }
+
+    // ========== /actuator/sqllog：运行时查看和调整抽样日志 ==========
+
+    @ReadOperation
+    public Map<String, Object> settings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("sampleRate", sampleRate);
+        settings.put("slowThresholdMs", TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos));
+        return settings;
+    }
+
+    @WriteOperation
+    public Map<String, Object> update(@Nullable Double sampleRate, @Nullable Long slowThresholdMs) {
+        if (sampleRate != null) {
+            this.sampleRate = clamp(sampleRate);
+        }
+        if (slowThresholdMs != null) {
+            this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, slowThresholdMs));
+        }
+        log.info("SQL 抽样日志已调整：{}", settings());
+        return settings();
+    }
+}
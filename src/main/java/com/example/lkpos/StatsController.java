@@ -1,13 +1,24 @@
 package com.example.lkpos;
 
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,12 +31,32 @@ public class StatsController {
     @Autowired
     private StatsMapper statsMapper;
 
+    @Autowired
+    private SalesAggregates salesAggregates;
+
+    @Autowired
+    private SalesRollups salesRollups;
+
+    @Autowired
+    private DashboardStream dashboardStream;
+
+    @Autowired
+    private ProductAffinity productAffinity;
+
     @GetMapping("/dashboard")
     public Map<String, Object> getDashboardData() {
         Map<String, Object> result = new HashMap<>();
 
+        // 🌟 常驻汇总已经就绪时直接读内存，不再每次刷新都扫一遍销售历史
+        if (salesAggregates.isReady()) {
+            result.put("today", salesAggregates.dayStats(LocalDate.now()));
+            result.put("topProducts", salesAggregates.topProducts());
+            return result;
+        }
+
         // 1. 获取今日核心财务数据
-        Map<String, Object> todayStats = statsMapper.getTodayStats();
+        LocalDateTime today = LocalDate.now().atStartOfDay();
+        Map<String, Object> todayStats = statsMapper.getTodayStats(today, today.plusDays(1));
         if (todayStats == null || todayStats.get("revenue") == null) {
             todayStats = new HashMap<>();
             todayStats.put("revenue", 0.0);
@@ -42,9 +73,63 @@ public class StatsController {
         return result;
     }
 
+    // 🌟 看板实时推送：连上先收一份完整快照，之后订单提交时由服务端推送变化（见 DashboardStream）
+    @GetMapping(value = "/dashboard/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDashboard() throws IOException {
+        return dashboardStream.subscribe(getDashboardData());
+    }
+
+    // 🌟 时间序列：按小时/按天的销量和营业额，可以只看某个商品
+    //    例：/api/stats/sales?granularity=hour&from=2026-10-09T00:00&to=2026-10-16T00:00
+    //    from 默认为 to 往前 24 小时（hour）或 30 天（day），to 默认为当前时刻所在的桶之后
+    @GetMapping("/sales")
+    public ResponseEntity<List<Map<String, Object>>> getSalesSeries(
+            @RequestParam(defaultValue = "hour") String granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Integer productId) {
+        if (!salesRollups.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        SalesRollups.Granularity g;
+        try {
+            g = SalesRollups.Granularity.valueOf(granularity.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        LocalDateTime end = to != null ? to : g.truncate(LocalDateTime.now()).plus(1, g.unit);
+        LocalDateTime start = from != null ? from : (g == SalesRollups.Granularity.HOUR ? end.minusHours(24) : end.minusDays(30));
+        if (!start.isBefore(end)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(salesRollups.series(g, start, end, productId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    // 🌟 经常一起买：和某个商品关联度最高的前 N 个商品（按 lift 排序，见 ProductAffinity）
+    //    例：/api/stats/affinity/42?limit=10，可选 from / to 只看某段时间 [from, to) 内的订单
+    @GetMapping("/affinity/{productId}")
+    public ResponseEntity<ProductAffinity.AffinityResult> getAffinity(
+            @PathVariable Integer productId,
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        if (!productAffinity.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        if (from != null && to != null && !from.isBefore(to)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(productAffinity.topAssociated(productId, limit, from, to));
+    }
+
     @Mapper
     public interface StatsMapper {
         // 🌟 史诗级 SQL：一句话算出今日单量、营业额、总成本、净毛利！
+        //    时间条件写成 [from, to) 半开区间，create_time 上的索引才能做范围扫描；DATE(create_time) 会让索引失效
         @Select("SELECT " +
                 "COUNT(DISTINCT o.id) as orderCount, " +
                 "IFNULL(SUM(oi.quantity * p.price), 0) as revenue, " +
@@ -54,8 +139,9 @@ public class StatsController {
                 "JOIN order_items oi ON o.id = oi.order_id " +
                 "JOIN product_barcodes pb ON oi.barcode = pb.barcode " +
                 "JOIN products p ON pb.product_id = p.id " +
-                "WHERE DATE(o.create_time) = CURDATE()")
-        Map<String, Object> getTodayStats();
+                "WHERE o.create_time >= #{from} AND o.create_time < #{to}")
+        @ReportingQuery
+        Map<String, Object> getTodayStats(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 
         // 🌟 算排行榜 SQL：按销量算出卖得最好的 5 件商品
         @Select("SELECT p.name, p.image_url as imageUrl, " +
@@ -66,6 +152,45 @@ public class StatsController {
                 "JOIN products p ON pb.product_id = p.id " +
                 "GROUP BY p.id, p.name, p.image_url " +
                 "ORDER BY totalSold DESC LIMIT 5")
+        @ReportingQuery
         List<Map<String, Object>> getTopProducts();
+
+        // --- 重建常驻汇总用，在 OrderSnapshots 的快照事务里执行 ---
+        //     必须读主库：快照里看不见的订单靠提交事件补上，从库落后的部分会漏掉
+        // 结果映射到字段而不是 Map：列名大小写随数据库而变，MyBatis 按属性名映射时不区分大小写
+        @Select("SELECT CAST(o.create_time AS DATE) as saleDate, " +
+                "COUNT(DISTINCT o.id) as orderCount, " +
+                "IFNULL(SUM(oi.quantity * p.price), 0) as revenue, " +
+                "IFNULL(SUM(oi.quantity * p.cost_price), 0) as cost " +
+                "FROM orders o " +
+                "JOIN order_items oi ON o.id = oi.order_id " +
+                "JOIN product_barcodes pb ON oi.barcode = pb.barcode " +
+                "JOIN products p ON pb.product_id = p.id " +
+                "GROUP BY CAST(o.create_time AS DATE)")
+        List<DailyTotalsRow> getDailyTotals();
+
+        @Select("SELECT p.id as productId, p.name, p.image_url as imageUrl, " +
+                "SUM(oi.quantity) as totalSold, " +
+                "SUM(oi.quantity * (p.price - p.cost_price)) as totalProfit " +
+                "FROM order_items oi " +
+                "JOIN product_barcodes pb ON oi.barcode = pb.barcode " +
+                "JOIN products p ON pb.product_id = p.id " +
+                "GROUP BY p.id, p.name, p.image_url")
+        List<ProductTotalsRow> getProductTotals();
+    }
+
+    public static class DailyTotalsRow {
+        public LocalDate saleDate;
+        public long orderCount;
+        public double revenue;
+        public double cost;
+    }
+
+    public static class ProductTotalsRow {
+        public int productId;
+        public String name;
+        public String imageUrl;
+        public long totalSold;
+        public double totalProfit;
     }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.example.lkpos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 库存查询与调整，数据都来自 {@link StockLevels} 的内存计数器。
+ */
+@RestController
+@RequestMapping("/api/stock")
+public class StockController {
+
+    private static final Logger log = LoggerFactory.getLogger(StockController.class);
+
+    @Autowired
+    private StockLevels stockLevels;
+
+    // 所有管库存的商品：商品 ID -> 可售数量
+    @GetMapping
+    public Map<Integer, Long> getAllLevels() {
+        return stockLevels.levels();
+    }
+
+    @GetMapping("/{productId}")
+    public ResponseEntity<Map<String, Object>> getLevel(@PathVariable int productId) {
+        Long quantity = stockLevels.level(productId);
+        if (quantity == null) {
+            return ResponseEntity.notFound().build(); // 这个商品不管库存
+        }
+        return ResponseEntity.ok(level(productId, quantity));
+    }
+
+    // 🌟 进货 delta 填正数，报损填负数；第一次调整的商品从此开始管库存
+    @PostMapping("/{productId}/adjust")
+    public Map<String, Object> adjust(@PathVariable int productId, @RequestParam long delta) {
+        log.info("库存调整：商品 {} {}{}", productId, delta >= 0 ? "+" : "", delta);
+        return level(productId, stockLevels.adjust(productId, delta));
+    }
+
+    // 盘点：直接把可售数量改成实盘数
+    @PutMapping("/{productId}")
+    public Map<String, Object> set(@PathVariable int productId, @RequestParam long quantity) {
+        log.info("库存盘点：商品 {} 实盘 {}", productId, quantity);
+        return level(productId, stockLevels.set(productId, quantity));
+    }
+
+    private static Map<String, Object> level(int productId, long quantity) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("productId", productId);
+        result.put("quantity", quantity);
+        return result;
+    }
+}
@@ -0,0 +1,445 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.ProductController.Product;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 实时库存：每个商品（products.id）一个内存计数器，结账时用 CAS 直接扣减，
+ * 不锁数据库里的库存行，爆款商品也不会让各个收银台排队。
+ * 没有库存记录的商品视为“不管库存”，照常销售。
+ *
+ * 持久化：已提交订单的扣减量先攒在内存里，后台每隔 lkpos.stock.flush-interval
+ * 合并成一次批量更新写进 product_stock，同一个事务里推进水位 stock_checkpoint.applied_order_id
+ * （不大于它的订单都已经扣进库存表）。重启时用库存表减去水位之后订单的销量即可还原，
+ * 宕机时没来得及刷盘的扣减不会丢。
+ *
+ * 进货、盘点这类手工调整很少发生，直接写穿数据库。
+ *
+ * 库存还没载入（启动时数据库连不上）期间的结账不扣内存计数器，只登记为在途；
+ * 载入前先等这些结账都有结论（期间新来的结账稍等），再从数据库把它们和水位之后的销量一起补扣。
+ */
+@Component
+public class StockLevels {
+
+    private static final Logger log = LoggerFactory.getLogger(StockLevels.class);
+
+    @Autowired
+    private StockMapper stockMapper;
+
+    @Autowired
+    private BarcodeIndex barcodeIndex;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private SchemaMigrations schemaMigrations;
+
+    // 开启后库存不够的订单直接拒绝；关掉则只记账，允许卖成负数
+    @Value("${lkpos.stock.enforce:true}")
+    private boolean enforce;
+
+    @Value("${lkpos.stock.flush-interval:1s}")
+    private Duration flushInterval;
+
+    // 载入时最多等多久让库存没载入时开始的结账结束，等不到就放弃这次载入，下次再试
+    private static final long DRAIN_TIMEOUT_MS = 5_000;
+
+    // 商品 ID -> 当前可售数量（已扣掉正在结账的订单）
+    private final Map<Integer, AtomicLong> onHand = new ConcurrentHashMap<>();
+
+    // 已提交、还没写进库存表的订单：订单号 -> (商品 ID -> 卖出数量)
+    private final ConcurrentSkipListMap<Integer, Map<Integer, Long>> unflushed = new ConcurrentSkipListMap<>();
+
+    // 正在结账（事务还没结束）的订单，水位不能越过它们
+    private final Map<Reservation, Boolean> open = new ConcurrentHashMap<>();
+
+    // 见过的最大订单号：还没拿到订单号的结账，将来的订单号一定比它开始时的这个值大
+    private final AtomicLong highestOrderId = new AtomicLong();
+
+    private long appliedOrderId;
+
+    private volatile boolean ready = false;
+
+    // 以下两个字段由 loading 保护：库存没载入时开始、还没结束的结账数；载入正在等它们归零
+    private final Object loading = new Object();
+    private int unloadedInFlight;
+    private boolean draining;
+
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stock-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        loadQuietly();
+        long millis = Math.max(1, flushInterval.toMillis());
+        flusher.scheduleWithFixedDelay(this::flushQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void loadQuietly() {
+        try {
+            load();
+        } catch (Exception e) {
+            // 数据库没起来时不拦启动：这期间结账不扣库存，刷盘线程会定期重试载入；
+            // 载入等这段时间开始的结账都提交或回滚之后才统计销量，它们卖掉的都会补扣回来
+            log.warn("⚠️ 库存载入失败，暂不扣减库存", e);
+        }
+    }
+
+    /** 从库存表和水位之后的订单还原内存计数器 */
+    synchronized void load() {
+        schemaMigrations.migrate();
+        synchronized (loading) {
+            draining = true;
+            try {
+                // 还在途的结账提交后才看得见；不等它们，水位会越过它们的订单号，这几单就永远不扣了
+                long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+                while (unloadedInFlight > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IllegalStateException("还有 " + unloadedInFlight + " 笔结账没结束，稍后再载入库存");
+                    }
+                    loading.wait(remaining);
+                }
+                loadSnapshot();
+                ready = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("库存载入被中断", e);
+            } finally {
+                draining = false;
+                loading.notifyAll();
+            }
+        }
+        log.info("✅ 库存已载入，{} 个商品管库存，水位订单号 {}", onHand.size(), appliedOrderId);
+    }
+
+    private void loadSnapshot() {
+        transactionTemplate.executeWithoutResult(status -> {
+            appliedOrderId = stockMapper.lockAppliedOrderId();
+            Map<Integer, Long> stock = new HashMap<>();
+            for (StockRow row : stockMapper.findAll()) {
+                stock.put(row.productId, row.quantity);
+            }
+            // 上次刷盘之后卖掉的，重新扣一遍并立即落库，水位推进到当前最大订单号
+            Long maxId = stockMapper.getMaxOrderId();
+            long upTo = maxId == null ? 0 : maxId;
+            if (upTo > appliedOrderId) {
+                List<StockRow> deltas = new ArrayList<>();
+                for (StockRow sold : stockMapper.sumSoldBetween(appliedOrderId, upTo)) {
+                    if (sold.productId != null && stock.containsKey(sold.productId)) {
+                        stock.merge(sold.productId, -sold.quantity, Long::sum);
+                        deltas.add(new StockRow(sold.productId, -sold.quantity));
+                    }
+                }
+                if (!deltas.isEmpty()) {
+                    stockMapper.applyDeltas(deltas);
+                }
+                stockMapper.updateAppliedOrderId(upTo);
+                appliedOrderId = upTo;
+            }
+            stock.forEach((id, qty) -> onHand.put(id, new AtomicLong(qty)));
+            highestOrderId.accumulateAndGet(upTo, Math::max);
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ready) {
+            flushQuietly();
+        }
+    }
+
+    /** 当前可售数量；不管库存的商品返回 null */
+    public Long level(int productId) {
+        AtomicLong counter = onHand.get(productId);
+        return counter == null ? null : counter.get();
+    }
+
+    public Map<Integer, Long> levels() {
+        Map<Integer, Long> result = new TreeMap<>();
+        onHand.forEach((id, counter) -> result.put(id, counter.get()));
+        return result;
+    }
+
+    /** 进货（正数）或报损（负数），直接写库，返回调整后的数量 */
+    public synchronized long adjust(int productId, long delta) {
+        if (!ready) {
+            throw new IllegalStateException("库存尚未载入，请稍后再试");
+        }
+        stockMapper.applyDeltas(List.of(new StockRow(productId, delta)));
+        return onHand.computeIfAbsent(productId, id -> new AtomicLong()).addAndGet(delta);
+    }
+
+    /** 盘点：把可售数量改成实数，换算成一次调整 */
+    public synchronized long set(int productId, long quantity) {
+        Long current = level(productId);
+        return adjust(productId, quantity - (current == null ? 0 : current));
+    }
+
+    /**
+     * 结账时在订单事务里调用：先在内存里扣掉库存，事务提交后这笔扣减进入待刷盘队列，
+     * 回滚则原样加回去。allowOversell 为 false 且开启了 lkpos.stock.enforce 时，
+     * 任何一个商品不够卖都会抛出 {@link OutOfStockException}，已扣的部分会退回。
+     */
+    public Reservation reserve(List<OrderItem> items, boolean allowOversell) {
+        if (!ready) {
+            Reservation unloaded = reserveUnloaded();
+            if (unloaded != null) {
+                return unloaded;
+            }
+        }
+        Reservation r = new Reservation(highestOrderId.get());
+        if (ready && items != null) {
+            for (OrderItem item : items) {
+                Integer productId = productIdOf(item.barcode);
+                if (productId != null && onHand.containsKey(productId)) {
+                    r.quantities.merge(productId, (long) item.quantity, Long::sum);
+                }
+            }
+        }
+        if (r.quantities.isEmpty()) {
+            return r; // 整单都是不管库存的商品，和刷盘水位无关
+        }
+        open.put(r, Boolean.TRUE);
+        List<Integer> taken = new ArrayList<>(r.quantities.size());
+        for (Map.Entry<Integer, Long> e : r.quantities.entrySet()) {
+            AtomicLong counter = onHand.get(e.getKey());
+            long qty = e.getValue();
+            if (enforce && !allowOversell) {
+                long before;
+                do {
+                    before = counter.get();
+                    if (before < qty) {
+                        for (Integer id : taken) {
+                            onHand.get(id).addAndGet(r.quantities.get(id));
+                        }
+                        open.remove(r);
+                        throw new OutOfStockException(e.getKey(), before, qty);
+                    }
+                } while (!counter.compareAndSet(before, before - qty));
+            } else {
+                counter.addAndGet(-qty);
+            }
+            taken.add(e.getKey());
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                complete(r, status == STATUS_COMMITTED);
+            }
+        });
+        return r;
+    }
+
+    // 库存没载入：不扣内存，只登记这笔结账在途，结束时注销；载入正在等在途结账时，新的结账先等载入完。
+    // 同一个事务里已经登记过（离线补录一批多单）的不等，否则载入等它、它等载入
+    private Reservation reserveUnloaded() {
+        synchronized (loading) {
+            boolean joined = TransactionSynchronizationManager.hasResource(loading);
+            try {
+                while (draining && !joined) {
+                    loading.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待库存载入时被中断", e);
+            }
+            if (ready) {
+                return null;
+            }
+            unloadedInFlight++;
+            if (!joined) {
+                TransactionSynchronizationManager.bindResource(loading, Boolean.TRUE);
+            }
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(loading);
+                synchronized (loading) {
+                    unloadedInFlight--;
+                    loading.notifyAll();
+                }
+            }
+        });
+        return new Reservation(highestOrderId.get());
+    }
+
+    private void complete(Reservation r, boolean committed) {
+        if (committed && r.orderId != null) {
+            unflushed.put(r.orderId, r.quantities);
+        } else {
+            r.quantities.forEach((id, qty) -> onHand.get(id).addAndGet(qty));
+        }
+        open.remove(r);
+    }
+
+    private Integer productIdOf(String barcode) {
+        if (barcodeIndex.isReady()) {
+            Product p = barcodeIndex.lookup(barcode);
+            return p == null ? null : p.id;
+        }
+        return stockMapper.findProductIdByBarcode(barcode);
+    }
+
+    // 水位只能推进到“所有更小的订单都已经有结论”的位置：
+    // 正在结账的订单里，有订单号的卡在订单号前一位，还没拿到订单号的卡在它开始时见过的最大订单号
+    private long safeWatermark() {
+        long mark = highestOrderId.get();
+        for (Reservation r : open.keySet()) {
+            Integer id = r.orderId;
+            mark = Math.min(mark, id != null ? id - 1 : r.floor);
+        }
+        return mark;
+    }
+
+    private void flushQuietly() {
+        if (!ready) {
+            loadQuietly();
+            return;
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("⚠️ 库存刷盘失败，下次重试", e);
+        }
+    }
+
+    /** 把水位以内已提交订单的扣减合并成一次批量更新 */
+    public synchronized void flush() {
+        long mark = safeWatermark();
+        if (mark <= appliedOrderId) {
+            return;
+        }
+        Map<Integer, Map<Integer, Long>> batch = unflushed.headMap((int) Math.min(mark, Integer.MAX_VALUE), true);
+        List<Integer> orderIds = new ArrayList<>(batch.keySet());
+        Map<Integer, Long> sold = new TreeMap<>();
+        for (Integer orderId : orderIds) {
+            batch.get(orderId).forEach((id, qty) -> sold.merge(id, qty, Long::sum));
+        }
+        List<StockRow> deltas = new ArrayList<>(sold.size());
+        sold.forEach((id, qty) -> deltas.add(new StockRow(id, -qty)));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!deltas.isEmpty()) {
+                stockMapper.applyDeltas(deltas);
+            }
+            stockMapper.updateAppliedOrderId(mark);
+        });
+        appliedOrderId = mark;
+        orderIds.forEach(unflushed::remove);
+    }
+
+    /** 一笔结账在内存里扣掉的库存，订单写入后要调用 {@link #bind} 告诉它订单号 */
+    public class Reservation {
+        final long floor;
+        final Map<Integer, Long> quantities = new HashMap<>();
+        volatile Integer orderId;
+
+        Reservation(long floor) {
+            this.floor = floor;
+        }
+
+        public void bind(int orderId) {
+            this.orderId = orderId;
+            highestOrderId.accumulateAndGet(orderId, Math::max);
+        }
+    }
+
+    public static class OutOfStockException extends RuntimeException {
+        public final int productId;
+        public final long available;
+        public final long requested;
+
+        public OutOfStockException(int productId, long available, long requested) {
+            super("商品 " + productId + " 库存不足：剩余 " + available + "，需要 " + requested);
+            this.productId = productId;
+            this.available = available;
+            this.requested = requested;
+        }
+    }
+
+    public static class StockRow {
+        public Integer productId;
+        public long quantity;
+
+        public StockRow() {
+        }
+
+        public StockRow(Integer productId, long quantity) {
+            this.productId = productId;
+            this.quantity = quantity;
+        }
+    }
+
+    @Mapper
+    public interface StockMapper {
+
+        @Select("SELECT applied_order_id FROM stock_checkpoint WHERE id = 1 FOR UPDATE")
+        long lockAppliedOrderId();
+
+        @Update("UPDATE stock_checkpoint SET applied_order_id = #{appliedOrderId} WHERE id = 1")
+        void updateAppliedOrderId(long appliedOrderId);
+
+        @Select("SELECT product_id AS productId, quantity FROM product_stock")
+        List<StockRow> findAll();
+
+        @Select("SELECT MAX(id) FROM orders")
+        Long getMaxOrderId();
+
+        @Select("SELECT product_id FROM product_barcodes WHERE barcode = #{barcode}")
+        Integer findProductIdByBarcode(String barcode);
+
+        @Select("SELECT pb.product_id AS productId, SUM(oi.quantity) AS quantity " +
+                "FROM order_items oi JOIN product_barcodes pb ON pb.barcode = oi.barcode " +
+                "WHERE oi.order_id > #{afterId} AND oi.order_id <= #{upTo} " +
+                "GROUP BY pb.product_id")
+        List<StockRow> sumSoldBetween(@Param("afterId") long afterId, @Param("upTo") long upTo);
+
+        // 一条语句更新所有变动的商品；没有记录的商品顺便建档
+        @Insert("<script>INSERT INTO product_stock (product_id, quantity) VALUES " +
+                "<foreach collection='deltas' item='d' separator=','>(#{d.productId}, #{d.quantity})</foreach> " +
+                "ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity)</script>")
+        void applyDeltas(@Param("deltas") List<StockRow> deltas);
+    }
+}
@@ -0,0 +1,36 @@
+-- 基础业务表：商品、条码、订单、订单明细
+-- 老库里这几张表早就手工建好了，IF NOT EXISTS 保证在老库上执行时什么都不改
+CREATE TABLE IF NOT EXISTS products (
+    id             INT AUTO_INCREMENT PRIMARY KEY,
+    name           VARCHAR(255) NOT NULL,
+    price          DECIMAL(10, 2) NOT NULL DEFAULT 0,
+    cost_price     DECIMAL(10, 2) NOT NULL DEFAULT 0,
+    image_url      VARCHAR(512),
+    brand          VARCHAR(255),
+    specification  VARCHAR(255),
+    manufacturer   VARCHAR(255),
+    category       VARCHAR(255),
+    note           TEXT
+);
+
+CREATE TABLE IF NOT EXISTS product_barcodes (
+    barcode     VARCHAR(64) PRIMARY KEY,
+    product_id  INT NOT NULL,
+    FOREIGN KEY (product_id) REFERENCES products (id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS orders (
+    id            INT AUTO_INCREMENT PRIMARY KEY,
+    total_amount  DECIMAL(10, 2) NOT NULL,
+    total_items   INT NOT NULL,
+    create_time   TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS order_items (
+    id        INT AUTO_INCREMENT PRIMARY KEY,
+    order_id  INT NOT NULL,
+    barcode   VARCHAR(64) NOT NULL,
+    name      VARCHAR(255),
+    price     DECIMAL(10, 2) NOT NULL,
+    quantity  INT NOT NULL
+);
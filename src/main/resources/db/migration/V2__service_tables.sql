@@ -0,0 +1,37 @@
+-- 原来散在各组件里、首次用到时才建的表，统一在这里建
+
+-- 收银台生成的订单号 -> 后台订单 ID，主键唯一保证同一笔订单只会入库一次
+CREATE TABLE IF NOT EXISTS order_client_ids (
+    client_order_id  VARCHAR(64) PRIMARY KEY,
+    order_id         INT NOT NULL
+);
+
+-- 结账日志：已经落库的最大日志序号
+CREATE TABLE IF NOT EXISTS order_journal_checkpoint (
+    id          INT PRIMARY KEY,
+    applied_seq BIGINT NOT NULL
+);
+INSERT IGNORE INTO order_journal_checkpoint (id, applied_seq) VALUES (1, 0);
+
+-- 库存：每个管库存的商品一行；水位之前的订单已经扣进库存表
+CREATE TABLE IF NOT EXISTS product_stock (
+    product_id  INT PRIMARY KEY,
+    quantity    BIGINT NOT NULL DEFAULT 0
+);
+CREATE TABLE IF NOT EXISTS stock_checkpoint (
+    id               INT PRIMARY KEY,
+    applied_order_id BIGINT NOT NULL
+);
+INSERT IGNORE INTO stock_checkpoint (id, applied_order_id) VALUES (1, 0);
+
+-- 商品目录版本号（单行）和每个版本改过的商品
+CREATE TABLE IF NOT EXISTS catalog_version (
+    id      INT PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+INSERT IGNORE INTO catalog_version (id, version) VALUES (1, 0);
+CREATE TABLE IF NOT EXISTS catalog_changes (
+    version     BIGINT NOT NULL,
+    product_id  INT NOT NULL,
+    PRIMARY KEY (version, product_id)
+);
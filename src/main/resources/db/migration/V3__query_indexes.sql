@@ -0,0 +1,13 @@
+-- 连接和过滤用到的列补上索引，扫码、看板、单品统计都走索引而不是全表扫描
+
+-- 扫码按条码查商品；老库的条码表不一定有主键，单独建一个
+CREATE INDEX idx_product_barcodes_barcode ON product_barcodes (barcode);
+-- 按商品找它的所有条码（单品销量、改商品时刷新条码索引）
+CREATE INDEX idx_product_barcodes_product_id ON product_barcodes (product_id);
+
+-- 明细按订单取、按条码汇总
+CREATE INDEX idx_order_items_order_id ON order_items (order_id);
+CREATE INDEX idx_order_items_barcode ON order_items (barcode);
+
+-- 按结账时间取一段订单（今日统计、流水导出）
+CREATE INDEX idx_orders_create_time ON orders (create_time);
@@ -0,0 +1,6 @@
+-- 从库延迟检测：后台定期往主库写当前时间（毫秒），再从从库读回来比较
+CREATE TABLE IF NOT EXISTS replication_heartbeat (
+    id      INT PRIMARY KEY,
+    beat_at BIGINT NOT NULL
+);
+INSERT IGNORE INTO replication_heartbeat (id, beat_at) VALUES (1, 0);
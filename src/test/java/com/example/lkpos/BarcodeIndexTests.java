@@ -0,0 +1,122 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ExternalProductCache.ImageLocalized;
+import com.example.lkpos.ProductController.Product;
+import com.example.lkpos.ProductController.ProductMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 条码索引：命中、未命中，商品改了、删了提交后立即生效；
+ * 全量加载读表期间新建的商品不会被加载的快照盖掉；云端图片下到本地后，按云端地址保存的商品换成本地路径。
+ * 每个用例用自己的条码，谁先跑都不互相影响。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:barcode_index;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class BarcodeIndexTests {
+
+    @Autowired
+    BarcodeIndex barcodeIndex;
+
+    @Autowired
+    ProductController controller;
+
+    @Autowired
+    ProductMapper productMapper;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    private static Product product(String name, double price, String... barcodes) {
+        Product p = new Product();
+        p.name = name;
+        p.price = price;
+        p.costPrice = price / 2;
+        p.barcodes = List.of(barcodes);
+        return p;
+    }
+
+    @Test
+    void answersHitsAndMissesFromTheLoadedTable() {
+        jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (9001, '可乐', 3.5, 2.0)");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('7101', 9001), ('7101-box', 9001)");
+        barcodeIndex.reload();
+
+        assertTrue(barcodeIndex.isReady());
+        Product hit = barcodeIndex.lookup("7101");
+        assertNotNull(hit);
+        assertEquals("可乐", hit.name);
+        assertEquals(3.5, hit.price);
+        assertEquals(9001, hit.id);
+        assertEquals(9001, barcodeIndex.lookup("7101-box").id);
+        assertNull(barcodeIndex.lookup("7100"));
+    }
+
+    @Test
+    void updatesAndDeletesTakeEffectOnCommit() {
+        barcodeIndex.reload();
+        assertEquals("success", controller.addProduct(product("口香糖", 1.0, "7201", "7202")));
+        assertEquals("口香糖", barcodeIndex.lookup("7202").name);
+
+        Product renamed = product("无糖口香糖", 1.5);
+        assertEquals("success", controller.updateProduct("7201", renamed));
+        assertEquals("无糖口香糖", barcodeIndex.lookup("7201").name);
+        assertEquals(1.5, barcodeIndex.lookup("7202").price);
+
+        // 删除时它的所有条码一起摘掉
+        assertEquals("success", controller.deleteProduct("7202"));
+        assertNull(barcodeIndex.lookup("7201"));
+        assertNull(barcodeIndex.lookup("7202"));
+    }
+
+    @Test
+    void productCreatedWhileReloadIsReadingTheTableIsNotLost() {
+        // 加载读完整张表之后、发布快照之前，另一个请求新建了商品并提交
+        ProductMapper reading = mock(ProductMapper.class, delegatesTo(productMapper));
+        doAnswer(invocation -> {
+            List<Product> rows = productMapper.findAllBarcodeEntries();
+            assertEquals("success", controller.addProduct(product("薯片", 6.0, "7301")));
+            return rows;
+        }).when(reading).findAllBarcodeEntries();
+
+        ReflectionTestUtils.setField(barcodeIndex, "productMapper", reading);
+        try {
+            barcodeIndex.reload();
+        } finally {
+            ReflectionTestUtils.setField(barcodeIndex, "productMapper", productMapper);
+        }
+        assertEquals("薯片", barcodeIndex.lookup("7301").name);
+    }
+
+    @Test
+    void savedProductSwitchesToTheLocalImageOnceDownloaded() {
+        barcodeIndex.reload();
+        Product p = product("苏打水", 3.0, "7401");
+        p.imageUrl = "https://img.example.com/7401.jpg";
+        assertEquals("success", controller.addProduct(p));
+        assertEquals("https://img.example.com/7401.jpg", barcodeIndex.lookup("7401").imageUrl);
+
+        controller.onImageLocalized(new ImageLocalized("https://img.example.com/7401.jpg", "/uploads/ab/7401.jpg"));
+        assertEquals("/uploads/ab/7401.jpg", barcodeIndex.lookup("7401").imageUrl);
+        assertEquals("/uploads/ab/7401.jpg", jdbc.queryForObject(
+                "SELECT p.image_url FROM products p JOIN product_barcodes pb ON pb.product_id = p.id WHERE pb.barcode = '7401'", String.class));
+    }
+}
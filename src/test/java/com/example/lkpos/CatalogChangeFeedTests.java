@@ -0,0 +1,74 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.CatalogDelta;
+import com.example.lkpos.ProductController.Product;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 商品目录版本：目录没变时列表回 304，变了之后按版本号拉增量，拿到改过的商品和被删的 ID。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:catalog_feed;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class CatalogChangeFeedTests {
+
+    @Autowired
+    ProductController products;
+
+    private static Product product(String name, double price, String... barcodes) {
+        Product p = new Product();
+        p.name = name;
+        p.price = price;
+        p.costPrice = price / 2;
+        p.barcodes = new ArrayList<>(List.of(barcodes));
+        return p;
+    }
+
+    @Test
+    void listingIsConditionalAndChangesFollowVersions() {
+        ResponseEntity<List<Product>> initial = products.getAllProducts(null, null, null, null);
+        String etag = initial.getHeaders().getETag();
+        long since = Long.parseLong(initial.getHeaders().getFirst(ProductController.CATALOG_VERSION_HEADER));
+        assertEquals(HttpStatus.NOT_MODIFIED, products.getAllProducts(null, null, null, etag).getStatusCode());
+
+        assertEquals("success", products.addProduct(product("可乐", 3.5, "6901", "6902")));
+        assertEquals("success", products.addProduct(product("口香糖", 1.0, "6903")));
+        // 条码重复，整单回滚，不占版本号
+        assertEquals("error", products.addProduct(product("山寨可乐", 1.0, "6901")));
+
+        ResponseEntity<List<Product>> changed = products.getAllProducts(null, null, null, etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertEquals(since + 2, Long.parseLong(changed.getHeaders().getFirst(ProductController.CATALOG_VERSION_HEADER)));
+        assertEquals(2, changed.getBody().size());
+
+        assertEquals("success", products.updateProduct("6901", product("可乐零度", 4.0)));
+        assertEquals("success", products.deleteProduct("6903"));
+
+        CatalogDelta delta = products.getCatalogChanges(since + 2);
+        assertEquals(since + 4, delta.version);
+        assertFalse(delta.resync);
+        assertEquals(1, delta.products.size());
+        assertEquals("可乐零度", delta.products.get(0).name);
+        assertEquals(List.of("6901", "6902"), delta.products.get(0).barcodes);
+        assertEquals(1, delta.deleted.size());
+
+        // 已经是最新版本：空增量
+        CatalogDelta none = products.getCatalogChanges(delta.version);
+        assertEquals(delta.version, none.version);
+        assertEquals(0, none.products.size() + none.deleted.size());
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.lkpos;
+
+import com.example.lkpos.CatalogImport.Format;
+import com.example.lkpos.CatalogImport.ImportProgress;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 商品目录导入：十万个商品的供应商目录一次导完，坏行和条码冲突逐行报告，不影响其他行；
+ * 每批行数配成 0 或负数时启动就报错。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:catalog_import;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class CatalogImportTests {
+
+    private static final int SKUS = 100_000;
+
+    @Autowired
+    CatalogImport catalogImport;
+
+    @Autowired
+    BarcodeIndex barcodeIndex;
+
+    @Autowired
+    CatalogVersions catalogVersions;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Test
+    void supplierCatalogLoadsInBatchesAndReportsBadRows() {
+        jdbc.update("INSERT INTO products (name, price, cost_price) VALUES ('老商品', 1.0, 0.5)");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) SELECT '690000000007', MAX(id) FROM products");
+        barcodeIndex.reload();
+        long versionBefore = catalogVersions.current();
+        int productsBefore = jdbc.queryForObject("SELECT COUNT(*) FROM products", Integer.class);
+        int barcodesBefore = jdbc.queryForObject("SELECT COUNT(*) FROM product_barcodes", Integer.class);
+
+        // Excel 导出的文件开头带 BOM，中文表头
+        StringBuilder csv = new StringBuilder("\uFEFF名称,售价,进价,条码,品牌,分类\n");
+        for (int i = 0; i < SKUS; i++) {
+            csv.append("商品").append(i).append(',').append(1 + i % 50).append(".5,1.2,")
+                    .append(i % 10 == 0 ? "\"69" + (1_000_000_000L + i) + "|79" + (1_000_000_000L + i) + "\"" : "69" + (1_000_000_000L + i))
+                    .append(",品牌").append(i % 100).append(",\"饮料, 零食\"\n");
+        }
+        csv.append("\"多行\n备注的商品\",2.0,1.0,880000000001,,\n"); // 字段里带换行
+        csv.append("没有条码,2.0,1.0,,,\n");
+        csv.append("价格不对,abc,1.0,880000000002,,\n");
+        csv.append("库里已有,2.0,1.0,690000000007,,\n");
+        csv.append("文件里重复,2.0,1.0,691000000001,,\n"); // 和第 2 个商品的条码相同
+
+        ImportProgress result = catalogImport.importCatalog(
+                new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), Format.CSV, StandardCharsets.UTF_8);
+
+        assertEquals("done", result.state);
+        assertEquals(SKUS + 5, result.rowsRead);
+        assertEquals(SKUS + 1, result.imported);
+        assertEquals(2, result.rejected);
+        assertEquals(2, result.conflicts);
+        assertEquals(4, result.getErrors().size());
+        assertEquals(SKUS + 4, result.getErrors().get(0).line); // 跨两行的那条记录之后
+
+        assertEquals(productsBefore + SKUS + 1, jdbc.queryForObject("SELECT COUNT(*) FROM products", Integer.class));
+        assertEquals(barcodesBefore + SKUS + SKUS / 10 + 1, jdbc.queryForObject("SELECT COUNT(*) FROM product_barcodes", Integer.class));
+        assertEquals("饮料, 零食", jdbc.queryForObject(
+                "SELECT p.category FROM products p JOIN product_barcodes pb ON pb.product_id = p.id WHERE pb.barcode = '791000000010'", String.class));
+        assertEquals("多行\n备注的商品", jdbc.queryForObject(
+                "SELECT p.name FROM products p JOIN product_barcodes pb ON pb.product_id = p.id WHERE pb.barcode = '880000000001'", String.class));
+
+        // 导完马上能扫到，目录版本前进，收银台拉增量就能拿到
+        assertNotNull(barcodeIndex.lookup("691000099999"));
+        assertEquals("商品99999", barcodeIndex.lookup("691000099999").name);
+        assertTrue(catalogVersions.current() > versionBefore);
+    }
+
+    @Test
+    void ndjsonRowsAcceptBarcodeListOrString() {
+        String ndjson = "{\"name\":\"GBK 文件里的口香糖\",\"price\":1.5,\"barcodes\":[\"770000000001\",\"770000000002\"]}\n"
+                + "\n"
+                + "{\"name\":\"可乐\",\"price\":3,\"costPrice\":2,\"barcode\":\"770000000003, 770000000004\"}\n"
+                + "{\"name\":\"坏行\",\"price\":\n";
+        Charset gbk = Charset.forName("GBK");
+        ImportProgress result = catalogImport.importCatalog(new ByteArrayInputStream(ndjson.getBytes(gbk)), Format.NDJSON, gbk);
+        assertEquals(2, result.imported);
+        assertEquals(1, result.rejected);
+        assertEquals(4, result.getErrors().get(0).line);
+        assertEquals("GBK 文件里的口香糖", jdbc.queryForObject(
+                "SELECT p.name FROM products p JOIN product_barcodes pb ON pb.product_id = p.id WHERE pb.barcode = '770000000002'", String.class));
+        assertEquals(2, jdbc.queryForObject(
+                "SELECT COUNT(*) FROM product_barcodes pb JOIN products p ON pb.product_id = p.id WHERE p.name = '可乐'", Integer.class));
+    }
+
+    @Test
+    void nonPositiveBatchSizeIsRejectedAtStartup() {
+        Exception e = assertThrows(Exception.class, () -> new SpringApplicationBuilder(LkPosApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:catalog_import_bad_batch;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.main.banner-mode=off",
+                        "--lkpos.import.batch-rows=0"));
+        Throwable root = NestedExceptionUtils.getMostSpecificCause(e);
+        assertTrue(root instanceof IllegalStateException, String.valueOf(root));
+        assertTrue(root.getMessage().contains("lkpos.import.batch-rows"), root.getMessage());
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 看板推送：一阵结账高峰只推有限几次，几个看板同时开着也不会多查库。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:dashboard_stream;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+        "management.server.port=0",
+        "lkpos.dashboard.push-window=300ms"
+})
+class DashboardStreamTests {
+
+    private static final int SCREENS = 3;
+    private static final int ORDERS = 300;
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    OrderWriter orderWriter;
+
+    @Autowired
+    DashboardStream dashboardStream;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Autowired
+    BarcodeIndex barcodeIndex;
+
+    @Autowired
+    SalesAggregates salesAggregates;
+
+    private static OrderRequest order() {
+        OrderItem item = new OrderItem();
+        item.barcode = "6901";
+        item.name = "可乐";
+        item.price = 3.5;
+        item.quantity = 1;
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(List.of(item));
+        request.totalItems = 1;
+        request.totalAmount = 3.5;
+        return request;
+    }
+
+    @Test
+    void burstOfCheckoutsIsCoalescedIntoFewPushes() throws Exception {
+        jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (1, '可乐', 3.5, 2.0)");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('6901', 1)");
+        barcodeIndex.reload();
+        salesAggregates.rebuild();
+
+        HttpClient client = HttpClient.newHttpClient();
+        List<List<String>> received = new ArrayList<>();
+        List<InputStream> streams = new ArrayList<>();
+        for (int i = 0; i < SCREENS; i++) {
+            HttpResponse<InputStream> response = client.send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/stats/dashboard/stream")).build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            assertEquals(200, response.statusCode());
+            List<String> events = new CopyOnWriteArrayList<>();
+            received.add(events);
+            streams.add(response.body());
+            Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                    String line;
+                    String name = null;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("event:")) {
+                            name = line.substring("event:".length()).trim();
+                        } else if (line.startsWith("data:") && name != null) {
+                            events.add(name + " " + line.substring("data:".length()));
+                            name = null;
+                        }
+                    }
+                } catch (Exception ignored) {
+                    // 测试结束关流
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+        waitFor(() -> dashboardStream.subscriberCount() == SCREENS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ORDERS; i++) {
+            orderWriter.save(order());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        waitFor(() -> received.stream().allMatch(e -> e.stream().anyMatch(x -> x.startsWith("topProducts "))));
+        Thread.sleep(600); // 等最后一个窗口推完
+
+        // 每个看板：一份快照 + 每个窗口最多一次 today，榜单只在变了时推
+        long maxPushes = (long) Math.ceil(seconds / 0.3) + 2;
+        for (List<String> events : received) {
+            assertTrue(events.get(0).startsWith("snapshot "));
+            List<String> todays = events.stream().filter(e -> e.startsWith("today ")).toList();
+            assertTrue(!todays.isEmpty() && todays.size() <= maxPushes, ORDERS + " 单推了 " + todays.size() + " 次");
+            assertTrue(todays.size() < ORDERS / 10);
+            // 最后一次推送是最终结果
+            assertTrue(todays.get(todays.size() - 1).contains("\"orderCount\":" + ORDERS), todays.get(todays.size() - 1));
+        }
+        for (InputStream s : streams) {
+            s.close();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ExternalProductCache.ImageLocalized;
+import com.example.lkpos.ProductController.Product;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用本地假 ShowAPI 服务器验证云端查询的合并、缓存和后台图片下载；
+ * 图片下好之前、或者下载失败时，返回的都是云端原图地址；下好之后通知已保存的商品换成本地路径。
+ */
+class ExternalProductCacheTests {
+
+    private static final byte[] IMAGE = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+
+    @TempDir
+    Path uploads;
+
+    private HttpServer server;
+    private final AtomicInteger apiCalls = new AtomicInteger();
+    private final List<Object> events = new CopyOnWriteArrayList<>();
+    private ImageStore imageStore;
+    private ExternalProductCache cache;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/66-22", this::handleLookup);
+        server.createContext("/img.jpg", ex -> respond(ex, "image/jpeg", IMAGE));
+        server.createContext("/gone.jpg", ex -> {
+            ex.sendResponseHeaders(404, -1);
+            ex.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        ProductLookup lookup = new ShowApiProductLookup(new ObjectMapper(), base + "/66-22", "test-key", Duration.ofSeconds(1), Duration.ofSeconds(2));
+        imageStore = new ImageStore(uploads.toString(), new int[]{200});
+        cache = new ExternalProductCache(lookup, imageStore, events::add, Duration.ofHours(1), Duration.ofMinutes(1), 100, 4);
+    }
+
+    @AfterEach
+    void stopStub() {
+        cache.shutdown();
+        imageStore.shutdown();
+        server.stop(0);
+    }
+
+    // 6901 有资料，6902 有资料但图片下载不下来，其它条码查无此码；故意慢一点，让并发查询有机会撞在一起
+    private void handleLookup(HttpExchange ex) throws IOException {
+        apiCalls.incrementAndGet();
+        String form = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException ignored) {
+        }
+        String body;
+        if (form.contains("code=6901")) {
+            String img = "http://127.0.0.1:" + server.getAddress().getPort() + "/img.jpg";
+            body = "{\"showapi_res_code\":0,\"showapi_res_body\":{\"goodsName\":\"可乐\",\"price\":\"3.5\",\"img\":\"" + img + "\"}}";
+        } else if (form.contains("code=6902")) {
+            String img = "http://127.0.0.1:" + server.getAddress().getPort() + "/gone.jpg";
+            body = "{\"showapi_res_code\":0,\"showapi_res_body\":{\"goodsName\":\"口香糖\",\"price\":\"1.0\",\"img\":\"" + img + "\"}}";
+        } else {
+            body = "{\"showapi_res_code\":0,\"showapi_res_body\":{}}";
+        }
+        respond(ex, "application/json", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange ex, String type, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    void concurrentLookupsForSameBarcodeShareOneRemoteCall() throws Exception {
+        List<CompletableFuture<Product>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(cache.fetch("6901"));
+        }
+        for (CompletableFuture<Product> f : futures) {
+            Product p = f.get(5, TimeUnit.SECONDS);
+            assertEquals("可乐", p.name);
+            assertEquals(3.5, p.price);
+        }
+        assertEquals(1, apiCalls.get());
+
+        // 之后再查直接命中缓存，而且拿到的是副本，改了也不影响缓存
+        Product again = cache.fetch("6901").get(1, TimeUnit.SECONDS);
+        again.name = "被改掉了";
+        assertEquals("可乐", cache.fetch("6901").get(1, TimeUnit.SECONDS).name);
+        assertEquals(1, apiCalls.get());
+    }
+
+    @Test
+    void unknownBarcodeIsNegativelyCached() throws Exception {
+        assertNull(cache.fetch("0000").get(5, TimeUnit.SECONDS));
+        assertNull(cache.fetch("0000").get(5, TimeUnit.SECONDS));
+        assertEquals(1, apiCalls.get());
+    }
+
+    @Test
+    void imageIsDownloadedInBackground() throws Exception {
+        // 下载完成之前先给云端地址，不会给出一个还不存在的本地路径
+        Product p = cache.fetch("6901").get(5, TimeUnit.SECONDS);
+        assertNotNull(p.imageUrl);
+        assertTrue(p.imageUrl.startsWith("http://"));
+        String remote = p.imageUrl;
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        // 先换缓存、再发通知，等到通知发出来两步就都做完了
+        while (events.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        String localUrl = cache.fetch("6901").get(1, TimeUnit.SECONDS).imageUrl;
+        assertTrue(localUrl.startsWith("/uploads/"));
+        Path local = imageStore.resolve(localUrl.substring("/uploads/".length()));
+        assertTrue(Files.exists(local));
+        assertEquals(IMAGE.length, Files.size(local));
+        assertEquals(1, apiCalls.get());
+
+        // 拿着第一次查到的云端地址保存的商品，也能换成本地路径
+        assertEquals(localUrl, cache.localImage("6901", remote));
+        assertEquals(1, events.size());
+        ImageLocalized localized = (ImageLocalized) events.get(0);
+        assertEquals(remote, localized.remoteUrl);
+        assertEquals(localUrl, localized.localUrl);
+    }
+
+    @Test
+    void failedDownloadKeepsTheRemoteImageUrl() throws Exception {
+        String remote = cache.fetch("6902").get(5, TimeUnit.SECONDS).imageUrl;
+        assertTrue(remote.endsWith("/gone.jpg"));
+        // 给后台下载留足时间，失败之后缓存里仍然是云端地址
+        Thread.sleep(500);
+        assertEquals(remote, cache.fetch("6902").get(1, TimeUnit.SECONDS).imageUrl);
+        assertEquals(remote, cache.localImage("6902", remote));
+        assertTrue(events.isEmpty());
+        assertEquals(1, apiCalls.get());
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.lkpos;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 图片仓库和下载：同样的内容只存一份；缩略图在后台生成；
+ * 缩略图没好时先给原图但不让缓存；好了之后带强 ETag，带上 If-None-Match 回 304；
+ * 永远生成不了缩略图的（原图太窄、格式解不开），原图就是结果，照常长期缓存。
+ */
+class ImageStoreTests {
+
+    @TempDir
+    Path dir;
+
+    private ImageStore store;
+    private ImageController controller;
+
+    @BeforeEach
+    void setUp() {
+        store = new ImageStore(dir.toString(), new int[]{600, 200});
+        controller = new ImageController();
+        ReflectionTestUtils.setField(controller, "imageStore", store);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+    }
+
+    private static byte[] png(int width, int height, int rgb) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            image.setRGB(x, 0, rgb);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    private MockHttpServletResponse get(String fileName, Integer w, String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/uploads/" + fileName);
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.getImage(fileName, w, request, response);
+        return response;
+    }
+
+    private long originals() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    void sameContentIsStoredOnce() throws Exception {
+        byte[] red = png(10, 10, 0xFF0000);
+        String first = store.store(new ByteArrayInputStream(red));
+        String second = store.store(new ByteArrayInputStream(red));
+        assertEquals(first, second);
+        assertTrue(first.matches("/uploads/[0-9a-f]{64}\\.png"), first);
+
+        String other = store.store(new ByteArrayInputStream(png(10, 10, 0x00FF00)));
+        assertNotEquals(first, other);
+        assertEquals(2, originals());
+        assertNull(store.resolve("../etc/passwd.png"));
+    }
+
+    @Test
+    void thumbnailsAreGeneratedForEveryWidthSmallerThanTheOriginal() throws Exception {
+        String url = store.store(new ByteArrayInputStream(png(800, 400, 0x0000FF)));
+        Path original = store.resolve(url.substring(ImageStore.URL_PREFIX.length()));
+
+        await(() -> store.thumbnail(original, 600) != null && store.thumbnail(original, 200) != null);
+        BufferedImage small = ImageIO.read(store.thumbnail(original, 150).toFile());
+        assertEquals(200, small.getWidth());
+        assertEquals(100, small.getHeight());
+        assertEquals(600, ImageIO.read(store.thumbnail(original, 500).toFile()).getWidth());
+        // 比最大一档还宽：没有缩略图，原图就是结果
+        assertEquals(original, store.thumbnail(original, 1000));
+    }
+
+    @Test
+    void originalServedWhileThumbnailIsPendingIsNotCached() throws Exception {
+        // 直接放进目录，不经过 store()，保证第一次请求时缩略图一定还没有
+        byte[] bytes = png(800, 400, 0xFFFF00);
+        String name = "a".repeat(64) + ".png";
+        Files.write(dir.resolve(name), bytes);
+
+        MockHttpServletResponse pending = get(name, 200, null);
+        assertEquals(200, pending.getStatus());
+        assertArrayEquals(bytes, pending.getContentAsByteArray());
+        assertEquals("no-cache", pending.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertNull(pending.getHeader(HttpHeaders.ETAG));
+
+        Path original = store.resolve(name);
+        await(() -> store.thumbnail(original, 200) != null);
+        MockHttpServletResponse thumb = get(name, 200, null);
+        assertEquals(200, thumb.getStatus());
+        assertEquals("\"" + "a".repeat(64) + "-w200\"", thumb.getHeader(HttpHeaders.ETAG));
+        assertEquals("public, max-age=31536000, immutable", thumb.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals(200, ImageIO.read(new ByteArrayInputStream(thumb.getContentAsByteArray())).getWidth());
+
+        // 要的宽度超过最大一档时原图就是最终结果，照常长期缓存
+        MockHttpServletResponse wide = get(name, 1000, null);
+        assertEquals("\"" + "a".repeat(64) + "\"", wide.getHeader(HttpHeaders.ETAG));
+        assertEquals("public, max-age=31536000, immutable", wide.getHeader(HttpHeaders.CACHE_CONTROL));
+    }
+
+    @Test
+    void imagesThatCannotBeThumbnailedAreServedAsFinal() throws Exception {
+        // 比 200 那一档还窄
+        String narrow = store.store(new ByteArrayInputStream(png(150, 100, 0x00FFFF))).substring(ImageStore.URL_PREFIX.length());
+        // ImageIO 解不开的 webp
+        byte[] webp = "RIFF\0\0\0\0WEBPVP8 not really an image".getBytes(StandardCharsets.ISO_8859_1);
+        String undecodable = store.store(new ByteArrayInputStream(webp)).substring(ImageStore.URL_PREFIX.length());
+        assertTrue(undecodable.endsWith(".webp"), undecodable);
+
+        for (String name : new String[]{narrow, undecodable}) {
+            Path original = store.resolve(name);
+            await(() -> store.thumbnail(original, 200) != null);
+            assertEquals(original, store.thumbnail(original, 200));
+
+            MockHttpServletResponse response = get(name, 200, null);
+            assertArrayEquals(Files.readAllBytes(original), response.getContentAsByteArray());
+            String etag = "\"" + name.substring(0, 64) + "\"";
+            assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+            assertEquals("public, max-age=31536000, immutable", response.getHeader(HttpHeaders.CACHE_CONTROL));
+            assertEquals(304, get(name, 200, etag).getStatus());
+        }
+        // 只留了标记，没有生成任何缩略图
+        try (Stream<Path> thumbs = Files.list(dir.resolve("thumbs"))) {
+            assertTrue(thumbs.noneMatch(p -> p.toString().endsWith(".jpg")));
+        }
+    }
+
+    @Test
+    void matchingIfNoneMatchReturnsNotModified() throws Exception {
+        String url = store.store(new ByteArrayInputStream(png(10, 10, 0xFF00FF)));
+        String name = url.substring(ImageStore.URL_PREFIX.length());
+
+        MockHttpServletResponse full = get(name, null, null);
+        assertEquals(200, full.getStatus());
+        String etag = full.getHeader(HttpHeaders.ETAG);
+        assertEquals("\"" + name.substring(0, 64) + "\"", etag);
+
+        MockHttpServletResponse cached = get(name, null, etag);
+        assertEquals(304, cached.getStatus());
+        assertEquals(0, cached.getContentAsByteArray().length);
+
+        assertEquals(200, get(name, null, "\"" + "0".repeat(64) + "\"").getStatus());
+        assertEquals(404, get("missing.png", null, null).getStatus());
+    }
+}
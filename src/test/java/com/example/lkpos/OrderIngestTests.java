@@ -0,0 +1,121 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import com.example.lkpos.OrderIngest.IngestResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 离线补录：一台收银台一整天的订单一次同步，重发不重复入库，结账时间按收银台记录的来。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:order_ingest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class OrderIngestTests {
+
+    private static final int ORDERS = 3000;
+
+    @Autowired
+    OrderIngest orderIngest;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    private static OrderRequest order(String clientOrderId, LocalDateTime time, int lines) {
+        OrderRequest request = new OrderRequest();
+        request.clientOrderId = clientOrderId;
+        request.createTime = time;
+        request.items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            OrderItem item = new OrderItem();
+            item.barcode = "69" + (1000 + i);
+            item.name = "商品" + i;
+            item.price = 2.5;
+            item.quantity = 1;
+            request.items.add(item);
+        }
+        request.totalItems = lines;
+        request.totalAmount = 2.5 * lines;
+        return request;
+    }
+
+    @Test
+    void dayOfOfflineOrdersSyncsOnceAndKeepsTillTimestamps() {
+        LocalDateTime opening = LocalDateTime.of(2026, 3, 1, 8, 0);
+        List<OrderRequest> day = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            day.add(order("till7-" + i, opening.plusSeconds(i * 15L), 1 + i % 6));
+        }
+        // 同一请求里重发一单、再夹一单没有订单号的
+        day.add(order("till7-42", opening, 1));
+        day.add(order(null, opening, 1));
+
+        IngestResult first = orderIngest.ingest(day);
+
+        assertEquals(ORDERS, first.created);
+        assertEquals(1, first.duplicates);
+        assertEquals(1, first.failed);
+        assertEquals(day.size(), first.results.size());
+        assertEquals("till7-0", first.results.get(0).clientOrderId);
+        assertEquals("created", first.results.get(0).status);
+        assertEquals("duplicate", first.results.get(ORDERS).status);
+        assertEquals("rejected", first.results.get(ORDERS + 1).status);
+
+        // 网络抖动整批重发：一单都不会多
+        List<OrderRequest> resend = new ArrayList<>(day.subList(ORDERS - 500, ORDERS));
+        resend.add(order("till7-new", opening.plusHours(13), 2));
+        IngestResult second = orderIngest.ingest(resend);
+        assertEquals(1, second.created);
+        assertEquals(500, second.duplicates);
+        assertEquals(first.results.get(ORDERS - 1).orderId, second.results.get(499).orderId);
+
+        assertEquals(ORDERS + 1, jdbc.queryForObject("SELECT COUNT(*) FROM orders", Integer.class));
+        assertEquals(ORDERS + 1, jdbc.queryForObject("SELECT COUNT(*) FROM order_client_ids", Integer.class));
+        int expectedLines = 2;
+        for (int i = 0; i < ORDERS; i++) {
+            expectedLines += 1 + i % 6;
+        }
+        assertEquals(expectedLines, jdbc.queryForObject("SELECT COUNT(*) FROM order_items", Integer.class));
+
+        // 结账时间用收银台记录的，不是同步的时刻
+        Integer orderId = first.results.get(100).orderId;
+        assertEquals(opening.plusSeconds(1500), jdbc.queryForObject(
+                "SELECT create_time FROM orders WHERE id = ?", LocalDateTime.class, orderId));
+        // 明细挂在正确的订单上
+        assertEquals(1 + 100 % 6, jdbc.queryForObject(
+                "SELECT COUNT(*) FROM order_items WHERE order_id = ?", Integer.class, orderId));
+    }
+
+    @Test
+    void nonPositiveBatchSizeIsRejectedAtStartup() {
+        Exception e = assertThrows(Exception.class, () -> new SpringApplicationBuilder(LkPosApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:order_ingest_bad_batch;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.main.banner-mode=off",
+                        "--lkpos.ingest.batch-orders=0"));
+        Throwable root = NestedExceptionUtils.getMostSpecificCause(e);
+        assertTrue(root instanceof IllegalStateException, String.valueOf(root));
+        assertTrue(root.getMessage().contains("lkpos.ingest.batch-orders"), root.getMessage());
+    }
+}
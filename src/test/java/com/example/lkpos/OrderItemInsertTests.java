@@ -0,0 +1,76 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.Order;
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 结账明细用多行 INSERT 写入：不管购物车多大，写明细的语句数只随 {@link OrderWriter#ITEM_BATCH_SIZE} 分批增长。
+ * 语句数取自 SqlMetrics 按语句记的 lkpos.sql 计时器，走的是真正的结账写入路径。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:order_items_insert;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class OrderItemInsertTests {
+
+    @Autowired
+    OrderWriter orderWriter;
+
+    @Autowired
+    MeterRegistry registry;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    // 某条 Mapper 语句到目前为止成功执行了几次
+    private long executions(String statement) {
+        Timer timer = registry.find("lkpos.sql").tag("statement", statement).tag("outcome", "SUCCESS").timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private static OrderRequest cart(int size) {
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            OrderItem item = new OrderItem();
+            item.barcode = String.valueOf(6900000000000L + i);
+            item.name = "商品" + i;
+            item.price = 3.5;
+            item.quantity = 1;
+            request.items.add(item);
+        }
+        request.totalItems = size;
+        request.totalAmount = size * 3.5;
+        return request;
+    }
+
+    @Test
+    void lineItemsAreWrittenWithOneStatementPerBatch() {
+        int batch = OrderWriter.ITEM_BATCH_SIZE;
+        for (int size : List.of(1, 10, 40, 200, batch, batch + 1, 2 * batch + 7)) {
+            long orders = executions("OrderMapper.insertOrder");
+            long multiRow = executions("OrderMapper.insertOrderItems");
+
+            Order order = orderWriter.save(cart(size));
+
+            assertEquals(1, executions("OrderMapper.insertOrder") - orders);
+            assertEquals((size + batch - 1) / batch, executions("OrderMapper.insertOrderItems") - multiRow, "cart=" + size);
+            assertEquals(size, jdbc.queryForObject("SELECT COUNT(*) FROM order_items WHERE order_id = ?", Integer.class, order.id));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 结账日志：fsync 之后、落库之前进程被杀，重启回放不丢单也不重单，写了一半的尾巴被截掉；
+ * 落不了库的坏订单移入死信文件，不挡住后面的订单。
+ */
+class OrderJournalTests {
+
+    @TempDir
+    Path journalDir;
+
+    // 锁等待设短：测试会锁住检查点行来拦住回放线程
+    private static String url(String db) {
+        return "jdbc:h2:mem:" + db + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=200";
+    }
+
+    private ConfigurableApplicationContext start(String db, String... extra) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.datasource.url=" + url(db),
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+                "--lkpos.journal.enabled=true",
+                "--lkpos.journal.dir=" + journalDir,
+                "--lkpos.journal.retry-delay=50ms",
+                "--spring.main.banner-mode=off"));
+        args.addAll(List.of(extra));
+        return new SpringApplicationBuilder(LkPosApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args.toArray(String[]::new));
+    }
+
+    // 每单金额不同，重单时能看出来
+    private static OrderRequest order(int n, String name) {
+        OrderItem item = new OrderItem();
+        item.barcode = "6901";
+        item.name = name;
+        item.price = n;
+        item.quantity = 1;
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(List.of(item));
+        request.totalItems = 1;
+        request.totalAmount = n;
+        return request;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    private static int orderCount(JdbcTemplate jdbc) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM orders", Integer.class);
+    }
+
+    // 在另一个连接里锁住检查点行，回放线程拿不到锁就落不了库
+    private static Connection lockCheckpoint(String db) throws Exception {
+        Connection conn = DriverManager.getConnection(url(db), "sa", "");
+        conn.setAutoCommit(false);
+        try (Statement st = conn.createStatement()) {
+            st.executeQuery("SELECT applied_seq FROM order_journal_checkpoint WHERE id = 1 FOR UPDATE").close();
+        }
+        return conn;
+    }
+
+    private Path lastSegment() throws Exception {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("orders-")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+    }
+
+    @Test
+    void killedBetweenFsyncAndDrainReplaysWithoutLossOrDuplicates() throws Exception {
+        String db = "journal_replay";
+        Path segment;
+        long intactSize;
+        try (ConfigurableApplicationContext before = start(db)) {
+            JdbcTemplate jdbc = before.getBean(JdbcTemplate.class);
+            OrderJournal journal = before.getBean(OrderJournal.class);
+            for (int n = 1; n <= 3; n++) {
+                journal.append(order(n, "可乐"));
+            }
+            await(() -> orderCount(jdbc) == 3);
+
+            // 后 4 单 fsync 成功、前台已经收到成功，但还没落库进程就没了
+            try (Connection lock = lockCheckpoint(db)) {
+                for (int n = 4; n <= 7; n++) {
+                    assertEquals(n, journal.append(order(n, "可乐")));
+                }
+                before.close();
+                try (Statement st = lock.createStatement(); ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM orders")) {
+                    rs.next();
+                    assertEquals(3, rs.getInt(1));
+                }
+                lock.rollback();
+            }
+
+            // 再模拟一条写了一半的记录：头部完整，正文只写了一部分
+            segment = lastSegment();
+            intactSize = Files.size(segment);
+            try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ch.write(ByteBuffer.allocate(12 + 10).putInt(100).putLong(8).put("{\"totalAmo".getBytes(StandardCharsets.UTF_8)).flip());
+            }
+        }
+
+        try (Connection lock = lockCheckpoint(db)) {
+            try (ConfigurableApplicationContext after = start(db)) {
+                // 启动恢复时尾巴已经截掉（回放还被锁着，分段文件不会被删）
+                assertEquals(intactSize, Files.size(segment));
+                lock.commit();
+
+                JdbcTemplate jdbc = after.getBean(JdbcTemplate.class);
+                OrderJournal journal = after.getBean(OrderJournal.class);
+                await(() -> jdbc.queryForObject("SELECT applied_seq FROM order_journal_checkpoint WHERE id = 1", Long.class) == 7);
+                assertEquals(7, orderCount(jdbc));
+                assertEquals(7, jdbc.queryForObject("SELECT COUNT(DISTINCT total_amount) FROM orders", Integer.class));
+
+                // 截掉的那条从没回复过前台，序号可以重新用
+                assertEquals(8, journal.append(order(8, "可乐")));
+                await(() -> orderCount(jdbc) == 8);
+                assertEquals(0, journal.deadLettered());
+            }
+        }
+    }
+
+    @Test
+    void recordThatCannotBeWrittenIsDeadLetteredAndLaterOrdersStillLand() throws Exception {
+        try (ConfigurableApplicationContext ctx = start("journal_dead_letter", "--lkpos.journal.max-attempts=2")) {
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            OrderJournal journal = ctx.getBean(OrderJournal.class);
+            journal.append(order(1, "可乐"));
+            // 商品名超过 order_items.name 的长度，这一单怎么重试都写不进去
+            journal.append(order(2, "长".repeat(300)));
+            journal.append(order(3, "可乐"));
+            journal.append(order(4, "可乐"));
+
+            await(() -> jdbc.queryForObject("SELECT applied_seq FROM order_journal_checkpoint WHERE id = 1", Long.class) == 4);
+            assertEquals(3, orderCount(jdbc));
+            assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM orders WHERE total_amount = 2", Integer.class));
+            assertEquals(1, journal.deadLettered());
+            assertEquals(0, journal.backlog());
+
+            List<String> deadLetters = Files.readAllLines(journalDir.resolve("dead-letter.ndjson"));
+            assertEquals(1, deadLetters.size());
+            assertTrue(deadLetters.get(0).startsWith("{\"seq\":2,"), deadLetters.get(0));
+        }
+    }
+}
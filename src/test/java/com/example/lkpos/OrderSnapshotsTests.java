@@ -0,0 +1,136 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.Order;
+import com.example.lkpos.OrderController.OrderMapper;
+import com.example.lkpos.OrderWriter.OrderCommitted;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 全量重建和并发结账：重建开始前就在途、重建途中才提交的订单（号比别的小也一样），
+ * 快照前提交但事件晚到的订单，快照后提交的订单，重建完每一单都恰好算一次。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:order_snapshots;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class OrderSnapshotsTests {
+
+    @Autowired
+    OrderSnapshots orderSnapshots;
+
+    @Autowired
+    OrderMapper orderMapper;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    private final Object lock = new Object();
+    private final OrderSnapshots.Catchup catchup = new OrderSnapshots.Catchup();
+
+    // 写库都放到别的线程：当前线程在重建时拿着只读的快照事务
+    private Order commit() {
+        return CompletableFuture.supplyAsync(() -> {
+            Order order = new Order();
+            order.totalItems = 1;
+            orderMapper.insertOrder(order);
+            return order;
+        }).join();
+    }
+
+    // 相当于组件的提交事件回调
+    private void deliver(Order order) {
+        synchronized (lock) {
+            catchup.offer(new OrderCommitted(order, List.of(), LocalDateTime.now()));
+        }
+    }
+
+    @Test
+    void everyOrderIsCountedExactlyOnceWhateverItCommitsDuringTheRebuild() throws Exception {
+        commit();
+        commit();
+
+        // 号最小的这单先插入、一直不提交，直到重建已经读完历史
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Order> inFlight = new AtomicReference<>();
+        CompletableFuture<Void> held = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            Order order = new Order();
+            order.totalItems = 1;
+            orderMapper.insertOrder(order);
+            inFlight.set(order);
+            inserted.countDown();
+            try {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        assertTrue(inserted.await(10, TimeUnit.SECONDS));
+
+        // 重建开始前提交、回调还没跑到的订单
+        Order lateEvent = commit();
+
+        Set<Integer> published = new HashSet<>();
+        List<Integer> applied = new ArrayList<>();
+        orderSnapshots.rebuild(lock, catchup, () -> {
+            // 开始记录之后、读历史之前提交的订单
+            Order beforeRead = commit();
+            deliver(beforeRead);
+
+            Set<Integer> ids = new HashSet<>(jdbc.queryForList("SELECT id FROM orders", Integer.class));
+
+            // 读完历史之后：在途的那单提交，又来一单新的，迟到的回调也到了
+            release.countDown();
+            held.join();
+            deliver(inFlight.get());
+            Order afterRead = commit();
+            deliver(afterRead);
+            deliver(lateEvent);
+            assertFalse(ids.contains(inFlight.get().id));
+            assertFalse(ids.contains(afterRead.id));
+            assertTrue(ids.contains(lateEvent.id));
+            return ids;
+        }, (ids, event) -> {
+            applied.add(event.order.id);
+            assertTrue(ids.add(event.order.id), "counted twice: " + event.order.id);
+        }, published::addAll);
+
+        Set<Integer> all = new HashSet<>(jdbc.queryForList("SELECT id FROM orders", Integer.class));
+        assertEquals(6, all.size());
+        assertEquals(all, published);
+        // 在途那单的号比快照里已经有的订单小，按 MAX(id) 当水位线就会漏掉它
+        assertTrue(applied.contains(inFlight.get().id));
+        assertTrue(inFlight.get().id < lateEvent.id);
+        assertFalse(applied.contains(lateEvent.id));
+
+        // 重建结束后不再记录
+        int before = applied.size();
+        deliver(commit());
+        orderSnapshots.rebuild(lock, catchup, HashSet<Integer>::new, (ids, event) -> applied.add(event.order.id), ids -> { });
+        assertEquals(before, applied.size());
+    }
+}
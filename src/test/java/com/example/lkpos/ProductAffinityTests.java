@@ -0,0 +1,228 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import com.example.lkpos.ProductAffinity.Affinity;
+import com.example.lkpos.ProductAffinity.AffinityResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * 经常一起买：人为埋进去的组合排第一，支持度、置信度、lift 和逐单数出来的一致；
+ * 按时间段查只算这段时间的订单；新订单提交后立即计入，和重新扫一遍列存的结果一致；
+ * 条码索引没就绪时提交的订单不会漏掉，稍后重新加载时计入。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:product_affinity;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+        "lkpos.affinity.rebuild-retry=100ms"
+})
+class ProductAffinityTests {
+
+    private static final int PRODUCTS = 200;
+    private static final int ORDERS = 100_000;
+    private static final LocalDateTime OPENING = LocalDateTime.of(2026, 1, 1, 8, 0);
+    private static final LocalDateTime MARCH = LocalDateTime.of(2026, 3, 1, 0, 0);
+
+    @Autowired
+    ProductAffinity productAffinity;
+
+    @MockitoSpyBean
+    BarcodeIndex barcodeIndex;
+
+    @Autowired
+    OrderWriter orderWriter;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    // 第 i 个商品的条码
+    private static String barcode(int i) {
+        return "7000" + i;
+    }
+
+    private static OrderRequest order(int... productIndexes) {
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>();
+        for (int i : productIndexes) {
+            OrderItem item = new OrderItem();
+            item.barcode = barcode(i);
+            item.name = "商品" + i;
+            item.price = 2.0;
+            item.quantity = 2;
+            request.items.add(item);
+            request.totalItems += 2;
+            request.totalAmount += 4.0;
+        }
+        return request;
+    }
+
+    @Test
+    void frequentlyBoughtTogether() {
+        List<Object[]> products = new ArrayList<>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            products.add(new Object[]{"商品" + i});
+        }
+        jdbc.batchUpdate("INSERT INTO products (name, price, cost_price) VALUES (?, 2.0, 1.0)", products);
+        List<Integer> ids = jdbc.queryForList("SELECT id FROM products ORDER BY id", Integer.class);
+        List<Object[]> barcodes = new ArrayList<>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            barcodes.add(new Object[]{barcode(i), ids.get(i)});
+        }
+        jdbc.batchUpdate("INSERT INTO product_barcodes (barcode, product_id) VALUES (?, ?)", barcodes);
+        barcodeIndex.reload();
+
+        // 随机购物篮，再埋几组固定搭配：
+        // 每 10 单里有一单同时买 0 和 1；1、2 月 2 和 4 常一起买，3 月换成 2 和 3
+        Random random = new Random(7);
+        List<Set<Integer>> baskets = new ArrayList<>();
+        List<LocalDateTime> times = new ArrayList<>();
+        List<Object[]> orderRows = new ArrayList<>();
+        for (int k = 0; k < ORDERS; k++) {
+            LocalDateTime time = OPENING.plusSeconds(k * 77L);
+            Set<Integer> basket = new LinkedHashSet<>();
+            int size = 1 + random.nextInt(5);
+            while (basket.size() < size) {
+                basket.add(5 + random.nextInt(PRODUCTS - 5));
+            }
+            if (k % 10 == 0) {
+                basket.add(0);
+                basket.add(1);
+            }
+            if (k % 25 == 0) {
+                basket.add(2);
+                basket.add(time.isBefore(MARCH) ? 4 : 3);
+            }
+            baskets.add(basket);
+            times.add(time);
+            orderRows.add(new Object[]{basket.size() * 4.0, basket.size() * 2, time});
+        }
+        jdbc.batchUpdate("INSERT INTO orders (total_amount, total_items, create_time) VALUES (?, ?, ?)", orderRows);
+        List<Integer> orderIds = jdbc.queryForList("SELECT id FROM orders ORDER BY id", Integer.class);
+        List<Object[]> itemRows = new ArrayList<>();
+        for (int k = 0; k < ORDERS; k++) {
+            for (int p : baskets.get(k)) {
+                itemRows.add(new Object[]{orderIds.get(k), barcode(p), "商品" + p});
+            }
+            // 同一商品扫了两行，只算一次
+            if (k % 10 == 0) {
+                itemRows.add(new Object[]{orderIds.get(k), barcode(1), "商品1"});
+            }
+        }
+        jdbc.batchUpdate("INSERT INTO order_items (order_id, barcode, name, price, quantity) VALUES (?, ?, ?, 2.0, 2)", itemRows);
+
+        productAffinity.reload();
+
+        // 埋的组合排第一，指标和逐单数出来的一致
+        AffinityResult chips = productAffinity.topAssociated(ids.get(0), 5, null, null);
+        assertEquals(ORDERS, chips.totalOrders);
+        assertEquals(ORDERS / 10, chips.orders);
+        Affinity top = chips.associations.get(0);
+        assertEquals(ids.get(1), top.productId);
+        assertEquals("商品1", top.name);
+        assertEquals(ORDERS / 10, top.orders);
+        assertEquals(ORDERS / 10 * 4L, top.units); // 每单两行各 2 件
+        assertEquals(1.0, top.confidence, 1e-9);
+        assertEquals(0.1, top.support, 1e-9);
+        int withOne = 0;
+        for (Set<Integer> basket : baskets) {
+            withOne += basket.contains(1) ? 1 : 0;
+        }
+        assertEquals((double) ORDERS / withOne, top.lift, 1e-9);
+        assertTrue(chips.associations.size() <= 5);
+        for (int i = 1; i < chips.associations.size(); i++) {
+            assertTrue(chips.associations.get(i - 1).lift >= chips.associations.get(i).lift);
+        }
+
+        // 按时间段：1、2 月和 3 月的搭配不一样
+        AffinityResult winter = productAffinity.topAssociated(ids.get(2), 3, OPENING, MARCH);
+        AffinityResult march = productAffinity.topAssociated(ids.get(2), 3, MARCH, MARCH.plusMonths(1));
+        assertEquals(ids.get(4), winter.associations.get(0).productId);
+        assertEquals(ids.get(3), march.associations.get(0).productId);
+        long beforeMarch = times.stream().filter(t -> t.isBefore(MARCH)).count();
+        assertEquals(beforeMarch, winter.totalOrders);
+        assertEquals(ORDERS - beforeMarch, march.totalOrders);
+
+        // 新订单提交后立即计入
+        AffinityResult before = productAffinity.topAssociated(ids.get(0), 5, null, null);
+        for (int i = 0; i < 5; i++) {
+            orderWriter.save(order(0, 1, 1, 9));
+        }
+        AffinityResult after = productAffinity.topAssociated(ids.get(0), 5, null, null);
+        assertEquals(before.totalOrders + 5, after.totalOrders);
+        assertEquals(before.orders + 5, after.orders);
+        assertEquals(before.associations.get(0).orders + 5, after.associations.get(0).orders);
+        assertEquals(before.associations.get(0).units + 20, after.associations.get(0).units);
+
+        // 增量累加的结果和重新扫一遍列存（fork-join 分片并行）完全一致
+        AffinityResult rescanned = productAffinity.topAssociated(ids.get(0), 5,
+                LocalDateTime.of(2000, 1, 1, 0, 0), LocalDateTime.of(2100, 1, 1, 0, 0));
+        assertEquals(after.totalOrders, rescanned.totalOrders);
+        assertEquals(after.associations.size(), rescanned.associations.size());
+        for (int i = 0; i < after.associations.size(); i++) {
+            assertEquals(after.associations.get(i).productId, rescanned.associations.get(i).productId);
+            assertEquals(after.associations.get(i).orders, rescanned.associations.get(i).orders);
+            assertEquals(after.associations.get(i).units, rescanned.associations.get(i).units);
+            assertEquals(after.associations.get(i).lift, rescanned.associations.get(i).lift, 1e-9);
+        }
+    }
+
+    @Test
+    void ordersCommittedBeforeTheIndexIsReadyAreCountedByTheRetriedReload() throws Exception {
+        // 另一个用例按商品 ID 排序取商品、数总单数，这里用完把自己的商品和订单删干净
+        jdbc.update("INSERT INTO products (name, price, cost_price) VALUES ('试吃装', 2.0, 1.0)");
+        Integer id = jdbc.queryForObject("SELECT id FROM products WHERE name = '试吃装'", Integer.class);
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES (?, ?)", barcode(999), id);
+        Integer orderId = null;
+        try {
+            barcodeIndex.reload();
+            productAffinity.reload();
+            int totalBefore = productAffinity.topAssociated(id, 5, null, null).totalOrders;
+
+            // 条码索引没就绪：对不上商品，先停用，而不是把这一单整个漏掉
+            doReturn(false).when(barcodeIndex).isReady();
+            orderId = orderWriter.save(order(999)).id;
+            assertFalse(productAffinity.isReady());
+
+            // 稍后自动重新加载，这一单由 SQL 对到商品，计入总单数和这个商品
+            doCallRealMethod().when(barcodeIndex).isReady();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!productAffinity.isReady()) {
+                assertTrue(System.currentTimeMillis() < deadline, "reload was not retried");
+                Thread.sleep(20);
+            }
+            AffinityResult result = productAffinity.topAssociated(id, 5, null, null);
+            assertEquals(totalBefore + 1, result.totalOrders);
+            assertEquals(1, result.orders);
+        } finally {
+            doCallRealMethod().when(barcodeIndex).isReady();
+            if (orderId != null) {
+                jdbc.update("DELETE FROM order_items WHERE order_id = ?", orderId);
+                jdbc.update("DELETE FROM orders WHERE id = ?", orderId);
+            }
+            jdbc.update("DELETE FROM product_barcodes WHERE product_id = ?", id);
+            jdbc.update("DELETE FROM products WHERE id = ?", id);
+            barcodeIndex.reload();
+            productAffinity.reload();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.ResolvedBarcode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 批量扫码：结果顺序和请求一致，重复的条码各答各的，查不到的和空条码 found=false；
+ * 条码索引预热好时查内存，没好时退回一条 IN 查询，两条路答案一样、都不带进价；一次最多 1000 个。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:product_resolve;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class ProductResolveTests {
+
+    // 同一个商品挂两个条码，顺序故意和商品 ID 不一致
+    private static final List<String> REQUEST = Arrays.asList(
+            "6902", "0000", "6901", null, "6902", "6901-box", "", "6902");
+
+    @Autowired
+    ProductController controller;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @MockitoSpyBean
+    BarcodeIndex barcodeIndex;
+
+    @BeforeEach
+    void seed() {
+        if (jdbc.queryForObject("SELECT COUNT(*) FROM products", Integer.class) == 0) {
+            jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (1, '可乐', 3.5, 2.0), (2, '口香糖', 1.0, 0.5)");
+            jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('6901', 1), ('6901-box', 1), ('6902', 2)");
+        }
+        doCallRealMethod().when(barcodeIndex).isReady();
+        barcodeIndex.reload();
+        clearInvocations(barcodeIndex);
+    }
+
+    private List<ResolvedBarcode> resolve(List<String> barcodes) {
+        ResponseEntity<List<ResolvedBarcode>> response = controller.resolveBarcodes(barcodes);
+        assertEquals(200, response.getStatusCode().value());
+        return response.getBody();
+    }
+
+    private static void assertResolved(List<ResolvedBarcode> result) {
+        assertEquals(REQUEST.size(), result.size());
+        for (int i = 0; i < REQUEST.size(); i++) {
+            assertEquals(REQUEST.get(i), result.get(i).barcode, "position " + i);
+        }
+        // 重复的条码每次都有自己的一份结果，带回扫中的那个条码
+        for (int i : new int[]{0, 4, 7}) {
+            assertTrue(result.get(i).found);
+            assertEquals(2, result.get(i).product.id);
+            assertEquals("口香糖", result.get(i).product.name);
+            assertEquals("6902", result.get(i).product.barcode);
+        }
+        assertEquals(1, result.get(2).product.id);
+        assertEquals("6901", result.get(2).product.barcode);
+        assertEquals(1, result.get(5).product.id);
+        assertEquals("6901-box", result.get(5).product.barcode);
+        // 查不到的、空的条码不会被丢掉
+        for (int i : new int[]{1, 3, 6}) {
+            assertFalse(result.get(i).found, "position " + i);
+            assertNull(result.get(i).product);
+        }
+    }
+
+    @Test
+    void warmIndexAnswersFromMemory() {
+        List<ResolvedBarcode> result = resolve(REQUEST);
+        assertResolved(result);
+        // 每个结果都是独立的副本，改一个不影响别的
+        result.get(0).product.name = "改过";
+        assertEquals("口香糖", result.get(4).product.name);
+    }
+
+    @Test
+    void coldIndexFallsBackToOneInQuery() {
+        doReturn(false).when(barcodeIndex).isReady();
+        List<ResolvedBarcode> result = resolve(REQUEST);
+        verify(barcodeIndex, never()).lookup(any());
+        assertResolved(result);
+
+        // 全是空条码时不发 IN ()
+        assertFalse(resolve(Arrays.asList(null, null)).get(1).found);
+    }
+
+    @Test
+    void scanResponsesCarryNoCostPrice() {
+        // 索引行里有进价（看板要用），但前台扫码不管走内存还是查库都不返回
+        assertEquals(2.0, barcodeIndex.lookup("6901").costPrice);
+        assertEquals(0.0, controller.getProductByBarcode("6901").costPrice);
+        assertEquals(0.0, resolve(List.of("6901")).get(0).product.costPrice);
+
+        doReturn(false).when(barcodeIndex).isReady();
+        assertEquals(0.0, controller.getProductByBarcode("6901").costPrice);
+        assertEquals(0.0, resolve(List.of("6901")).get(0).product.costPrice);
+        // 返回的副本清掉进价，不会改到索引里的共享对象
+        assertEquals(2.0, barcodeIndex.lookup("6901").costPrice);
+    }
+
+    @Test
+    void batchIsCappedAtOneThousandCodes() {
+        List<ResolvedBarcode> full = resolve(new ArrayList<>(Collections.nCopies(ProductController.MAX_RESOLVE_BATCH, "6901")));
+        assertEquals(1000, full.size());
+        assertTrue(full.stream().allMatch(r -> r.found));
+
+        List<String> tooMany = new ArrayList<>(Collections.nCopies(ProductController.MAX_RESOLVE_BATCH + 1, "6901"));
+        assertEquals(400, controller.resolveBarcodes(tooMany).getStatusCode().value());
+        assertEquals(400, controller.resolveBarcodes(null).getStatusCode().value());
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.lkpos;
+
+import com.example.lkpos.ProductController.Product;
+import com.example.lkpos.ProductController.ProductMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 商品搜索：十万商品的目录里，中文子串、拼音首字母、多词组合都能搜到；改名删除后立即生效，
+ * 全量构建读表期间改的名也不会被构建的旧数据盖掉。
+ * 联想查询的耗时看 JMH 基准（SearchBenchmark）。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:product_search;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class ProductSearchTests {
+
+    private static final int CATALOG = 100_000;
+
+    private static final String[] BRANDS = {"康师傅", "统一", "农夫山泉", "蒙牛", "伊利", "乐事", "旺旺", "达利园", "三只松鼠", "良品铺子"};
+    private static final String[] ITEMS = {"红烧牛肉面", "绿茶", "矿泉水", "纯牛奶", "酸奶", "薯片", "雪饼", "蛋黄派", "夏威夷果", "猪肉脯"};
+    private static final String[] SPECS = {"500ml", "330ml", "1L", "250g", "80g", "12袋装"};
+
+    @Autowired
+    ProductSearch productSearch;
+
+    @Autowired
+    ProductController productController;
+
+    @Autowired
+    ProductMapper productMapper;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    private static List<String> names(List<Product> products) {
+        return products.stream().map(p -> p.name).toList();
+    }
+
+    @Test
+    void typeaheadOverLargeCatalog() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < CATALOG; i++) {
+            String brand = BRANDS[i % BRANDS.length];
+            rows.add(new Object[]{brand + ITEMS[(i / 10) % ITEMS.length] + (i / 100), 3.5, 2.0, brand,
+                    SPECS[i % SPECS.length], "食品饮料", brand + "食品有限公司"});
+        }
+        jdbc.batchUpdate("INSERT INTO products (name, price, cost_price, brand, specification, category, manufacturer) VALUES (?, ?, ?, ?, ?, ?, ?)", rows);
+        jdbc.update("INSERT INTO products (name, price, cost_price, brand, specification) VALUES ('可口可乐', 3.5, 2.0, '可口可乐', '330ml')");
+        jdbc.update("INSERT INTO products (name, price, cost_price, brand, specification) VALUES ('百事可乐 Max', 3.5, 2.0, '百事', '500ml')");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) SELECT '6901', id FROM products WHERE name = '可口可乐'");
+        productSearch.reload();
+
+        // 名称开头命中的排在前面，带回条码方便直接加购
+        List<Product> cola = productSearch.search("可乐", 10);
+        assertEquals(List.of("可口可乐", "百事可乐 Max"), names(cola));
+        assertEquals("6901", cola.get(0).barcode);
+        // 拼音首字母、英文大小写和全角
+        assertEquals(List.of("可口可乐"), names(productSearch.search("kkkl", 10)));
+        assertEquals(List.of("百事可乐 Max"), names(productSearch.search("ＭＡＸ", 10)));
+        assertEquals(List.of("百事可乐 Max"), names(productSearch.search("bskl", 10)));
+        // 多个词同时命中：品牌 + 规格
+        List<Product> milk = productSearch.search("蒙牛 250g", 50);
+        assertTrue(!milk.isEmpty() && milk.stream().allMatch(p -> p.name.startsWith("蒙牛") && "250g".equals(p.specification)));
+        assertTrue(productSearch.search("可乐 1L", 10).isEmpty());
+
+        // 改名、删除在提交后立即反映到搜索结果里
+        Integer id = cola.get(0).id;
+        Product renamed = new Product();
+        renamed.name = "可口可乐零度";
+        renamed.price = 4.0;
+        renamed.costPrice = 2.0;
+        assertEquals("success", productController.updateProduct("6901", renamed));
+        assertEquals("可口可乐零度", productSearch.search("零度", 10).get(0).name);
+        assertEquals("success", productController.deleteProduct("6901"));
+        assertTrue(productSearch.search("零度", 10).isEmpty());
+        assertTrue(productSearch.search("kkkl", 10).stream().noneMatch(p -> p.id.equals(id)));
+    }
+
+    @Test
+    void productRenamedWhileReloadIsReadingTheTableIsNotLost() {
+        jdbc.update("INSERT INTO products (name, price, cost_price, brand) VALUES ('北冰洋汽水', 4.0, 2.0, '北冰洋')");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) SELECT '6911', id FROM products WHERE name = '北冰洋汽水'");
+        productSearch.reload();
+
+        // 构建读完整张表之后、发布索引之前，另一个请求给商品改了名并提交
+        Product renamed = new Product();
+        renamed.name = "北冰洋橘子汽水";
+        renamed.price = 4.5;
+        renamed.costPrice = 2.0;
+        ProductMapper reading = mock(ProductMapper.class, delegatesTo(productMapper));
+        doAnswer(invocation -> {
+            List<Product> rows = productMapper.findPage(null, null, null);
+            assertEquals("success", productController.updateProduct("6911", renamed));
+            return rows;
+        }).when(reading).findPage(any(), any(), any());
+
+        ReflectionTestUtils.setField(productSearch, "productMapper", reading);
+        try {
+            productSearch.reload();
+        } finally {
+            ReflectionTestUtils.setField(productSearch, "productMapper", productMapper);
+        }
+        assertEquals(List.of("北冰洋橘子汽水"), names(productSearch.search("北冰洋", 10)));
+        assertEquals(List.of("北冰洋橘子汽水"), names(productSearch.search("橘子", 10)));
+    }
+}
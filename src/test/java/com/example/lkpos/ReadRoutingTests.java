@@ -0,0 +1,137 @@
+package com.example.lkpos;
+
+import com.example.lkpos.DataSourceConfig.RoutingDataSource;
+import com.example.lkpos.OrderController.Order;
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 读写分离：两个内存库分别当主库和从库，两边放不同的数据，看查询实际落在哪个库上。
+ * 报表查询走从库、结账写主库，流水和订单明细读主库（刚结的单马上能看到）；
+ * 从库落后超过上限后报表查询回到主库。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing_primary;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "lkpos.reporting.datasource.url=" + ReadRoutingTests.REPLICA_URL,
+        "lkpos.reporting.max-lag=5s",
+        // 心跳由测试自己触发
+        "lkpos.reporting.heartbeat-interval=1h",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class ReadRoutingTests {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:routing_replica;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static JdbcTemplate replica;
+
+    @Autowired
+    ReadRouting readRouting;
+
+    @Autowired
+    RoutingDataSource routingDataSource;
+
+    @Autowired
+    ProductController productController;
+
+    @Autowired
+    OrderController orderController;
+
+    // 默认走主库
+    @Autowired
+    JdbcTemplate jdbc;
+
+    // 从库的表结构由复制同步过来，这里直接跑一遍迁移脚本
+    @BeforeAll
+    static void createReplica() throws Exception {
+        replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        Resource[] scripts = new PathMatchingResourcePatternResolver().getResources("classpath*:db/migration/V*__*.sql");
+        Arrays.sort(scripts, Comparator.comparingInt(r -> Integer.parseInt(r.getFilename().replaceAll("^V(\\d+)__.*", "$1"))));
+        new ResourceDatabasePopulator(scripts).execute(replica.getDataSource());
+    }
+
+    private static void seedProduct(JdbcTemplate db) {
+        db.update("INSERT INTO products (id, name, price, cost_price) VALUES (1, '可乐', 3.5, 2.0)");
+        db.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('6901', 1)");
+    }
+
+    private static OrderRequest order(int quantity) {
+        OrderItem item = new OrderItem();
+        item.barcode = "6901";
+        item.name = "可乐";
+        item.price = 3.5;
+        item.quantity = quantity;
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(List.of(item));
+        request.totalItems = quantity;
+        request.totalAmount = 3.5 * quantity;
+        return request;
+    }
+
+    private static void replicateHeartbeat(long beatAt) {
+        replica.update("UPDATE replication_heartbeat SET beat_at = ? WHERE id = 1", beatAt);
+    }
+
+    @Test
+    void reportingReadsUseReplicaAndFallBackWhenItLags() {
+        seedProduct(jdbc);
+        seedProduct(replica);
+        // 只在从库上放一单，用来区分查询落在哪个库
+        replica.update("INSERT INTO orders (id, total_amount, total_items) VALUES (100, 17.5, 5)");
+        replica.update("INSERT INTO order_items (order_id, barcode, name, price, quantity) VALUES (100, '6901', '可乐', 3.5, 5)");
+
+        // 从库追上了：报表查询读从库
+        replicateHeartbeat(System.currentTimeMillis());
+        readRouting.checkLag();
+        assertTrue(routingDataSource.isReplicaUsable());
+        assertEquals(5, productController.getProductStats(1).get("totalSales"));
+
+        // 结账写主库，从库上看不到
+        assertEquals("success", orderController.createOrder(order(2)).getBody());
+        assertEquals(1, jdbc.queryForObject("SELECT COUNT(*) FROM orders", Integer.class));
+        assertEquals(1, replica.queryForObject("SELECT COUNT(*) FROM orders", Integer.class));
+        assertEquals(5, productController.getProductStats(1).get("totalSales"));
+
+        // 流水和明细读主库：刚结的单马上能翻到，从库那单不会出现
+        List<Order> orders = orderController.getAllOrders();
+        assertEquals(1, orders.size());
+        assertNotEquals(100, orders.get(0).id);
+        List<OrderItem> items = orderController.getOrderItems(orders.get(0).id);
+        assertEquals(1, items.size());
+        assertEquals(2, items.get(0).quantity);
+
+        // 心跳停在一分钟前：从库落后太多，报表查询回到主库
+        replicateHeartbeat(System.currentTimeMillis() - 60_000);
+        readRouting.checkLag();
+        assertFalse(routingDataSource.isReplicaUsable());
+        assertTrue(readRouting.lagMillis() >= 60_000);
+        assertEquals(2, productController.getProductStats(1).get("totalSales"));
+
+        // 追上之后切回从库
+        replicateHeartbeat(System.currentTimeMillis());
+        readRouting.checkLag();
+        assertTrue(routingDataSource.isReplicaUsable());
+        assertEquals(5, productController.getProductStats(1).get("totalSales"));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * 看板常驻汇总：逐单增量累加的结果和从数据库全量重建的一致；
+ * 条码索引没就绪时先回退到 SQL，随后自动重建恢复。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:sales_aggregates;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+        "lkpos.dashboard.rebuild-retry=100ms"
+})
+class SalesAggregatesTests {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 1);
+
+    @Autowired
+    SalesAggregates salesAggregates;
+
+    @Autowired
+    OrderWriter orderWriter;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @MockitoSpyBean
+    BarcodeIndex barcodeIndex;
+
+    private static OrderRequest order(LocalDateTime time, String... barcodes) {
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>();
+        for (String barcode : barcodes) {
+            OrderItem item = new OrderItem();
+            item.barcode = barcode;
+            item.name = barcode;
+            item.price = 1;
+            item.quantity = barcode.length() % 3 + 1;
+            request.items.add(item);
+            request.totalItems += item.quantity;
+        }
+        request.createTime = time;
+        return request;
+    }
+
+    private void seedProducts() {
+        // 售价进价都是二进制下精确的小数，增量和 SQL 的求和顺序不同也不会有舍入差
+        for (int id = 1; id <= 8; id++) {
+            jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (?, ?, ?, ?)", id, "商品" + id, id * 1.25, id * 0.5);
+            jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES (?, ?)", "690" + id, id);
+        }
+    }
+
+    private Map<String, Object> snapshot() {
+        return Map.of("day1", salesAggregates.dayStats(DAY),
+                "day2", salesAggregates.dayStats(DAY.plusDays(1)),
+                "top", salesAggregates.topProducts());
+    }
+
+    @Test
+    void incrementalUpdatesMatchRebuildAndRecoverWhenIndexWasNotReady() throws Exception {
+        seedProducts();
+        barcodeIndex.reload();
+        salesAggregates.rebuild();
+
+        LocalDateTime t = DAY.atTime(9, 0);
+        orderWriter.save(order(t, "6901", "6902", "6903"));
+        orderWriter.save(order(t.plusHours(3), "6904", "6904", "6905", "6906"));
+        orderWriter.save(order(t.plusHours(14), "6907", "6908", "6901"));
+        // 对不上商品的条码不计入，整单都对不上时不算单量
+        orderWriter.save(order(t.plusHours(15), "unknown"));
+        orderWriter.save(order(t.plusDays(1), "6902", "6903", "6908", "6901"));
+
+        assertTrue(salesAggregates.isReady());
+        Map<String, Object> incremental = snapshot();
+        assertEquals(3L, salesAggregates.dayStats(DAY).get("orderCount"));
+        salesAggregates.rebuild();
+        assertEquals(snapshot(), incremental);
+
+        // 条码索引没就绪：这一单没法增量累加，看板先回退到 SQL
+        doReturn(false).when(barcodeIndex).isReady();
+        orderWriter.save(order(t.plusDays(1).plusHours(1), "6905"));
+        assertFalse(salesAggregates.isReady());
+
+        // 稍后自动全量重建，这一单也算进去了
+        doCallRealMethod().when(barcodeIndex).isReady();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!salesAggregates.isReady()) {
+            assertTrue(System.currentTimeMillis() < deadline, "rebuild was not retried");
+            Thread.sleep(20);
+        }
+        assertEquals(2L, salesAggregates.dayStats(DAY.plusDays(1)).get("orderCount"));
+        Map<String, Object> recovered = snapshot();
+        salesAggregates.rebuild();
+        assertEquals(snapshot(), recovered);
+    }
+}
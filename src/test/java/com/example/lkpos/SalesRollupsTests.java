@@ -0,0 +1,158 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import com.example.lkpos.SalesRollups.Granularity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * 销售时间桶：桶边界按半开区间归属，可以只看某个商品，逐单增量和全量回填结果一致；
+ * 超过保留期的小时桶不留在内存里，查那段时间的小时线走数据库，数字不变；
+ * 条码索引没就绪时提交的订单不会被悄悄记成“无商品”，而是停用内存桶、稍后自动回填。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:sales_rollups;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+        "lkpos.rollups.hour-retention=3d",
+        "lkpos.rollups.rebuild-retry=100ms"
+})
+class SalesRollupsTests {
+
+    @Autowired
+    SalesRollups salesRollups;
+
+    @Autowired
+    OrderWriter orderWriter;
+
+    @MockitoSpyBean
+    BarcodeIndex barcodeIndex;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    private static OrderRequest order(LocalDateTime time, String barcode, int quantity, double price) {
+        OrderItem item = new OrderItem();
+        item.barcode = barcode;
+        item.name = barcode;
+        item.price = price;
+        item.quantity = quantity;
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(List.of(item));
+        request.totalItems = quantity;
+        request.totalAmount = quantity * price;
+        request.createTime = time;
+        return request;
+    }
+
+    private static long units(List<Map<String, Object>> series, int index) {
+        return (Long) series.get(index).get("units");
+    }
+
+    @Test
+    void bucketsSplitOnBoundariesFilterByProductAndMatchBackfill() {
+        jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (1, '可乐', 3.5, 2.0), (2, '口香糖', 1.25, 0.5)");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('6901', 1), ('6902', 2)");
+        barcodeIndex.reload();
+        salesRollups.backfill();
+
+        LocalDate day = LocalDate.now().minusDays(1);
+        LocalDateTime nine = day.atTime(9, 0);
+        LocalDateTime old = day.minusDays(10).atTime(12, 15);
+        orderWriter.save(order(nine.plusMinutes(59).plusSeconds(59), "6901", 1, 3.5));
+        orderWriter.save(order(nine.plusHours(1), "6901", 2, 3.5));
+        orderWriter.save(order(nine.plusHours(1).plusMinutes(30), "6902", 4, 1.25));
+        orderWriter.save(order(nine.plusHours(1).plusMinutes(45), "unknown", 8, 1.0));
+        orderWriter.save(order(day.atTime(23, 59, 59), "6902", 16, 1.25));
+        orderWriter.save(order(day.plusDays(1).atStartOfDay(), "6901", 32, 3.5));
+        // 超过保留期的老订单（离线补录）
+        orderWriter.save(order(old, "6901", 64, 3.5));
+        orderWriter.save(order(old.plusMinutes(10), "6902", 128, 1.25));
+
+        // 09:59:59 归 9 点，10:00 归 10 点；对不上商品的条码只计入全店
+        List<Map<String, Object>> hourly = salesRollups.series(Granularity.HOUR, nine, nine.plusHours(2), null);
+        assertEquals(2, hourly.size());
+        assertEquals(1, units(hourly, 0));
+        assertEquals(14, units(hourly, 1));
+        assertEquals(2.0 * 3.5 + 4 * 1.25 + 8.0, hourly.get(1).get("revenue"));
+        List<Map<String, Object>> cola = salesRollups.series(Granularity.HOUR, nine, nine.plusHours(2), 1);
+        assertEquals(1, units(cola, 0));
+        assertEquals(2, units(cola, 1));
+        assertEquals(4, units(salesRollups.series(Granularity.HOUR, nine, nine.plusHours(2), 2), 1));
+
+        // 23:59:59 归当天，00:00 归第二天
+        List<Map<String, Object>> daily = salesRollups.series(Granularity.DAY, day.atStartOfDay(), day.plusDays(2).atStartOfDay(), null);
+        assertEquals(1 + 14 + 16, units(daily, 0));
+        assertEquals(32, units(daily, 1));
+        assertEquals(16 + 4, salesRollups.unitsSold(2, day.atStartOfDay(), day.plusDays(1).atStartOfDay()));
+
+        // 老订单只进了天桶；它那个小时的小时线查库得到
+        assertEquals(4, salesRollups.hourBucketCount());
+        LocalDateTime oldHour = old.withMinute(0);
+        assertEquals(List.of(0L, 192L, 0L), salesRollups.series(Granularity.HOUR, oldHour.minusHours(1), oldHour.plusHours(2), null)
+                .stream().map(p -> p.get("units")).toList());
+        assertEquals(128, units(salesRollups.series(Granularity.HOUR, oldHour, oldHour.plusHours(1), 2), 0));
+        assertEquals(64, units(salesRollups.series(Granularity.DAY, old, old.plusDays(1), 1), 0));
+
+        // 跨保留期的整段小时线 + 天线：增量累加和全量回填一致
+        LocalDateTime from = old.toLocalDate().atStartOfDay();
+        LocalDateTime to = day.plusDays(2).atStartOfDay();
+        List<List<Map<String, Object>>> incremental = List.of(
+                salesRollups.series(Granularity.HOUR, from, to, null),
+                salesRollups.series(Granularity.HOUR, from, to, 1),
+                salesRollups.series(Granularity.DAY, from, to, null),
+                salesRollups.series(Granularity.DAY, from, to, 2));
+        salesRollups.backfill();
+        assertEquals(4, salesRollups.hourBucketCount());
+        assertEquals(incremental, List.of(
+                salesRollups.series(Granularity.HOUR, from, to, null),
+                salesRollups.series(Granularity.HOUR, from, to, 1),
+                salesRollups.series(Granularity.DAY, from, to, null),
+                salesRollups.series(Granularity.DAY, from, to, 2)));
+    }
+
+    @Test
+    void ordersCommittedBeforeTheIndexIsReadyAreAttributedByTheRetriedBackfill() throws Exception {
+        // 和另一个用例错开商品和日期（早于它查的整段时间），两个用例谁先跑都不互相影响
+        jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (3, '薯片', 6.0, 4.0)");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('6903', 3)");
+        barcodeIndex.reload();
+        salesRollups.backfill();
+
+        LocalDateTime t = LocalDate.now().minusDays(100).atTime(15, 0);
+        LocalDateTime day = t.toLocalDate().atStartOfDay();
+
+        // 条码索引没就绪：对不上商品，内存桶先停用，而不是只记进全店总量
+        doReturn(false).when(barcodeIndex).isReady();
+        orderWriter.save(order(t, "6903", 5, 6.0));
+        assertFalse(salesRollups.isReady());
+
+        // 稍后自动全量回填，商品归属由 SQL 算，这一单记到了薯片名下
+        doCallRealMethod().when(barcodeIndex).isReady();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!salesRollups.isReady()) {
+            assertTrue(System.currentTimeMillis() < deadline, "backfill was not retried");
+            Thread.sleep(20);
+        }
+        assertEquals(5, salesRollups.unitsSold(3, day, day.plusDays(1)));
+        assertEquals(5, units(salesRollups.series(Granularity.DAY, day, day.plusDays(1), 3), 0));
+    }
+}
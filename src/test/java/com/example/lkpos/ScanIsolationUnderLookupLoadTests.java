@@ -0,0 +1,142 @@
+package com.example.lkpos;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 舱壁隔离：云端查询被打满（每次 2 秒、几百个并发）的同时，扫码请求一个都不被拒、也不用排队等许可。
+ * Tomcat 只给 16 个线程，没有舱壁时慢查询足以把扫码饿死。
+ * 这里只断言隔离本身；扫码的 p50/p99 照常测出来记到日志里，但不设上限（和机器有关），细的延迟分布看 JMH 基准。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:scan_load;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+        "server.tomcat.threads.max=16"
+})
+class ScanIsolationUnderLookupLoadTests {
+
+    private static final Logger log = LoggerFactory.getLogger(ScanIsolationUnderLookupLoadTests.class);
+
+    private static final int LOOKUPS = 300;
+    private static final int SCANS = 2000;
+
+    @TestConfiguration
+    static class SlowLookupConfig {
+        // 模拟卡住的云端：每次查询 2 秒
+        @Bean
+        @Primary
+        ProductLookup slowLookup() {
+            return barcode -> {
+                Thread.sleep(2000);
+                return null;
+            };
+        }
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    @Autowired
+    BarcodeIndex barcodeIndex;
+
+    @Autowired
+    Bulkheads bulkheads;
+
+    @Test
+    void scansAreNeverRejectedOrQueuedWhileExternalLookupsAreSaturated() throws Exception {
+        jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (1, '可乐', 3.5, 2.0)");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('6901', 1)");
+        barcodeIndex.reload();
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        String base = "http://127.0.0.1:" + port;
+
+        // 1. 先把云端查询打满：每个请求用不同条码，合并和缓存都帮不上忙
+        List<CompletableFuture<HttpResponse<Void>>> lookups = new ArrayList<>();
+        for (int i = 0; i < LOOKUPS; i++) {
+            HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/api/products/fetch-external?barcode=9" + i)).build();
+            lookups.add(client.sendAsync(req, HttpResponse.BodyHandlers.discarding()));
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (bulkheads.inFlight(Bulkheads.Group.LOOKUP) < 8) {
+            assertTrue(System.currentTimeMillis() < deadline, "lookup bulkhead never filled up");
+            Thread.sleep(10);
+        }
+
+        // 2. 同时 8 个收银台不停扫码，记录每次扫码的耗时；查询组一直是满的
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService tills = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(tills.submit(() -> {
+                HttpRequest scan = HttpRequest.newBuilder(URI.create(base + "/api/products/6901")).build();
+                for (int i = 0; i < SCANS / 8; i++) {
+                    long start = System.nanoTime();
+                    HttpResponse<String> res = client.send(scan, HttpResponse.BodyHandlers.ofString());
+                    latencies.add(System.nanoTime() - start);
+                    assertEquals(200, res.statusCode());
+                    assertTrue(res.body().contains("可乐"));
+                }
+                return null;
+            }));
+        }
+        int lookupInFlightDuringScans = 0;
+        for (Future<?> f : futures) {
+            lookupInFlightDuringScans = Math.max(lookupInFlightDuringScans, bulkheads.inFlight(Bulkheads.Group.LOOKUP));
+            f.get(60, TimeUnit.SECONDS);
+        }
+        tills.shutdown();
+
+        int rejected = 0;
+        for (CompletableFuture<HttpResponse<Void>> f : lookups) {
+            if (f.get(60, TimeUnit.SECONDS).statusCode() == 503) {
+                rejected++;
+            }
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double p50 = sorted.get(sorted.size() / 2) / 1e6;
+        double p99 = sorted.get((int) (sorted.size() * 0.99)) / 1e6;
+        log.info("scan p50 {} ms, p99 {} ms over {} scans; {}/{} lookups shed by bulkhead",
+                String.format("%.2f", p50), String.format("%.2f", p99), sorted.size(), rejected, LOOKUPS);
+
+        // 查询组被打满、多余的被拒；扫码组没有一次被拒或排队
+        assertEquals(8, lookupInFlightDuringScans);
+        assertTrue(rejected > 0, "lookup bulkhead should shed excess load");
+        assertEquals(rejected, bulkheads.rejected(Bulkheads.Group.LOOKUP));
+        assertEquals(0, bulkheads.rejected(Bulkheads.Group.SCAN));
+        assertEquals(0, bulkheads.queued(Bulkheads.Group.SCAN));
+    }
+}
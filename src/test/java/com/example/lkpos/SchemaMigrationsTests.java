@@ -0,0 +1,130 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderMapper;
+import com.example.lkpos.ProductController.ProductMapper;
+import com.example.lkpos.StatsController.StatsMapper;
+import org.apache.ibatis.annotations.Select;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 表结构由迁移脚本建好并记录版本，重复执行不会重跑；执行到一半或者索引已经手工建过，再跑也不会报错；
+ * 扫码、看板、单品统计的查询计划里没有全表扫描（直接拿 Mapper 注解上的 SQL 做 EXPLAIN，改了 SQL 也能发现）。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:schema_migrations;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl"
+})
+class SchemaMigrationsTests {
+
+    @Autowired
+    SchemaMigrations schemaMigrations;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    // Mapper 方法上的 SQL，#{参数} 换成 JDBC 占位符
+    private static String sqlOf(Class<?> mapper, String method) {
+        Method m = Arrays.stream(mapper.getMethods()).filter(x -> x.getName().equals(method)).findFirst().orElseThrow();
+        return String.join(" ", m.getAnnotation(Select.class).value()).replaceAll("#\\{[^}]+}", "?");
+    }
+
+    private String explain(String sql, Object... args) {
+        return String.join("\n", jdbc.queryForList("EXPLAIN " + sql, String.class, args));
+    }
+
+    private void assertNoTableScan(String sql, Object... args) {
+        String plan = explain(sql, args);
+        assertFalse(plan.toLowerCase().contains("tablescan"), "full table scan:\n" + plan);
+    }
+
+    @Test
+    void migrationsCreateIndexedSchemaOnce() {
+        assertEquals(List.of(1, 2, 3, 4), jdbc.queryForList("SELECT version FROM schema_history ORDER BY version", Integer.class));
+        // 原来由各组件首次使用时才建的表和初始行也在
+        assertEquals(0L, jdbc.queryForObject("SELECT version FROM catalog_version WHERE id = 1", Long.class));
+        assertEquals(0L, jdbc.queryForObject("SELECT applied_order_id FROM stock_checkpoint WHERE id = 1", Long.class));
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM order_client_ids", Integer.class));
+
+        // 已执行的脚本不会再执行
+        schemaMigrations.migrate();
+        assertEquals(4, jdbc.queryForObject("SELECT COUNT(*) FROM schema_history", Integer.class));
+
+        // 造一些数据，让优化器在有索引和全表扫描之间真正做选择
+        List<Object[]> products = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            products.add(new Object[]{"商品" + i});
+        }
+        jdbc.batchUpdate("INSERT INTO products (name, price, cost_price) VALUES (?, 3.0, 2.0)", products);
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) SELECT CONCAT('69', id), id FROM products");
+        LocalDateTime day = LocalDate.of(2026, 1, 1).atStartOfDay();
+        List<Object[]> orders = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            orders.add(new Object[]{day.plusMinutes(i * 30L)});
+        }
+        jdbc.batchUpdate("INSERT INTO orders (total_amount, total_items, create_time) VALUES (3.0, 1, ?)", orders);
+        jdbc.update("INSERT INTO order_items (order_id, barcode, name, price, quantity) " +
+                "SELECT o.id, CONCAT('69', MOD(o.id, 2000) + 1), 'x', 3.0, 1 FROM orders o");
+        jdbc.execute("ANALYZE");
+
+        LocalDateTime from = day.plusDays(30);
+        LocalDateTime to = from.plusDays(1);
+        Integer productId = jdbc.queryForObject("SELECT MIN(id) FROM products", Integer.class);
+
+        // 扫码
+        assertNoTableScan(sqlOf(ProductMapper.class, "findByBarcode"), "691");
+        assertNoTableScan(sqlOf(ProductMapper.class, "findBarcodeEntriesByProductId"), productId);
+        // 看板（内存汇总不可用时的 SQL 回退）
+        assertNoTableScan(sqlOf(StatsMapper.class, "getTodayStats"), from, to);
+        // 单品统计
+        assertNoTableScan(sqlOf(ProductMapper.class, "getTotalSalesByProductId"), productId);
+        assertNoTableScan(sqlOf(ProductMapper.class, "getTodaySalesByProductId"), productId, from, to);
+        // 订单详情
+        assertNoTableScan(sqlOf(OrderMapper.class, "findItemsByOrderId"), 1);
+
+        // 对照：原来的 DATE(create_time) = CURDATE() 写法用不上索引
+        String oldToday = sqlOf(StatsMapper.class, "getTodayStats")
+                .replace("o.create_time >= ? AND o.create_time < ?", "DATE(o.create_time) = CURDATE()");
+        assertTrue(explain(oldToday).toLowerCase().contains("tablescan"));
+    }
+
+    @Test
+    void indexScriptCanBeRerunWhenSomeIndexesAlreadyExist() {
+        DriverManagerDataSource ds = new DriverManagerDataSource(
+                "jdbc:h2:mem:schema_migrations_rerun;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate db = new JdbcTemplate(ds);
+        SchemaMigrations first = new SchemaMigrations();
+        ReflectionTestUtils.setField(first, "dataSource", ds);
+        first.migrate();
+
+        // V3 上次只建了一部分索引就断了（或者 DBA 先手工建了几个），没有记进 schema_history
+        db.update("DELETE FROM schema_history WHERE version >= 3");
+        db.execute("DROP INDEX idx_orders_create_time");
+
+        SchemaMigrations again = new SchemaMigrations();
+        ReflectionTestUtils.setField(again, "dataSource", ds);
+        again.migrate();
+
+        assertEquals(List.of(1, 2, 3, 4), db.queryForList("SELECT version FROM schema_history ORDER BY version", Integer.class));
+        assertEquals(1, db.queryForObject("SELECT COUNT(*) FROM information_schema.indexes WHERE index_name = 'idx_orders_create_time'", Integer.class));
+        assertEquals(1, db.queryForObject("SELECT COUNT(*) FROM information_schema.indexes WHERE index_name = 'idx_order_items_barcode'", Integer.class));
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.lkpos;
+
+import com.example.lkpos.OrderController.OrderItem;
+import com.example.lkpos.OrderController.OrderRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 库存计数器：多台收银机抢同一个爆款不会超卖；没刷盘就宕机，重启后库存能从订单还原；
+ * 库存没载入期间的结账，包括载入时还没提交的，载入后都补扣了。
+ */
+class StockLevelsTests {
+
+    // 刷盘间隔设得很长，刷不刷盘由测试自己控制
+    private static ConfigurableApplicationContext start(String db) {
+        return new SpringApplicationBuilder(LkPosApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:" + db + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--mybatis.configuration.log-impl=org.apache.ibatis.logging.nologging.NoLoggingImpl",
+                        "--lkpos.stock.flush-interval=1h",
+                        "--spring.main.banner-mode=off");
+    }
+
+    private static void seedProducts(JdbcTemplate jdbc) {
+        jdbc.update("INSERT INTO products (id, name, price, cost_price) VALUES (1, '可乐', 3.5, 2.0), (2, '口香糖', 1.0, 0.5)");
+        jdbc.update("INSERT INTO product_barcodes (barcode, product_id) VALUES ('6901', 1), ('6902', 2)");
+    }
+
+    private static OrderRequest order(String barcode, int quantity) {
+        OrderItem item = new OrderItem();
+        item.barcode = barcode;
+        item.name = barcode;
+        item.price = 3.5;
+        item.quantity = quantity;
+        OrderRequest request = new OrderRequest();
+        request.items = new ArrayList<>(List.of(item));
+        request.totalItems = quantity;
+        request.totalAmount = 3.5 * quantity;
+        return request;
+    }
+
+    @Test
+    void concurrentTillsNeverOversellHotProduct() throws Exception {
+        try (ConfigurableApplicationContext ctx = start("stock_hot")) {
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            seedProducts(jdbc);
+            ctx.getBean(BarcodeIndex.class).reload();
+            StockLevels stock = ctx.getBean(StockLevels.class);
+            OrderWriter writer = ctx.getBean(OrderWriter.class);
+            stock.adjust(1, 100);
+
+            AtomicInteger sold = new AtomicInteger();
+            AtomicInteger rejected = new AtomicInteger();
+            ExecutorService tills = Executors.newFixedThreadPool(16);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                futures.add(tills.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        try {
+                            writer.save(order("6901", 1));
+                            sold.incrementAndGet();
+                        } catch (StockLevels.OutOfStockException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+            tills.shutdown();
+
+            assertEquals(100, sold.get());
+            assertEquals(220, rejected.get());
+            assertEquals(0L, stock.level(1));
+            // 不管库存的商品照常卖
+            writer.save(order("6902", 5));
+            assertNull(stock.level(2));
+
+            stock.flush();
+            assertEquals(0L, jdbc.queryForObject("SELECT quantity FROM product_stock WHERE product_id = 1", Long.class));
+            // 水位推进到最后一单（第 101 单只有不管库存的商品，同样算已处理）
+            assertEquals(101L, jdbc.queryForObject("SELECT applied_order_id FROM stock_checkpoint", Long.class));
+        }
+    }
+
+    @Test
+    void unflushedSalesAreReconstructedAfterRestart() {
+        try (ConfigurableApplicationContext before = start("stock_restart")) {
+            JdbcTemplate jdbc = before.getBean(JdbcTemplate.class);
+            seedProducts(jdbc);
+            before.getBean(BarcodeIndex.class).reload();
+            StockLevels stock = before.getBean(StockLevels.class);
+            OrderWriter writer = before.getBean(OrderWriter.class);
+            stock.adjust(1, 50);
+
+            writer.save(order("6901", 3));
+            stock.flush();
+            writer.save(order("6901", 4));
+            writer.save(order("6901", 5));
+            assertEquals(38L, stock.level(1));
+            // 后两单还没刷盘
+            assertEquals(47L, jdbc.queryForObject("SELECT quantity FROM product_stock WHERE product_id = 1", Long.class));
+
+            // 模拟宕机重启：旧进程的内存状态不算数，新进程只看数据库
+            try (ConfigurableApplicationContext after = start("stock_restart")) {
+                assertEquals(38L, after.getBean(StockLevels.class).level(1));
+                assertEquals(38L, jdbc.queryForObject("SELECT quantity FROM product_stock WHERE product_id = 1", Long.class));
+            }
+        }
+    }
+
+    @Test
+    void salesMadeBeforeStockIsLoadedAreDeductedEvenIfStillInFlightDuringLoad() throws Exception {
+        try (ConfigurableApplicationContext ctx = start("stock_unloaded")) {
+            JdbcTemplate jdbc = ctx.getBean(JdbcTemplate.class);
+            seedProducts(jdbc);
+            ctx.getBean(BarcodeIndex.class).reload();
+            StockLevels stock = ctx.getBean(StockLevels.class);
+            OrderWriter writer = ctx.getBean(OrderWriter.class);
+            TransactionTemplate tx = ctx.getBean(TransactionTemplate.class);
+            stock.adjust(1, 50);
+
+            // 模拟启动时数据库没连上：库存还没载入
+            ReflectionTestUtils.setField(stock, "ready", false);
+            writer.save(order("6901", 1));
+
+            // 这一单在载入开始前就开始结账，载入读数据库时还没提交
+            CountDownLatch reserved = new CountDownLatch(1);
+            CountDownLatch commit = new CountDownLatch(1);
+            CompletableFuture<Void> inFlight = CompletableFuture.runAsync(() -> tx.executeWithoutResult(status -> {
+                writer.save(order("6901", 3));
+                reserved.countDown();
+                try {
+                    assertTrue(commit.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+            assertTrue(reserved.await(10, TimeUnit.SECONDS));
+
+            CompletableFuture<Void> load = CompletableFuture.runAsync(stock::load);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!(Boolean) ReflectionTestUtils.getField(stock, "draining")) {
+                assertTrue(System.currentTimeMillis() < deadline, "load did not start");
+                Thread.sleep(10);
+            }
+            // 载入等在途结账的时候新来的结账先等着，载入完按已载入的库存扣
+            CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> writer.save(order("6901", 2)));
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+            assertFalse(load.isDone());
+
+            commit.countDown();
+            inFlight.get(10, TimeUnit.SECONDS);
+            load.get(10, TimeUnit.SECONDS);
+            waiting.get(10, TimeUnit.SECONDS);
+
+            assertEquals(44L, stock.level(1));
+            stock.flush();
+            assertEquals(44L, jdbc.queryForObject("SELECT quantity FROM product_stock WHERE product_id = 1", Long.class));
+        }
+    }
+}